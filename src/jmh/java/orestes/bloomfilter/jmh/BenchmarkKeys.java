@@ -0,0 +1,35 @@
+package orestes.bloomfilter.jmh;
+
+import java.util.Random;
+
+/**
+ * Deterministic key material shared by the JMH benchmarks, so that runs of different releases hash the same input.
+ */
+final class BenchmarkKeys {
+    /**
+     * Number of keys per key set, a power of two so that benchmarks can cycle through them with a mask.
+     */
+    static final int COUNT = 1 << 16;
+    static final int MASK = COUNT - 1;
+
+    private BenchmarkKeys() {
+    }
+
+    /**
+     * Generates printable ASCII keys of a fixed length.
+     *
+     * @param keyLength length of each key in bytes
+     * @param seed      seed of the generator, different seeds give disjoint key sets with high probability
+     * @return {@link #COUNT} keys
+     */
+    static byte[][] generate(int keyLength, long seed) {
+        Random random = new Random(seed);
+        byte[][] keys = new byte[COUNT][keyLength];
+        for (byte[] key : keys) {
+            for (int i = 0; i < keyLength; i++) {
+                key[i] = (byte) ('!' + random.nextInt('~' - '!'));
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,101 @@
+package orestes.bloomfilter.jmh;
+
+import orestes.bloomfilter.BloomFilter;
+import orestes.bloomfilter.FilterBuilder;
+import orestes.bloomfilter.HashProvider.HashMethod;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures add and contains of the in-memory filters. The filter is shared by all benchmark threads (use
+ * {@code -t} or {@code -PjmhThreads} to vary contention), every thread cycles through its own key index.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FilterBenchmark {
+
+    /**
+     * The filter implementations under test, the counting variants are selected through the counting bits just as
+     * {@link FilterBuilder#buildCountingBloomFilter()} does.
+     */
+    public enum Implementation {
+        MEMORY(0), COUNTING_8(8), COUNTING_16(16), COUNTING_32(32), COUNTING_64(64), COUNTING_BITSET(4);
+
+        private final int countingBits;
+
+        Implementation(int countingBits) {
+            this.countingBits = countingBits;
+        }
+
+        BloomFilter<String> build(FilterBuilder builder) {
+            if (this == MEMORY) {
+                return builder.buildBloomFilter();
+            }
+            return builder.countingBits(countingBits).buildCountingBloomFilter();
+        }
+    }
+
+    @Param
+    public Implementation implementation;
+
+    @Param({"Murmur3KirschMitzenmacher", "Murmur3", "CRC32"})
+    public HashMethod hashMethod;
+
+    @Param({"16", "64"})
+    public int keyLength;
+
+    @Param({"1000000", "10000000"})
+    public int size;
+
+    @Param({"7"})
+    public int hashes;
+
+    private BloomFilter<String> filter;
+    private byte[][] present;
+    private byte[][] absent;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup
+    public void setup() {
+        filter = implementation.build(new FilterBuilder(size, hashes).hashFunction(hashMethod));
+        present = BenchmarkKeys.generate(keyLength, 42);
+        absent = BenchmarkKeys.generate(keyLength, 4711);
+        for (byte[] key : present) {
+            filter.addRaw(key);
+        }
+    }
+
+    @Benchmark
+    public boolean add(Cursor cursor) {
+        return filter.addRaw(present[cursor.next++ & BenchmarkKeys.MASK]);
+    }
+
+    @Benchmark
+    public boolean containsPresent(Cursor cursor) {
+        return filter.contains(present[cursor.next++ & BenchmarkKeys.MASK]);
+    }
+
+    @Benchmark
+    public boolean containsAbsent(Cursor cursor) {
+        return filter.contains(absent[cursor.next++ & BenchmarkKeys.MASK]);
+    }
+}
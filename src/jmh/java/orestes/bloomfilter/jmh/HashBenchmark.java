@@ -0,0 +1,56 @@
+package orestes.bloomfilter.jmh;
+
+import orestes.bloomfilter.HashProvider.HashFunction;
+import orestes.bloomfilter.HashProvider.HashMethod;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the raw speed of every {@link HashMethod}, replaces the hand-rolled timers of {@code performance.BFHashSpeed}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HashBenchmark {
+
+    @Param
+    public HashMethod hashMethod;
+
+    @Param({"8", "32", "128"})
+    public int keyLength;
+
+    @Param({"10000", "10000000"})
+    public int size;
+
+    @Param({"7"})
+    public int hashes;
+
+    private HashFunction hashFunction;
+    private byte[][] keys;
+    private int next;
+
+    @Setup
+    public void setup() {
+        hashFunction = hashMethod.getHashFunction();
+        keys = BenchmarkKeys.generate(keyLength, 42);
+    }
+
+    @Benchmark
+    public int[] hash() {
+        return hashFunction.hash(keys[next++ & BenchmarkKeys.MASK], size, hashes);
+    }
+}
@@ -0,0 +1,81 @@
+package orestes.bloomfilter.jmh;
+
+import orestes.bloomfilter.BloomFilter;
+import orestes.bloomfilter.FilterBuilder;
+import orestes.bloomfilter.ProbeStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link ProbeStrategy probe strategies} on filters that are much larger than the CPU caches and TLB
+ * reach. The largest size is the maximum bit size of a filter (256 MB), combine with {@code -prof perfnorm} to see
+ * the cache and TLB misses.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Thread)
+public class ProbeLocalityBenchmark {
+
+    @Param
+    public ProbeStrategy probeStrategy;
+
+    @Param({"268435456", "2147483647"})
+    public int size;
+
+    @Param({"10"})
+    public int hashes;
+
+    @Param({"1024", "65536"})
+    public int batchSize;
+
+    private BloomFilter<String> filter;
+    private List<List<String>> batches;
+    private byte[][] keys;
+    private int next;
+
+    @Setup
+    public void setup() {
+        filter = new FilterBuilder(size, hashes).probeStrategy(probeStrategy).buildBloomFilter();
+        keys = BenchmarkKeys.generate(16, 42);
+        batches = new ArrayList<>();
+        for (int offset = 0; offset < BenchmarkKeys.COUNT; offset += batchSize) {
+            List<String> batch = new ArrayList<>(batchSize);
+            for (int i = offset; i < offset + batchSize && i < BenchmarkKeys.COUNT; i++) {
+                batch.add(new String(keys[i], FilterBuilder.defaultCharset()));
+            }
+            batches.add(batch);
+        }
+        batches.forEach(filter::addAll);
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return filter.contains(keys[next++ & BenchmarkKeys.MASK]);
+    }
+
+    @Benchmark
+    public List<Boolean> containsBatch() {
+        return filter.contains(batches.get(next++ % batches.size()));
+    }
+
+    @Benchmark
+    public List<Boolean> addBatch() {
+        return filter.addAll(batches.get(next++ % batches.size()));
+    }
+}
@@ -0,0 +1,76 @@
+package orestes.bloomfilter;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * bf的异步接口. 所有方法立即返回，结果通过{@link CompletableFuture}获得
+ *
+ * @param <T> 元素类型
+ */
+public interface AsyncBloomFilter<T> extends AutoCloseable {
+
+    /**
+     * @return 对应的同步bf, 提供配置和元素的序列化
+     */
+    BloomFilter<T> getFilter();
+
+    /**
+     * 添加元素
+     *
+     * @param element 元素的字节数组
+     * @return 是否有bit被修改
+     */
+    CompletableFuture<Boolean> addRawAsync(byte[] element);
+
+    /**
+     * 添加元素
+     *
+     * @param element 元素
+     * @return 是否有bit被修改
+     */
+    default CompletableFuture<Boolean> addAsync(T element) {
+        return addRawAsync(getFilter().toBytes(element));
+    }
+
+    /**
+     * 批量添加元素
+     *
+     * @param elements 元素
+     * @return 每个元素是否有bit被修改
+     */
+    CompletableFuture<List<Boolean>> addAllAsync(Collection<T> elements);
+
+    /**
+     * 检查元素是否存在
+     *
+     * @param element 元素的字节数组
+     * @return 是否存在
+     */
+    CompletableFuture<Boolean> containsAsync(byte[] element);
+
+    /**
+     * 检查元素是否存在
+     *
+     * @param element 元素
+     * @return 是否存在
+     */
+    default CompletableFuture<Boolean> containsAsync(T element) {
+        return containsAsync(getFilter().toBytes(element));
+    }
+
+    /**
+     * 批量检查元素是否存在
+     *
+     * @param elements 元素
+     * @return 每个元素是否存在
+     */
+    CompletableFuture<List<Boolean>> containsAsync(Collection<T> elements);
+
+    /**
+     * 释放连接. 已提交的操作仍会执行
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,63 @@
+package orestes.bloomfilter;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 计数bf的异步接口
+ *
+ * @param <T> 元素类型
+ */
+public interface AsyncCountingBloomFilter<T> extends AsyncBloomFilter<T> {
+
+    @Override
+    CountingBloomFilter<T> getFilter();
+
+    /**
+     * 添加元素并返回估计的计数
+     *
+     * @param element 元素的字节数组
+     * @return 估计的计数
+     */
+    CompletableFuture<Long> addAndEstimateCountRawAsync(byte[] element);
+
+    /**
+     * 添加元素并返回估计的计数
+     *
+     * @param element 元素
+     * @return 估计的计数
+     */
+    default CompletableFuture<Long> addAndEstimateCountAsync(T element) {
+        return addAndEstimateCountRawAsync(getFilter().toBytes(element));
+    }
+
+    /**
+     * 删除元素并返回估计的计数
+     *
+     * @param element 元素的字节数组
+     * @return 估计的计数
+     */
+    CompletableFuture<Long> removeAndEstimateCountRawAsync(byte[] element);
+
+    /**
+     * 删除元素并返回估计的计数
+     *
+     * @param element 元素
+     * @return 估计的计数
+     */
+    default CompletableFuture<Long> removeAndEstimateCountAsync(T element) {
+        return removeAndEstimateCountRawAsync(getFilter().toBytes(element));
+    }
+
+    /**
+     * 估计元素的计数
+     *
+     * @param element 元素
+     * @return 估计的计数
+     */
+    CompletableFuture<Long> getEstimatedCountAsync(T element);
+
+    @Override
+    default CompletableFuture<Boolean> addRawAsync(byte[] element) {
+        return addAndEstimateCountRawAsync(element).thenApply(count -> count == 1);
+    }
+}
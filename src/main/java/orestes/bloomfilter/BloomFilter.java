@@ -199,6 +199,31 @@ public interface BloomFilter<T> extends Cloneable, Serializable {
         return hash(value.getBytes(FilterBuilder.defaultCharset()));
     }
 
+    /**
+     * 批量计算hash值，由hash函数在一个循环中处理所有元素
+     *
+     * @param values input elements
+     * @return 每个元素<i>hashes</i>个哈希位置, 第<i>i</i>个元素的位置从<i>i * hashes</i>开始
+     */
+    default int[] hash(byte[][] values) {
+        return config().hashFunction().hash(values, config().size(), config().hashes());
+    }
+
+    /**
+     * 批量计算元素的hash值
+     *
+     * @param elements 待hash的元素
+     * @return 每个元素<i>hashes</i>个哈希位置, 第<i>i</i>个元素的位置从<i>i * hashes</i>开始
+     */
+    default int[] hashAll(Collection<T> elements) {
+        byte[][] values = new byte[elements.size()][];
+        int i = 0;
+        for (T element : elements) {
+            values[i++] = toBytes(element);
+        }
+        return hash(values);
+    }
+
     /**
      * 合并两个bf
      *
@@ -274,7 +299,17 @@ public interface BloomFilter<T> extends Cloneable, Serializable {
     }
 
     static Double population(BitSet bitSet, FilterBuilder config) {
-        int oneBits = bitSet.cardinality();
+        return population(bitSet.cardinality(), config);
+    }
+
+    /**
+     * 根据被设置的bit数估算元素数量
+     *
+     * @param oneBits 被设置的bit数
+     * @param config  bf的配置
+     * @return 估算的元素数量
+     */
+    static Double population(long oneBits, FilterBuilder config) {
         return -config.size() / ((double) config.hashes()) * Math.log(1 - oneBits / ((double) config.size()));
     }
 
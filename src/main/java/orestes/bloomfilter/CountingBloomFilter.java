@@ -53,6 +53,26 @@ public interface CountingBloomFilter<T> extends BloomFilter<T> {
         return elements.stream().map(this::remove).collect(Collectors.toList());
     }
 
+    /**
+     * 批量添加元素并返回每个元素被添加的次数
+     *
+     * @param elements 待添加的元素
+     * @return 每个元素被添加的次数
+     */
+    default List<Long> addAllAndEstimateCount(Collection<T> elements) {
+        return elements.stream().map(this::addAndEstimateCount).collect(Collectors.toList());
+    }
+
+    /**
+     * 批量删除元素并返回每个元素删除后的估计计数
+     *
+     * @param elements 待删除的元素
+     * @return 每个元素删除后的估计计数
+     */
+    default List<Long> removeAllAndEstimateCount(Collection<T> elements) {
+        return elements.stream().map(this::removeAndEstimateCount).collect(Collectors.toList());
+    }
+
     /**
      * 返回使用最小选择算法情况下元素的估算计数(如：.选择最小计数器).
      * 这个估计有点偏向, 没有考虑bf是否已满，但在实践中表现非常好
@@ -5,13 +5,23 @@ import orestes.bloomfilter.HashProvider.HashMethod;
 import orestes.bloomfilter.memory.*;
 import orestes.bloomfilter.redis.BloomFilterRedis;
 import orestes.bloomfilter.redis.CountingBloomFilterRedis;
+import orestes.bloomfilter.redis.RedisCommandMode;
+import orestes.bloomfilter.redis.RedisCounterStorage;
 import orestes.bloomfilter.redis.helper.RedisPool;
+import orestes.bloomfilter.redis.helper.RedisPoolListener;
+import orestes.bloomfilter.storage.StorageBackend;
+import orestes.bloomfilter.storage.StoredBloomFilter;
+import orestes.bloomfilter.storage.StoredCountingBloomFilter;
 import redis.clients.jedis.Protocol;
 
 import java.io.Serializable;
 import java.nio.charset.Charset;
+import java.time.Duration;
 import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 
@@ -33,6 +43,20 @@ public class FilterBuilder implements Cloneable, Serializable {
     private boolean redisSsl = false;
     private HashMethod hashMethod = HashMethod.Murmur3KirschMitzenmacher;
     private HashFunction hashFunction = HashMethod.Murmur3KirschMitzenmacher.getHashFunction();
+    private boolean customHashFunction = false;
+    private int seed = 0;
+    private ProbeStrategy probeStrategy = ProbeStrategy.HASH_ORDER;
+    private transient List<byte[]> autoSample;
+    private int autoSampleSize = 1000;
+    private RedisCommandMode redisCommandMode = RedisCommandMode.TRANSACTIONAL;
+    private int redisPipelineChunkSize = RedisPool.DEFAULT_PIPELINE_CHUNK_SIZE;
+    private RedisCounterStorage redisCounterStorage = RedisCounterStorage.HASH;
+    private int redisBatchConnections = 0;
+    private int redisBatchSize = 0;
+    private Duration redisBatchDelay = Duration.ZERO;
+    private boolean redisHedgedReads = false;
+    private transient StorageBackend storage;
+    private transient RedisPoolListener redisPoolListener;
     private Set<Entry<String, Integer>> slaves = new HashSet<>();
     private static transient Charset defaultCharset = Charset.forName("UTF-8");
     private boolean done = false;
@@ -243,7 +267,8 @@ public class FilterBuilder implements Cloneable, Serializable {
      */
     public FilterBuilder hashFunction(HashMethod hashMethod) {
         this.hashMethod = hashMethod;
-        this.hashFunction = hashMethod.getHashFunction();
+        this.hashFunction = hashMethod.getHashFunction(seed);
+        this.customHashFunction = false;
         return this;
     }
 
@@ -255,6 +280,142 @@ public class FilterBuilder implements Cloneable, Serializable {
      */
     public FilterBuilder hashFunction(HashFunction hf) {
         this.hashFunction = hf;
+        this.customHashFunction = true;
+        return this;
+    }
+
+    /**
+     * 设置hash种子，缺省为0. 不同种子的bf对相同元素设置的bits相互独立，可用于分层或级联的bf.
+     * 所有{@link HashMethod}都支持种子，自定义的hash函数不受影响
+     *
+     * @param seed hash种子
+     * @return 修改后的对象
+     */
+    public FilterBuilder seed(int seed) {
+        this.seed = seed;
+        if (!customHashFunction) {
+            this.hashFunction = hashMethod.getHashFunction(seed);
+        }
+        return this;
+    }
+
+    /**
+     * 为{@link HashMethod#AUTO}提供key的样本，构建时在样本上选择hash算法. redis存储的bf必须提供样本，
+     * 否则使用{@link HashMethodSelector#FALLBACK}
+     *
+     * @param sample key的样本
+     * @return 修改后的对象
+     */
+    public FilterBuilder autoSample(Collection<byte[]> sample) {
+        this.autoSample = new ArrayList<>(sample);
+        return this;
+    }
+
+    /**
+     * 没有提供样本时，内存中的{@link HashMethod#AUTO} bf缓存前n个插入的key作为样本，缺省为1000
+     *
+     * @param autoSampleSize 样本大小
+     * @return 修改后的对象
+     */
+    public FilterBuilder autoSampleSize(int autoSampleSize) {
+        this.autoSampleSize = autoSampleSize;
+        return this;
+    }
+
+    /**
+     * 设置探测bit数组的顺序，缺省为{@link ProbeStrategy#HASH_ORDER}. 只影响内存中的bf
+     *
+     * @param probeStrategy 探测顺序
+     * @return 修改后的对象
+     */
+    public FilterBuilder probeStrategy(ProbeStrategy probeStrategy) {
+        this.probeStrategy = probeStrategy;
+        return this;
+    }
+
+    /**
+     * 设置redis存储的bf读写bit数组的方式，缺省为{@link RedisCommandMode#TRANSACTIONAL}. 只影响客户端，不会被持久化
+     *
+     * @param redisCommandMode 读写bit数组的方式
+     * @return 修改后的对象
+     */
+    public FilterBuilder redisCommandMode(RedisCommandMode redisCommandMode) {
+        this.redisCommandMode = redisCommandMode;
+        return this;
+    }
+
+    /**
+     * 设置批量读取时每次flush的命令个数，缺省为{@link RedisPool#DEFAULT_PIPELINE_CHUNK_SIZE}. 只影响客户端，不会被持久化
+     *
+     * @param redisPipelineChunkSize 每次flush的命令个数
+     * @return 修改后的对象
+     */
+    public FilterBuilder redisPipelineChunkSize(int redisPipelineChunkSize) {
+        this.redisPipelineChunkSize = redisPipelineChunkSize;
+        return this;
+    }
+
+    /**
+     * 设置redis存储的可计数bf保存计数器的方式，缺省为{@link RedisCounterStorage#HASH}. 会被持久化
+     *
+     * @param redisCounterStorage 保存计数器的方式
+     * @return 修改后的对象
+     */
+    public FilterBuilder redisCounterStorage(RedisCounterStorage redisCounterStorage) {
+        this.redisCounterStorage = redisCounterStorage;
+        return this;
+    }
+
+    /**
+     * 合并并发的单元素add和contains请求: 请求进入无锁队列, 达到<i>maxBatch</i>个请求或最早的请求等待了<i>maxDelay</i>后,
+     * 由专用连接作为一个管道发送. 缺省关闭. 只影响客户端，不会被持久化
+     *
+     * @param connections 专用连接个数
+     * @param maxBatch    每个管道最多包含的请求个数
+     * @param maxDelay    请求等待更多请求的最长时间, 例如200µs
+     * @return 修改后的对象
+     */
+    public FilterBuilder redisMicroBatching(int connections, int maxBatch, Duration maxDelay) {
+        this.redisBatchConnections = connections;
+        this.redisBatchSize = maxBatch;
+        this.redisBatchDelay = maxDelay;
+        return this;
+    }
+
+    /**
+     * 从redis从节点读取时, 若第一个从节点在其95分位延迟内没有响应, 则向另一个从节点发送相同的读请求并采用先返回的结果.
+     * 需要至少两个从节点, 缺省关闭. 只影响客户端，不会被持久化
+     *
+     * @param redisHedgedReads 是否对读请求做对冲
+     * @return 修改后的对象
+     */
+    public FilterBuilder redisHedgedReads(boolean redisHedgedReads) {
+        this.redisHedgedReads = redisHedgedReads;
+        return this;
+    }
+
+    /**
+     * 设置接收连接池监控事件(借用连接的等待时间, 各类操作的延迟, 管道大小, 事务重试, 从节点路由)的监听器,
+     * 例如{@link orestes.bloomfilter.redis.helper.RedisPoolMetrics}. 缺省没有监听器, 几乎没有额外开销. 只影响客户端，不会被持久化
+     *
+     * @param redisPoolListener 监听器
+     * @return 修改后的对象
+     */
+    public FilterBuilder redisPoolListener(RedisPoolListener redisPoolListener) {
+        this.redisPoolListener = redisPoolListener;
+        return this;
+    }
+
+    /**
+     * 把bf的数据保存在给定的存储后端中(例如{@link orestes.bloomfilter.storage.InProcessStorage}或
+     * {@link orestes.bloomfilter.redis.RedisStorage}), 构建的bf使用与后端无关的实现. 优先于{@link #redisBacked(boolean)}.
+     * 只影响客户端，不会被持久化
+     *
+     * @param storage 存储后端
+     * @return 修改后的对象
+     */
+    public FilterBuilder storage(StorageBackend storage) {
+        this.storage = storage;
         return this;
     }
 
@@ -281,8 +442,12 @@ public class FilterBuilder implements Cloneable, Serializable {
      */
     public <T> BloomFilter<T> buildBloomFilter() {
         complete();
-        if (redisBacked) {
+        if (storage != null) {
+            return new StoredBloomFilter<>(this);
+        } else if (redisBacked) {
             return new BloomFilterRedis<>(this);
+        } else if (hashMethod == HashMethod.AUTO && !customHashFunction) {
+            return new AutoHashBloomFilter<>(this);
         } else {
             return new BloomFilterMemory<>(this);
         }
@@ -296,19 +461,26 @@ public class FilterBuilder implements Cloneable, Serializable {
      */
     public <T> CountingBloomFilter<T> buildCountingBloomFilter() {
         complete();
-        if (redisBacked) {
-            return new CountingBloomFilterRedis<>(this);
+        FilterBuilder config = this;
+        if (hashMethod == HashMethod.AUTO && !customHashFunction) {
+            //Counters cannot buffer keys for sampling. The fallback is pinned on a copy, so the builder stays AUTO
+            config = clone().hashFunction(HashMethodSelector.FALLBACK);
+        }
+        if (storage != null) {
+            return new StoredCountingBloomFilter<>(config);
+        } else if (redisBacked) {
+            return new CountingBloomFilterRedis<>(config);
         } else {
             if (countingBits == 32) {
-                return new CountingBloomFilter32<>(this);
+                return new CountingBloomFilter32<>(config);
             } else if (countingBits == 16) {
-                return new CountingBloomFilter16<>(this);
+                return new CountingBloomFilter16<>(config);
             } else if (countingBits == 8) {
-                return new CountingBloomFilter8<>(this);
+                return new CountingBloomFilter8<>(config);
             } else if (countingBits == 64) {
-                return new CountingBloomFilter64<>(this);
+                return new CountingBloomFilter64<>(config);
             } else {
-                return new CountingBloomFilterMemory<>(this);
+                return new CountingBloomFilterMemory<>(config);
             }
         }
     }
@@ -337,6 +509,14 @@ public class FilterBuilder implements Cloneable, Serializable {
         if (falsePositiveProbability == null) {
             falsePositiveProbability = optimalP(hashes, size, expectedElements);
         }
+        if (hashMethod == HashMethod.AUTO && !customHashFunction) {
+            //The hash method has to be fixed before a Redis-backed config is persisted or shared data is used
+            if (autoSample != null && !autoSample.isEmpty()) {
+                hashFunction(HashMethodSelector.select(autoSample, size, hashes, seed));
+            } else if (redisBacked || storage != null) {
+                hashFunction(HashMethodSelector.FALLBACK);
+            }
+        }
 
         done = true;
         return this;
@@ -434,6 +614,90 @@ public class FilterBuilder implements Cloneable, Serializable {
         return hashMethod;
     }
 
+    /**
+     * @return hash种子
+     */
+    public int seed() {
+        return seed;
+    }
+
+    /**
+     * @return redis存储的bf读写bit数组的方式
+     */
+    public RedisCommandMode redisCommandMode() {
+        return redisCommandMode;
+    }
+
+    /**
+     * @return 批量读取时每次flush的命令个数
+     */
+    public int redisPipelineChunkSize() {
+        return redisPipelineChunkSize;
+    }
+
+    /**
+     * @return redis存储的可计数bf保存计数器的方式
+     */
+    public RedisCounterStorage redisCounterStorage() {
+        return redisCounterStorage;
+    }
+
+    /**
+     * @return 是否合并并发的单元素请求
+     */
+    public boolean redisMicroBatching() {
+        return redisBatchConnections > 0;
+    }
+
+    /**
+     * @return 是否对从节点的读请求做对冲
+     */
+    public boolean redisHedgedReads() {
+        return redisHedgedReads;
+    }
+
+    /**
+     * @return 连接池的监听器, 未设置时为null
+     */
+    public RedisPoolListener redisPoolListener() {
+        return redisPoolListener;
+    }
+
+    /**
+     * @return 存储后端, 未设置时为null
+     */
+    public StorageBackend storage() {
+        return storage;
+    }
+
+    /**
+     * @return 合并单元素请求的专用连接个数
+     */
+    public int redisBatchConnections() {
+        return redisBatchConnections;
+    }
+
+    /**
+     * @return 合并单元素请求时每个管道最多包含的请求个数
+     */
+    public int redisBatchSize() {
+        return redisBatchSize;
+    }
+
+    /**
+     * @return 合并单元素请求时请求等待更多请求的最长时间
+     */
+    public Duration redisBatchDelay() {
+        return redisBatchDelay;
+    }
+
+    /**
+     * @return {@link HashMethod#AUTO}的样本大小
+     */
+    public int autoSampleSize() {
+        return autoSampleSize;
+    }
+
     /**
      * @return Bloom filter实际使用的hash函数
      */
@@ -441,6 +705,13 @@ public class FilterBuilder implements Cloneable, Serializable {
         return hashFunction;
     }
 
+    /**
+     * @return 探测bit数组的顺序
+     */
+    public ProbeStrategy probeStrategy() {
+        return probeStrategy;
+    }
+
     /**
      * @return 字符串转换为bytes时使用的字符集
      */
@@ -463,13 +734,14 @@ public class FilterBuilder implements Cloneable, Serializable {
     }
 
     /**
-     * 检查两个bf的大小和哈希函数确认是否兼容
+     * 检查两个bf的大小、哈希函数和种子确认是否兼容
      *
      * @param other 另一个哈希函数的配置
      * @return {@code true} 配置是否兼容
      */
     public boolean isCompatibleTo(FilterBuilder other) {
-        return this.size() == other.size() && this.hashes() == other.hashes() && this.hashMethod() == other.hashMethod();
+        return this.size() == other.size() && this.hashes() == other.hashes() && this.hashMethod() == other.hashMethod()
+                && this.seed() == other.seed();
     }
 
     /**
@@ -525,7 +797,7 @@ public class FilterBuilder implements Cloneable, Serializable {
     public RedisPool pool() {
         if (done && pool == null) {
             pool = RedisPool.builder().host(redisHost()).port(redisPort()).readSlaves(getReadSlaves()).password(password()).database(database())
-                    .redisConnections(redisConnections()).build();
+                    .redisConnections(redisConnections()).hedgedReads(redisHedgedReads()).listener(redisPoolListener()).build();
         }
         return pool;
     }
@@ -0,0 +1,140 @@
+package orestes.bloomfilter;
+
+import orestes.bloomfilter.HashProvider.HashFunction;
+import orestes.bloomfilter.HashProvider.HashMethod;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 根据key的样本为{@link HashMethod#AUTO}选择hash算法: 在样本上对候选算法做基准测试，选出通过均匀性检验(卡方检验)的最快算法
+ */
+public class HashMethodSelector {
+    private static final Logger LOG = LoggerFactory.getLogger(HashMethodSelector.class);
+
+    /**
+     * 候选算法，只包含快速的非密码学算法
+     */
+    public static final List<HashMethod> CANDIDATES = Arrays.asList(HashMethod.Murmur3KirschMitzenmacher,
+            HashMethod.Murmur3, HashMethod.CRC32, HashMethod.Murmur2, HashMethod.FNVWithLCG);
+
+    /**
+     * 没有候选算法通过检验时使用的算法
+     */
+    public static final HashMethod FALLBACK = HashMethod.Murmur3KirschMitzenmacher;
+
+    private static final int ROUNDS = 7;
+    private static final int MIN_EXPECTED_PER_BUCKET = 20;
+    //Standard normal quantile for a significance level of 0.001
+    private static final double Z_CRITICAL = 3.09;
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "hash-method-selector");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private HashMethodSelector() {
+    }
+
+    /**
+     * 在后台线程中选择hash算法
+     *
+     * @param sample key的样本
+     * @param m      bf的bit大小
+     * @param k      hash函数个数
+     * @param seed   hash种子
+     * @return 选出的hash算法
+     */
+    public static CompletableFuture<HashMethod> selectAsync(Collection<byte[]> sample, int m, int k, int seed) {
+        byte[][] keys = sample.toArray(new byte[sample.size()][]);
+        return CompletableFuture.supplyAsync(() -> select(keys, m, k, seed), EXECUTOR);
+    }
+
+    /**
+     * 选择hash算法
+     *
+     * @param sample key的样本
+     * @param m      bf的bit大小
+     * @param k      hash函数个数
+     * @param seed   hash种子
+     * @return 选出的hash算法
+     */
+    public static HashMethod select(Collection<byte[]> sample, int m, int k, int seed) {
+        return select(sample.toArray(new byte[sample.size()][]), m, k, seed);
+    }
+
+    private static HashMethod select(byte[][] sample, int m, int k, int seed) {
+        if (sample.length == 0) {
+            return FALLBACK;
+        }
+        HashMethod best = FALLBACK;
+        long bestNanos = Long.MAX_VALUE;
+        for (HashMethod candidate : CANDIDATES) {
+            HashFunction hf = candidate.getHashFunction(seed);
+            int[] positions = hf.hash(sample, m, k);
+            if (!isUniform(positions, m)) {
+                LOG.debug("Hash method {} rejected, positions are not uniform", candidate);
+                continue;
+            }
+            long nanos = benchmark(hf, sample, m, k);
+            LOG.debug("Hash method {} took {} ns for {} keys", candidate, nanos, sample.length);
+            if (nanos < bestNanos) {
+                bestNanos = nanos;
+                best = candidate;
+            }
+        }
+        LOG.info("Selected hash method {} for a sample of {} keys", best, sample.length);
+        return best;
+    }
+
+    /**
+     * @return the fastest of several rounds, the first rounds also serve as warm-up
+     */
+    private static long benchmark(HashFunction hf, byte[][] sample, int m, int k) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            hf.hash(sample, m, k);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    /**
+     * Pearson's chi-squared test of the positions against a discrete uniform distribution over equally sized buckets
+     * of the bit array. The critical value is approximated with the Wilson-Hilferty transformation.
+     *
+     * @param positions hash positions in [0, m)
+     * @param m         the size of the bit array
+     * @return {@code true} if uniformity cannot be rejected
+     */
+    static boolean isUniform(int[] positions, int m) {
+        int buckets = Math.min(m, positions.length / MIN_EXPECTED_PER_BUCKET);
+        if (buckets < 2) {
+            return true;
+        }
+        long[] observed = new long[buckets];
+        for (int position : positions) {
+            observed[(int) ((long) position * buckets / m)]++;
+        }
+        double chiSquare = 0;
+        for (int b = 0; b < buckets; b++) {
+            //Buckets differ in size by at most one bit
+            long from = ((long) b * m + buckets - 1) / buckets;
+            long to = ((long) (b + 1) * m + buckets - 1) / buckets;
+            double expected = positions.length * (to - from) / (double) m;
+            double diff = observed[b] - expected;
+            chiSquare += diff * diff / expected;
+        }
+        double df = buckets - 1;
+        double critical = df * Math.pow(1 - 2 / (9 * df) + Z_CRITICAL * Math.sqrt(2 / (9 * df)), 3);
+        return chiSquare <= critical;
+    }
+}
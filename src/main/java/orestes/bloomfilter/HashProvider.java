@@ -49,11 +49,22 @@ public class HashProvider {
      * @return array with <i>hashes</i> integer hash positions in the range <i>[0,size)</i>
      */
     public static int[] hashCarterWegman(byte[] value, int m, int k) {
+        return hashCarterWegman(value, m, k, 0);
+    }
+
+    /**
+     * @param value the value to be hashed
+     * @param m     integer output range [1,size]
+     * @param k     number of hashes to be computed
+     * @param seed  selects the universal hash functions, 0 is the unseeded family
+     * @return array with <i>hashes</i> integer hash positions in the range <i>[0,size)</i>
+     */
+    public static int[] hashCarterWegman(byte[] value, int m, int k, int seed) {
         int[] positions = new int[k];
         BigInteger prime32 = BigInteger.valueOf(4294967279l);
         BigInteger prime64 = BigInteger.valueOf(53200200938189l);
         BigInteger prime128 = new BigInteger("21213943449988109084994671");
-        Random r = new Random(seed32);
+        Random r = new Random(seed32 ^ ((long) seed << 32));
         //BigInteger.valueOf(hashBytes(value)
         BigInteger v = new BigInteger(value.length > 0 ? value : new byte[1]);
 
@@ -73,8 +84,19 @@ public class HashProvider {
      * @return array with <i>hashes</i> integer hash positions in the range <i>[0,size)</i>
      */
     public static int[] hashRNG(byte[] value, int m, int k) {
+        return hashRNG(value, m, k, 0);
+    }
+
+    /**
+     * @param value the value to be hashed
+     * @param m     integer output range [1,size]
+     * @param k     number of hashes to be computed
+     * @param seed  mixed into the initialization of the RNG, 0 is the unseeded family
+     * @return array with <i>hashes</i> integer hash positions in the range <i>[0,size)</i>
+     */
+    public static int[] hashRNG(byte[] value, int m, int k, int seed) {
         int[] positions = new int[k];
-        Random r = new Random(hashBytes(value));
+        Random r = new Random(hashBytes(value) ^ ((long) seed << 32));
         for (int i = 0; i < k; i++) {
             positions[i] = r.nextInt(m);
         }
@@ -90,7 +112,11 @@ public class HashProvider {
      * @return array with <i>hashes</i> integer hash positions in the range <i>[0,size)</i>
      */
     public static int[] hashCRC(byte[] value, int m, int k) {
-        return hashChecksum(value, new CRC32(), m, k);
+        return hashCRC(value, m, k, 0);
+    }
+
+    public static int[] hashCRC(byte[] value, int m, int k, int seed) {
+        return hashChecksum(value, new CRC32(), m, k, seed);
     }
 
     /**
@@ -100,15 +126,35 @@ public class HashProvider {
      * @return array with <i>hashes</i> integer hash positions in the range <i>[0,size)</i>
      */
     public static int[] hashAdler(byte[] value, int m, int k) {
-        return hashChecksum(value, new Adler32(), m, k);
+        return hashAdler(value, m, k, 0);
+    }
+
+    public static int[] hashAdler(byte[] value, int m, int k, int seed) {
+        return hashChecksum(value, new Adler32(), m, k, seed);
     }
 
     public static int[] hashChecksum(byte[] value, Checksum cs, int m, int k) {
+        return hashChecksum(value, cs, m, k, 0);
+    }
+
+    /**
+     * @param value the value to be hashed
+     * @param cs    the checksum to use
+     * @param m     integer output range [1,size]
+     * @param k     number of hashes to be computed
+     * @param seed  checksummed before the value, 0 is the unseeded family
+     * @return array with <i>hashes</i> integer hash positions in the range <i>[0,size)</i>
+     */
+    public static int[] hashChecksum(byte[] value, Checksum cs, int m, int k, int seed) {
+        byte[] seedBytes = seed != 0 ? toBytes(seed) : null;
         int[] positions = new int[k];
         int hashes = 0;
         int salt = 0;
         while (hashes < k) {
             cs.reset();
+            if (seedBytes != null) {
+                cs.update(seedBytes, 0, seedBytes.length);
+            }
             cs.update(value, 0, value.length);
             // Modify the data to be checksummed by adding the number of already
             // calculated hashes, the loop counter and
@@ -129,6 +175,17 @@ public class HashProvider {
      * @return array with <i>hashes</i> integer hash positions in the range <i>[0,size)</i>
      */
     public static int[] hashSimpleLCG(byte[] value, int m, int k) {
+        return hashSimpleLCG(value, m, k, 0);
+    }
+
+    /**
+     * @param value the value to be hashed
+     * @param m     integer output range [1,size]
+     * @param k     number of hashes to be computed
+     * @param hashSeed mixed into the initial LCG state, 0 is the unseeded family
+     * @return array with <i>hashes</i> integer hash positions in the range <i>[0,size)</i>
+     */
+    public static int[] hashSimpleLCG(byte[] value, int m, int k, int hashSeed) {
         // Java constants
         final long multiplier = 0x5DEECE66DL;
         final long addend = 0xBL;
@@ -144,7 +201,7 @@ public class HashProvider {
 
         // Calculate hashes numbers iteratively
         int[] positions = new int[k];
-        long seed = reduced;
+        long seed = reduced ^ ((hashSeed & 0xFFFFFFFFL) << 16);
         for (int i = 0; i < k; i++) {
             // LCG formula: x_i+1 = (multiplier * x_i + addend) mod mask
             seed = (seed * multiplier + addend) & mask;
@@ -154,12 +211,20 @@ public class HashProvider {
     }
 
     public static int[] hashMurmur3(byte[] value, int m, int k) {
-        return rejectionSample(HashProvider::murmur3_signed, value, m, k);
+        return hashMurmur3(value, m, k, 0);
+    }
+
+    public static int[] hashMurmur3(byte[] value, int m, int k, int seed) {
+        return rejectionSample(HashProvider::murmur3_signed, value, m, k, seed);
     }
 
     public static int[] hashCassandra(byte[] value, int m, int k) {
+        return hashCassandra(value, m, k, 0);
+    }
+
+    public static int[] hashCassandra(byte[] value, int m, int k, int seed) {
         int[] result = new int[k];
-        long hash1 = murmur3(0, value);
+        long hash1 = murmur3(seed, value);
         long hash2 = murmur3((int) hash1, value);
         for (int i = 0; i < k; i++) {
             result[i] = (int) ((hash1 + i * hash2) % m);
@@ -167,6 +232,69 @@ public class HashProvider {
         return result;
     }
 
+    /**
+     * Batch variant of {@link #hashCassandra(byte[], int, int)}: first both murmur hashes of all values are computed,
+     * then the positions are derived in one tight loop.
+     *
+     * @param values the values to be hashed
+     * @param m      integer output range [1,size]
+     * @param k      number of hashes to be computed per value
+     * @return flat array with <i>k</i> positions per value, the positions of value <i>i</i> start at <i>i * k</i>
+     */
+    public static int[] hashCassandra(byte[][] values, int m, int k) {
+        return hashCassandra(values, m, k, 0);
+    }
+
+    public static int[] hashCassandra(byte[][] values, int m, int k, int seed) {
+        int n = values.length;
+        long[] hash1 = new long[n];
+        long[] hash2 = new long[n];
+        for (int v = 0; v < n; v++) {
+            hash1[v] = murmur3(seed, values[v]);
+            hash2[v] = murmur3((int) hash1[v], values[v]);
+        }
+        return kirschMitzenmacher(hash1, hash2, m, k);
+    }
+
+    /**
+     * Batch variant of {@link #hashCassandra(byte[], int, int)} for fixed-width keys. Each key is hashed as its 8
+     * little-endian bytes without materializing them.
+     *
+     * @param values the values to be hashed
+     * @param m      integer output range [1,size]
+     * @param k      number of hashes to be computed per value
+     * @return flat array with <i>k</i> positions per value, the positions of value <i>i</i> start at <i>i * k</i>
+     */
+    public static int[] hashCassandra(long[] values, int m, int k) {
+        return hashCassandra(values, m, k, 0);
+    }
+
+    public static int[] hashCassandra(long[] values, int m, int k, int seed) {
+        int n = values.length;
+        long[] hash1 = new long[n];
+        long[] hash2 = new long[n];
+        for (int v = 0; v < n; v++) {
+            hash1[v] = murmur3(seed, values[v]);
+        }
+        for (int v = 0; v < n; v++) {
+            hash2[v] = murmur3((int) hash1[v], values[v]);
+        }
+        return kirschMitzenmacher(hash1, hash2, m, k);
+    }
+
+    private static int[] kirschMitzenmacher(long[] hash1, long[] hash2, int m, int k) {
+        int[] positions = new int[hash1.length * k];
+        int offset = 0;
+        for (int v = 0; v < hash1.length; v++) {
+            long h1 = hash1[v];
+            long h2 = hash2[v];
+            for (int i = 0; i < k; i++) {
+                positions[offset++] = (int) ((h1 + i * h2) % m);
+            }
+        }
+        return positions;
+    }
+
     public static int murmur3_signed(int seed, byte[] bytes) {
         return (int) murmur3(seed, bytes);
     }
@@ -234,11 +362,70 @@ public class HashProvider {
     }
 
 
+    /**
+     * Murmur 3 of a single long, identical to {@link #murmur3(int, byte[])} of its 8 little-endian bytes.
+     *
+     * @param seed the seed
+     * @param key  the value to be hashed
+     * @return 32bits hash value as unsigned long
+     */
+    public static long murmur3(int seed, long key) {
+        int h1 = seed;
+        int c1 = 0xcc9e2d51;
+        int c2 = 0x1b873593;
+
+        int k1 = (int) key;
+        k1 *= c1;
+        k1 = Integer.rotateLeft(k1, 15);
+        k1 *= c2;
+        h1 ^= k1;
+        h1 = Integer.rotateLeft(h1, 13);
+        h1 = h1 * 5 + 0xe6546b64;
+
+        k1 = (int) (key >>> 32);
+        k1 *= c1;
+        k1 = Integer.rotateLeft(k1, 15);
+        k1 *= c2;
+        h1 ^= k1;
+        h1 = Integer.rotateLeft(h1, 13);
+        h1 = h1 * 5 + 0xe6546b64;
+
+        h1 ^= 8;
+
+        h1 ^= h1 >>> 16;
+        h1 *= 0x85ebca6b;
+        h1 ^= h1 >>> 13;
+        h1 *= 0xc2b2ae35;
+        h1 ^= h1 >>> 16;
+
+        return Integer.toUnsignedLong(h1);
+    }
+
+    /**
+     * @param value the value to be converted
+     * @return the 8 little-endian bytes of the value, the representation used to hash longs
+     */
+    public static byte[] toBytes(long value) {
+        byte[] bytes = new byte[8];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (value >>> (8 * i));
+        }
+        return bytes;
+    }
+
+    private static byte[] toBytes(int value) {
+        return new byte[]{(byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24)};
+    }
+
     // Code taken from:
     // http://dmy999.com/article/50/murmurhash-2-java-port by Derekt
     // Young (Public Domain)
     // as the Hadoop implementation by Andrzej Bialecki is buggy
     public static int[] hashMurmur2(byte[] value, int em, int ka) {
+        return hashMurmur2(value, em, ka, 0);
+    }
+
+    public static int[] hashMurmur2(byte[] value, int em, int ka, int seed) {
         int[] positions = new int[ka];
 
         int hashes = 0;
@@ -264,7 +451,7 @@ public class HashProvider {
 
             // Initialize the hash to a 'random' value
             int len = data.length;
-            int h = seed32 ^ len;
+            int h = seed32 ^ seed ^ len;
 
             int i = 0;
             while (len >= 4) {
@@ -323,8 +510,11 @@ public class HashProvider {
     }
 
     public static int[] rejectionSample(BiFunction<Integer, byte[], Integer> hashFunction, byte[] value, int m, int k) {
+        return rejectionSample(hashFunction, value, m, k, 0);
+    }
+
+    public static int[] rejectionSample(BiFunction<Integer, byte[], Integer> hashFunction, byte[] value, int m, int k, int seed) {
         int[] hashes = new int[k];
-        int seed = 0;
         int pos = 0;
         while (pos < k) {
             seed = hashFunction.apply(seed, value);
@@ -344,6 +534,18 @@ public class HashProvider {
      * @return array with <i>hashes</i> integer hash positions in the range <i>[0,size)</i>
      */
     public static int[] hashCrypt(byte[] value, int m, int k, String method) {
+        return hashCrypt(value, m, k, method, 0);
+    }
+
+    /**
+     * @param value  the value to be hashed
+     * @param m      integer output range [1,size]
+     * @param k      number of hashes to be computed
+     * @param method the hash method name used by {@link MessageDigest#getInstance(String)}
+     * @param seed   digested before the value, 0 is the unseeded family
+     * @return array with <i>hashes</i> integer hash positions in the range <i>[0,size)</i>
+     */
+    public static int[] hashCrypt(byte[] value, int m, int k, String method, int seed) {
         //MessageDigest is not thread-safe --> use new instance
         MessageDigest cryptHash = null;
         try {
@@ -359,7 +561,7 @@ public class HashProvider {
         // hashes for each round
         // Alternative: use pseudorandom sequence
         Random r = new Random(seed32);
-        byte[] digest = new byte[0];
+        byte[] digest = seed != 0 ? toBytes(seed) : new byte[0];
         while (computedHashes < k) {
             // byte[] saltBytes =
             // ByteBuffer.allocate(4).putInt(r.nextInt()).array();
@@ -407,6 +609,86 @@ public class HashProvider {
          * @return int array of hashes hash values
          */
         public int[] hash(byte[] value, int m, int k);
+
+        /**
+         * Computes hash values for many elements at once. Hash functions that can process several values in one
+         * loop override this, the default hashes each value in isolation.
+         *
+         * @param values the byte[] representations of the elements to be hashed
+         * @param m      integer output range [1,size]
+         * @param k      number of hashes to be computed per element
+         * @return flat int array with <i>k</i> hash values per element, the values of element <i>i</i> start at
+         * <i>i * k</i>
+         */
+        default int[] hash(byte[][] values, int m, int k) {
+            int[] positions = new int[values.length * k];
+            for (int i = 0; i < values.length; i++) {
+                System.arraycopy(hash(values[i], m, k), 0, positions, i * k, k);
+            }
+            return positions;
+        }
+
+        /**
+         * Computes hash values for many fixed-width elements at once, each long is hashed as its 8 little-endian
+         * bytes (see {@link HashProvider#toBytes(long)}).
+         *
+         * @param values the elements to be hashed
+         * @param m      integer output range [1,size]
+         * @param k      number of hashes to be computed per element
+         * @return flat int array with <i>k</i> hash values per element, the values of element <i>i</i> start at
+         * <i>i * k</i>
+         */
+        default int[] hash(long[] values, int m, int k) {
+            int[] positions = new int[values.length * k];
+            for (int i = 0; i < values.length; i++) {
+                System.arraycopy(hash(toBytes(values[i]), m, k), 0, positions, i * k, k);
+            }
+            return positions;
+        }
+    }
+
+    /**
+     * The Kirsch-Mitzenmacher Murmur 3 scheme with specialized batch hashing.
+     */
+    private static class KirschMitzenmacherHashFunction implements HashFunction {
+        private static final long serialVersionUID = 4527063658146473893L;
+        private final int seed;
+
+        KirschMitzenmacherHashFunction(int seed) {
+            this.seed = seed;
+        }
+
+        @Override
+        public int[] hash(byte[] value, int m, int k) {
+            return hashCassandra(value, m, k, seed);
+        }
+
+        @Override
+        public int[] hash(byte[][] values, int m, int k) {
+            return hashCassandra(values, m, k, seed);
+        }
+
+        @Override
+        public int[] hash(long[] values, int m, int k) {
+            return hashCassandra(values, m, k, seed);
+        }
+    }
+
+    /**
+     * A family of hash functions, the seed selects one member. Seed 0 selects the function used by unseeded filters.
+     */
+    public static interface SeededHashFunction extends Serializable {
+
+        /**
+         * Computes hash values.
+         *
+         * @param value the byte[] representation of the element to be hashed
+         * @param m     integer output range [1,size]
+         * @param k     number of hashes to be computed
+         * @param seed  the seed
+         * @return int array of hashes hash values
+         */
+        public int[] hash(byte[] value, int m, int k, int seed);
     }
 
 
@@ -457,7 +739,12 @@ public class HashProvider {
          * real-world performance is not as good as pure Murmur 3 hashes or cryptographic hash functions, in particular
          * for random words.</p>
          */
-        Murmur3KirschMitzenmacher(HashProvider::hashCassandra),
+        Murmur3KirschMitzenmacher(HashProvider::hashCassandra) {
+            @Override
+            public HashFunction getHashFunction(int seed) {
+                return new KirschMitzenmacherHashFunction(seed);
+            }
+        },
         /**
          * Uses the Fowler–Noll–Vo (FNV) hash function to generate a hash values. It is superior to the standard
          * implementation in {@link Arrays} and can be easily implemented in most languages. Hashing then uses the very
@@ -470,41 +757,65 @@ public class HashProvider {
          * Generates a hash value using MD2. MD2 is rather slow an not as evenely distributed as other cryptographic
          * hash functions
          */
-        MD2((bytes, m, k) -> HashProvider.hashCrypt(bytes, m, k, "MD2")),
+        MD2((bytes, m, k, seed) -> HashProvider.hashCrypt(bytes, m, k, "MD2", seed)),
         /**
          * Generates a hash value using the cryptographic MD5 hash function. It is fast and has good guarantees for the
          * uniformity of generated hash values, as the hash functions are designed for cryptographic use.
          */
-        MD5((bytes, m, k) -> HashProvider.hashCrypt(bytes, m, k, "MD5")),
+        MD5((bytes, m, k, seed) -> HashProvider.hashCrypt(bytes, m, k, "MD5", seed)),
         /**
          * Generates a hash value using the cryptographic SHA1 hash function. It is fast but uniformity of hash values
          * is better for the second generation of SHA (256,384,512).
          */
-        SHA1((bytes, m, k) -> HashProvider.hashCrypt(bytes, m, k, "SHA-1")),
+        SHA1((bytes, m, k, seed) -> HashProvider.hashCrypt(bytes, m, k, "SHA-1", seed)),
         /**
          * Generates a hash value using the cryptographic SHA-256 hash function. It is fast and has good guarantees for
          * the uniformity of generated hash values, as the hash functions are designed for cryptographic use.
          */
-        SHA256((bytes, m, k) -> HashProvider.hashCrypt(bytes, m, k, "SHA-256")),
+        SHA256((bytes, m, k, seed) -> HashProvider.hashCrypt(bytes, m, k, "SHA-256", seed)),
         /**
          * Generates a hash value using the cryptographic SHA-384 hash function. It is fast and has good guarantees for
          * the uniformity of generated hash values, as the hash functions are designed for cryptographic use.
          */
-        SHA384((bytes, m, k) -> HashProvider.hashCrypt(bytes, m, k, "SHA-384")),
+        SHA384((bytes, m, k, seed) -> HashProvider.hashCrypt(bytes, m, k, "SHA-384", seed)),
         /**
          * Generates a hash value using the cryptographic SHA-512 hash function. It is fast and has good guarantees for
          * the uniformity of generated hash values, as the hash functions are designed for cryptographic use.
          */
-        SHA512((bytes, m, k) -> HashProvider.hashCrypt(bytes, m, k, "SHA-512"));
+        SHA512((bytes, m, k, seed) -> HashProvider.hashCrypt(bytes, m, k, "SHA-512", seed)),
+        /**
+         * Chooses the hash method from a profile of the actual keys: the fast candidates of {@link
+         * HashMethodSelector} are benchmarked on a sample of keys and the fastest one that passes a uniformity check
+         * is pinned. Redis-backed filters need the sample up front ({@link FilterBuilder#autoSample}), in-memory
+         * filters can also sample their first inserted keys. Until it is pinned, AUTO hashes like {@link
+         * #Murmur3KirschMitzenmacher}.
+         */
+        AUTO(HashProvider::hashCassandra) {
+            @Override
+            public HashFunction getHashFunction(int seed) {
+                return new KirschMitzenmacherHashFunction(seed);
+            }
+        };
 
-        private HashFunction hashFunction;
+        private final SeededHashFunction seededHashFunction;
+        private final HashFunction hashFunction;
 
-        private HashMethod(HashFunction hashFunction) {
-            this.hashFunction = hashFunction;
+        private HashMethod(SeededHashFunction seededHashFunction) {
+            this.seededHashFunction = seededHashFunction;
+            this.hashFunction = getHashFunction(0);
         }
 
         public HashFunction getHashFunction() {
             return hashFunction;
         }
+
+        /**
+         * @param seed selects the member of the hash family, 0 gives the same function as {@link #getHashFunction()}
+         * @return the seeded hash function
+         */
+        public HashFunction getHashFunction(int seed) {
+            SeededHashFunction seeded = seededHashFunction;
+            return (value, m, k) -> seeded.hash(value, m, k, seed);
+        }
     }
 }
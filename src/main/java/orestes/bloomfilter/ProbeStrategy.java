@@ -0,0 +1,16 @@
+package orestes.bloomfilter;
+
+/**
+ * 探测bit数组的顺序
+ */
+public enum ProbeStrategy {
+    /**
+     * 按hash函数返回的顺序探测，重复的位置会被探测多次
+     */
+    HASH_ORDER,
+    /**
+     * 探测前对位置排序并去重。单个元素时对其<i>hashes</i>个位置排序，批量操作时对整批元素的位置排序。
+     * 对于很大的bf, 按地址顺序访问可以减少TLB与cache miss
+     */
+    SORTED
+}
@@ -0,0 +1,272 @@
+package orestes.bloomfilter;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+
+/**
+ * 由多个相互独立的子bf组成的bf. 每个元素通过一致性hash分配到一个子bf, 子bf的<i>size</i>和<i>expectedElements</i>为
+ * 整个bf的1/N. 一致性hash的环由子bf的标识(如redis实例的地址)构成，增加或减少子bf只会改变约1/N元素的分配.
+ * 批量操作按子bf分组，可以并行执行.
+ *
+ * @param <T> 元素类型
+ */
+public class ShardedBloomFilter<T> implements BloomFilter<T> {
+    private static final long serialVersionUID = 2783547410395467932L;
+    private static final int VIRTUAL_NODES = 160;
+    //Independent of the seeds of the filter's hash function
+    private static final int RING_SEED = 0x7F4A7C15;
+
+    private final FilterBuilder config;
+    private final List<String> shardIds;
+    private final List<BloomFilter<T>> shards;
+    private final TreeMap<Long, Integer> ring = new TreeMap<>();
+    private final boolean parallel;
+    private transient ExecutorService executor;
+
+    /**
+     * @param config   整个bf的配置
+     * @param shardIds 子bf的标识, 决定一致性hash环
+     * @param shards   子bf
+     * @param parallel 批量操作是否并行访问各子bf
+     */
+    public ShardedBloomFilter(FilterBuilder config, List<String> shardIds, List<? extends BloomFilter<T>> shards,
+                              boolean parallel) {
+        if (shardIds.size() != shards.size() || shards.isEmpty()) {
+            throw new IllegalArgumentException("Every shard needs exactly one id.");
+        }
+        this.config = config.complete();
+        this.shardIds = new ArrayList<>(shardIds);
+        this.shards = new ArrayList<>(shards);
+        this.parallel = parallel;
+        for (int i = 0; i < shardIds.size(); i++) {
+            for (int v = 0; v < VIRTUAL_NODES; v++) {
+                byte[] point = (shardIds.get(i) + "#" + v).getBytes(FilterBuilder.defaultCharset());
+                ring.put(HashProvider.murmur3(RING_SEED, point), i);
+            }
+        }
+    }
+
+    /**
+     * 计算子bf的配置: 与整个bf相同，只是<i>size</i>和<i>expectedElements</i>为1/N
+     *
+     * @param config 整个bf的配置
+     * @param shards 子bf的个数
+     * @return 子bf的配置
+     */
+    public static FilterBuilder shardConfig(FilterBuilder config, int shards) {
+        config.complete();
+        return config.clone()
+                .size((config.size() + shards - 1) / shards)
+                .expectedElements((config.expectedElements() + shards - 1) / shards);
+    }
+
+    /**
+     * 计算元素所在的子bf
+     *
+     * @param element 元素
+     * @return 子bf的序号
+     */
+    public int shard(byte[] element) {
+        Map.Entry<Long, Integer> entry = ring.ceilingEntry(HashProvider.murmur3(RING_SEED ^ config.seed(), element));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    @Override
+    public FilterBuilder config() {
+        return config;
+    }
+
+    @Override
+    public boolean addRaw(byte[] element) {
+        return shards.get(shard(element)).addRaw(element);
+    }
+
+    @Override
+    public boolean contains(byte[] element) {
+        return shards.get(shard(element)).contains(element);
+    }
+
+    @Override
+    public List<Boolean> addAll(Collection<T> elements) {
+        return fanOut(elements, BloomFilter::addAll);
+    }
+
+    @Override
+    public List<Boolean> contains(Collection<T> elements) {
+        return fanOut(elements, BloomFilter::contains);
+    }
+
+    /**
+     * Groups the elements by shard, applies the batch operation to every shard and restores the order of the results.
+     */
+    private List<Boolean> fanOut(Collection<T> elements,
+                                 BiFunction<BloomFilter<T>, Collection<T>, List<Boolean>> operation) {
+        List<List<T>> perShard = new ArrayList<>(shards.size());
+        List<List<Integer>> indexes = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            perShard.add(new ArrayList<>());
+            indexes.add(new ArrayList<>());
+        }
+        int index = 0;
+        for (T element : elements) {
+            int shard = shard(toBytes(element));
+            perShard.get(shard).add(element);
+            indexes.get(shard).add(index++);
+        }
+
+        List<CompletableFuture<List<Boolean>>> results = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            BloomFilter<T> shard = shards.get(i);
+            List<T> batch = perShard.get(i);
+            if (batch.isEmpty()) {
+                results.add(CompletableFuture.completedFuture(new ArrayList<>()));
+            } else if (parallel) {
+                results.add(CompletableFuture.supplyAsync(() -> operation.apply(shard, batch), executor()));
+            } else {
+                results.add(CompletableFuture.completedFuture(operation.apply(shard, batch)));
+            }
+        }
+
+        Boolean[] ordered = new Boolean[index];
+        for (int i = 0; i < shards.size(); i++) {
+            List<Boolean> result = results.get(i).join();
+            List<Integer> positions = indexes.get(i);
+            for (int j = 0; j < positions.size(); j++) {
+                ordered[positions.get(j)] = result.get(j);
+            }
+        }
+        List<Boolean> list = new ArrayList<>(ordered.length);
+        for (Boolean b : ordered) {
+            list.add(b);
+        }
+        return list;
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(shards.size(), r -> {
+                Thread thread = new Thread(r, "sharded-bloomfilter");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    @Override
+    public void clear() {
+        shards.forEach(BloomFilter::clear);
+    }
+
+    @Override
+    public synchronized void remove() {
+        shards.forEach(BloomFilter::remove);
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * 把所有子bf按顺序拼接成一个BitSet. 子bf<i>i</i>从<i>i * shardSize</i>开始
+     *
+     * @return 所有子bf的bits
+     */
+    @Override
+    public BitSet getBitSet() {
+        BitSet bits = new BitSet();
+        int offset = 0;
+        for (BloomFilter<T> shard : shards) {
+            int shardOffset = offset;
+            shard.getBitSet().stream().forEach(bit -> bits.set(shardOffset + bit));
+            offset += shard.getSize();
+        }
+        return bits;
+    }
+
+    @Override
+    public ShardedBloomFilter<T> clone() {
+        List<BloomFilter<T>> clones = shards.stream().map(BloomFilter::clone).collect(Collectors.toList());
+        return new ShardedBloomFilter<>(config.clone(), shardIds, clones, parallel);
+    }
+
+    /**
+     * 只能与子bf相同的ShardedBloomFilter求并集，对每个子bf求并集
+     */
+    @Override
+    public boolean union(BloomFilter<T> other) {
+        if (!isShardCompatible(other)) {
+            return false;
+        }
+        List<BloomFilter<T>> otherShards = ((ShardedBloomFilter<T>) other).shards;
+        boolean success = true;
+        for (int i = 0; i < shards.size(); i++) {
+            success &= shards.get(i).union(otherShards.get(i));
+        }
+        return success;
+    }
+
+    /**
+     * 只能与子bf相同的ShardedBloomFilter求交集，对每个子bf求交集
+     */
+    @Override
+    public boolean intersect(BloomFilter<T> other) {
+        if (!isShardCompatible(other)) {
+            return false;
+        }
+        List<BloomFilter<T>> otherShards = ((ShardedBloomFilter<T>) other).shards;
+        boolean success = true;
+        for (int i = 0; i < shards.size(); i++) {
+            success &= shards.get(i).intersect(otherShards.get(i));
+        }
+        return success;
+    }
+
+    private boolean isShardCompatible(BloomFilter<T> other) {
+        return other instanceof ShardedBloomFilter && compatible(other)
+                && shardIds.equals(((ShardedBloomFilter<T>) other).shardIds);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return shards.stream().allMatch(BloomFilter::isEmpty);
+    }
+
+    /**
+     * 各子bf估计值之和
+     *
+     * @return 估计的元素个数
+     */
+    @Override
+    public Double getEstimatedPopulation() {
+        return shards.stream().mapToDouble(BloomFilter::getEstimatedPopulation).sum();
+    }
+
+    /**
+     * @return 子bf的标识
+     */
+    public List<String> getShardIds() {
+        return new ArrayList<>(shardIds);
+    }
+
+    /**
+     * @return 子bf
+     */
+    public List<BloomFilter<T>> getShards() {
+        return new ArrayList<>(shards);
+    }
+
+    @Override
+    public String toString() {
+        return "ShardedBloomFilter{shards=" + shardIds + ", config=" + config + "}";
+    }
+}
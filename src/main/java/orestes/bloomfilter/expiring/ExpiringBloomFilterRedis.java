@@ -4,27 +4,20 @@ import orestes.bloomfilter.BloomFilter;
 import orestes.bloomfilter.FilterBuilder;
 import orestes.bloomfilter.expiring.ExpirationQueue.ExpiringItem;
 import orestes.bloomfilter.redis.CountingBloomFilterRedis;
-import redis.clients.jedis.ScanParams;
-import redis.clients.jedis.ScanResult;
+import orestes.bloomfilter.redis.RedisTtlStore;
 
-import java.time.Clock;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 public class ExpiringBloomFilterRedis<T> extends CountingBloomFilterRedis<T> implements ExpiringCountingBloomFilter<T> {
-    private final Clock clock;
+    private final RedisTtlStore ttls;
     private ExpirationQueue<T> queue;
-    private static final String READ_LUA = "local current = redis.call('get', KEYS[1]); if current == false or tonumber(ARGV[1]) > tonumber(current) then redis.call('psetex', KEYS[1], ARGV[2], ARGV[1]) end";
-    private String readLuaHash = "";
 
     public ExpiringBloomFilterRedis(FilterBuilder builder) {
         super(builder);
-        this.clock = pool.getClock();
+        this.ttls = new RedisTtlStore(pool, keys.TTL_KEY);
         this.queue = new ExpirationQueue<>(this::onExpire);
-        this.readLuaHash = pool.safelyReturn(jedis -> jedis.scriptLoad(READ_LUA));
     }
 
 
@@ -32,22 +25,6 @@ public class ExpiringBloomFilterRedis<T> extends CountingBloomFilterRedis<T> imp
         double current = this.removeAndEstimateCount(entry.getItem());
     }
 
-    /**
-     * @return 当前时间戳(秒)
-     */
-    private Long now() {
-        return clock.instant().toEpochMilli();
-    }
-
-    /**
-     * @param TTL
-     * @param unit
-     * @return timestamp from ttl in second
-     */
-    private Long ttlToTimestamp(long TTL, TimeUnit unit) {
-        return clock.instant().plusMillis(TimeUnit.MILLISECONDS.convert(TTL, unit)).toEpochMilli();
-    }
-
     @Override
     public boolean isCached(T element) {
         Long remaining = getRemainingTTL(element, TimeUnit.MILLISECONDS);
@@ -56,32 +33,21 @@ public class ExpiringBloomFilterRedis<T> extends CountingBloomFilterRedis<T> imp
 
     @Override
     public Long getRemainingTTL(T element, TimeUnit unit) {
-        return pool.safelyReturn(jedis -> {
-            String tsString = jedis.get(key(element));
-            return tsString != null ? unit.convert(Long.valueOf(tsString) - now(), TimeUnit.MILLISECONDS) : null;
-        });
+        Long remaining = ttls.getRemainingMillis(element.toString());
+        return remaining != null ? unit.convert(remaining, TimeUnit.MILLISECONDS) : null;
     }
 
     @Override
     public List<Long> getRemainingTTLs(List<T> elements, TimeUnit unit) {
-        //Mget limitation: will be stored in Redis memory before being send, i.e. only scales to hundreds of thousands elements
-        return pool.safelyReturn(jedis -> {
-            String[] keys = elements.stream().map(this::key).toArray(String[]::new);
-            List<String> vals = jedis.mget(keys);
-            return vals.stream().
-                map(tsString -> tsString != null ? unit.convert(Long.valueOf(tsString) - now(), TimeUnit.MILLISECONDS) : null)
-                .collect(Collectors.toList());
-        });
+        List<String> ids = elements.stream().map(Object::toString).collect(Collectors.toList());
+        return ttls.getRemainingMillis(ids).stream()
+            .map(remaining -> remaining != null ? unit.convert(remaining, TimeUnit.MILLISECONDS) : null)
+            .collect(Collectors.toList());
     }
 
     @Override
     public void reportRead(T element, long TTL, TimeUnit unit) {
-        String ttl_str = String.valueOf(TimeUnit.MILLISECONDS.convert(TTL, unit));
-        String ts = ttlToTimestamp(TTL, unit).toString();
-        pool.safelyDo(jedis -> {
-            jedis.evalsha(readLuaHash, Collections.singletonList(key(element)),
-                Arrays.asList(ts, ttl_str));
-        });
+        ttls.extend(element.toString(), TimeUnit.MILLISECONDS.convert(TTL, unit));
     }
 
     @Override
@@ -106,19 +72,7 @@ public class ExpiringBloomFilterRedis<T> extends CountingBloomFilterRedis<T> imp
         //Clear Queue
         queue.clear();
         //Clear TTLs
-        pool.safelyDo(jedis -> {
-            ScanParams params = new ScanParams().match(keys.TTL_KEY + "*").count(500);
-            String cursor = ScanParams.SCAN_POINTER_START;
-            do {
-                ScanResult<String> scanResult = jedis.scan(cursor, params);
-                cursor = scanResult.getStringCursor();
-
-                List<String> result = scanResult.getResult();
-                if (!result.isEmpty()) {
-                    jedis.del(result.toArray(new String[result.size()]));
-                }
-            } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
-        });
+        ttls.clear();
     }
 
     public String key(T element) {
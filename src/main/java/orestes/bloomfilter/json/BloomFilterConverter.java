@@ -23,6 +23,10 @@ public class BloomFilterConverter {
         JsonObject root = new JsonObject();
         root.addProperty("m", source.getSize());
         root.addProperty("h", source.getHashes());
+        //Only seeded filters carry a seed, so that unseeded filters keep the established format
+        if (source.config().seed() != 0) {
+            root.addProperty("s", source.config().seed());
+        }
         //root.addProperty("HashMethod", source.config().hashMethod().name());
         byte[] bits = source.getBitSet().toByteArray();
 
@@ -71,10 +75,11 @@ public class BloomFilterConverter {
         JsonObject root = source.getAsJsonObject();
         int m = root.get("m").getAsInt();
         int k = root.get("h").getAsInt();
+        int seed = root.has("s") ? root.get("s").getAsInt() : 0;
         //String hashMethod = root.get("HashMethod").getAsString();
         byte[] bits = Base64.getDecoder().decode(root.get("b").getAsString());
 
-        FilterBuilder builder = new FilterBuilder(m, k).hashFunction(HashMethod.Murmur3KirschMitzenmacher);
+        FilterBuilder builder = new FilterBuilder(m, k).hashFunction(HashMethod.Murmur3KirschMitzenmacher).seed(seed);
 
         BloomFilterMemory<T> filter = new BloomFilterMemory<>(builder.complete());
         filter.setBitSet(BitSet.valueOf(bits));
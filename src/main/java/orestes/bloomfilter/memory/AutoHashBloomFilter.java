@@ -0,0 +1,202 @@
+package orestes.bloomfilter.memory;
+
+import orestes.bloomfilter.BloomFilter;
+import orestes.bloomfilter.FilterBuilder;
+import orestes.bloomfilter.HashMethodSelector;
+import orestes.bloomfilter.HashProvider.HashMethod;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 使用{@link HashMethod#AUTO}的内存bf. 在选定hash算法之前缓存插入的key，缓存满{@link FilterBuilder#autoSampleSize()}个key后
+ * 在后台线程中用这些key选择hash算法，选定后把缓存的key写入bit数组. 需要bit数组的操作(如getBitSet、union)会立即选定hash算法.
+ * 选定的hash算法只写入bf自己的配置副本，用同一个{@link FilterBuilder}创建的其他bf不受影响
+ */
+public class AutoHashBloomFilter<T> extends BloomFilterMemory<T> {
+    private static final long serialVersionUID = 4393318934237567371L;
+    private transient List<byte[]> pending = new ArrayList<>();
+    private transient Set<ByteBuffer> pendingKeys = new HashSet<>();
+    private transient CompletableFuture<HashMethod> selection;
+    private volatile boolean pinned = false;
+
+    public AutoHashBloomFilter(FilterBuilder config) {
+        //Pinning changes the hash method of the config, which must not leak into the caller's builder
+        super(config.clone());
+    }
+
+    /**
+     * @return hash算法是否已选定
+     */
+    public boolean isPinned() {
+        return pinned;
+    }
+
+    /**
+     * 立即选定hash算法，正在进行的选择会被等待
+     */
+    public synchronized void pin() {
+        if (pinned) {
+            return;
+        }
+        HashMethod method;
+        if (selection != null) {
+            try {
+                method = selection.join();
+            } catch (RuntimeException e) {
+                method = HashMethodSelector.FALLBACK;
+            }
+        } else {
+            method = HashMethodSelector.select(pending, config().size(), config().hashes(), config().seed());
+        }
+        pin(method);
+    }
+
+    private synchronized void pin(HashMethod method) {
+        if (pinned) {
+            return;
+        }
+        config().hashFunction(method);
+        pinned = true;
+        for (byte[] element : pending) {
+            super.addRaw(element);
+        }
+        pending = null;
+        pendingKeys = null;
+    }
+
+    @Override
+    public synchronized boolean addRaw(byte[] element) {
+        if (pinned) {
+            return super.addRaw(element);
+        }
+        if (!pendingKeys.add(ByteBuffer.wrap(element))) {
+            return false;
+        }
+        pending.add(element);
+        if (selection == null && pending.size() >= config().autoSampleSize()) {
+            FilterBuilder config = config();
+            selection = HashMethodSelector.selectAsync(pending, config.size(), config.hashes(), config.seed());
+            selection.thenAccept(this::pin);
+        }
+        return true;
+    }
+
+    @Override
+    public List<Boolean> addAll(Collection<T> elements) {
+        synchronized (this) {
+            if (!pinned) {
+                List<Boolean> added = new ArrayList<>(elements.size());
+                for (T element : elements) {
+                    added.add(addRaw(toBytes(element)));
+                }
+                return added;
+            }
+        }
+        return super.addAll(elements);
+    }
+
+    @Override
+    public synchronized boolean contains(byte[] element) {
+        if (pinned) {
+            return super.contains(element);
+        }
+        return pendingKeys.contains(ByteBuffer.wrap(element));
+    }
+
+    @Override
+    public List<Boolean> contains(Collection<T> elements) {
+        synchronized (this) {
+            if (!pinned) {
+                List<Boolean> contains = new ArrayList<>(elements.size());
+                for (T element : elements) {
+                    contains.add(contains(toBytes(element)));
+                }
+                return contains;
+            }
+        }
+        return super.contains(elements);
+    }
+
+    @Override
+    public synchronized void clear() {
+        if (pinned) {
+            super.clear();
+        } else {
+            pending.clear();
+            pendingKeys.clear();
+        }
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return pinned ? super.isEmpty() : pending.isEmpty();
+    }
+
+    @Override
+    public int[] hash(byte[] bytes) {
+        pin();
+        return super.hash(bytes);
+    }
+
+    @Override
+    public int[] hash(byte[][] values) {
+        pin();
+        return super.hash(values);
+    }
+
+    @Override
+    public synchronized BitSet getBitSet() {
+        pin();
+        return super.getBitSet();
+    }
+
+    @Override
+    public synchronized Double getEstimatedPopulation() {
+        pin();
+        return super.getEstimatedPopulation();
+    }
+
+    @Override
+    public synchronized void setBitSet(BitSet bloom) {
+        pin();
+        super.setBitSet(bloom);
+    }
+
+    @Override
+    public synchronized boolean union(BloomFilter<T> other) {
+        pin();
+        return super.union(other);
+    }
+
+    @Override
+    public synchronized boolean intersect(BloomFilter<T> other) {
+        pin();
+        return super.intersect(other);
+    }
+
+    @Override
+    public synchronized BloomFilter<T> clone() {
+        pin();
+        return super.clone();
+    }
+
+    @Override
+    public synchronized boolean equals(Object o) {
+        pin();
+        return super.equals(o);
+    }
+
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        pin();
+        out.defaultWriteObject();
+    }
+}
@@ -2,13 +2,22 @@ package orestes.bloomfilter.memory;
 
 import orestes.bloomfilter.BloomFilter;
 import orestes.bloomfilter.FilterBuilder;
+import orestes.bloomfilter.ProbeStrategy;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 public class BloomFilterMemory<T> implements BloomFilter<T> {
     private static final long serialVersionUID = -5962895807963838856L;
+    private static final int MAX_PROBE_BUCKETS = 4096;
     private final FilterBuilder config;
     protected BitSet bloom;
+    //Number of set bits, maintained by setBit() and recounted by whole-array changes
+    private LongAdder oneBits = new LongAdder();
 
     public BloomFilterMemory(FilterBuilder config) {
         config.complete();
@@ -23,11 +32,48 @@ public class BloomFilterMemory<T> implements BloomFilter<T> {
 
     @Override
     public synchronized boolean addRaw(byte[] element) {
+        int[] positions = hash(element);
+        return addPositions(positions, 0, probeLength(positions));
+    }
+
+    @Override
+    public List<Boolean> addAll(Collection<T> elements) {
+        int[] positions = hashAll(elements);
+        int k = config.hashes();
+        List<Boolean> added = new ArrayList<>(elements.size());
+        if (config.probeStrategy() == ProbeStrategy.SORTED) {
+            int[][] probes = sortProbes(positions, k);
+            int[] sorted = probes[0];
+            int[] element = probes[1];
+            boolean[] wasAdded = new boolean[elements.size()];
+            synchronized (this) {
+                for (int i = 0; i < sorted.length; i++) {
+                    //Equal positions are probed in element order, so only the first element can set a bit
+                    if (!getBit(sorted[i])) {
+                        setBit(sorted[i], true);
+                        wasAdded[element[i]] = true;
+                    }
+                }
+            }
+            for (boolean b : wasAdded) {
+                added.add(b);
+            }
+            return added;
+        }
+        synchronized (this) {
+            for (int offset = 0; offset < positions.length; offset += k) {
+                added.add(addPositions(positions, offset, offset + k));
+            }
+        }
+        return added;
+    }
+
+    private boolean addPositions(int[] positions, int from, int to) {
         boolean added = false;
-        for (int position : hash(element)) {
-            if (!getBit(position)) {
+        for (int i = from; i < to; i++) {
+            if (!getBit(positions[i])) {
                 added = true;
-                setBit(position, true);
+                setBit(positions[i], true);
             }
         }
         return added;
@@ -36,24 +82,120 @@ public class BloomFilterMemory<T> implements BloomFilter<T> {
     @Override
     public synchronized void clear() {
         bloom.clear();
+        oneBits.reset();
     }
 
     @Override
     public synchronized boolean contains(byte[] element) {
-        for (int position : hash(element)) {
-            if (!getBit(position)) {
+        int[] positions = hash(element);
+        return containsPositions(positions, 0, probeLength(positions));
+    }
+
+    @Override
+    public List<Boolean> contains(Collection<T> elements) {
+        int[] positions = hashAll(elements);
+        int k = config.hashes();
+        List<Boolean> contains = new ArrayList<>(elements.size());
+        if (config.probeStrategy() == ProbeStrategy.SORTED) {
+            int[][] probes = sortProbes(positions, k);
+            int[] sorted = probes[0];
+            int[] element = probes[1];
+            boolean[] missing = new boolean[elements.size()];
+            synchronized (this) {
+                for (int i = 0; i < sorted.length; i++) {
+                    if (!getBit(sorted[i])) {
+                        missing[element[i]] = true;
+                    }
+                }
+            }
+            for (boolean b : missing) {
+                contains.add(!b);
+            }
+            return contains;
+        }
+        synchronized (this) {
+            for (int offset = 0; offset < positions.length; offset += k) {
+                contains.add(containsPositions(positions, offset, offset + k));
+            }
+        }
+        return contains;
+    }
+
+    private boolean containsPositions(int[] positions, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!getBit(positions[i])) {
                 return false;
             }
         }
         return true;
     }
 
+    /**
+     * Sorts and deduplicates the positions of a single element in place if the {@link ProbeStrategy#SORTED} strategy
+     * is configured.
+     *
+     * @param positions the hash positions of one element
+     * @return the number of positions to probe
+     */
+    private int probeLength(int[] positions) {
+        if (config.probeStrategy() != ProbeStrategy.SORTED) {
+            return positions.length;
+        }
+        Arrays.sort(positions);
+        int distinct = 0;
+        for (int i = 0; i < positions.length; i++) {
+            if (i == 0 || positions[i] != positions[distinct - 1]) {
+                positions[distinct++] = positions[i];
+            }
+        }
+        return distinct;
+    }
+
+    /**
+     * Orders the probes of a batch by address with a stable counting sort over the upper bits of the positions
+     * (like one pass of a radix sort). A comparison sort of all probes costs more than the cache misses it saves,
+     * whereas a few thousand buckets already confine consecutive probes to a small region of the bit array.
+     *
+     * @param positions flat hash positions of a batch
+     * @param k         number of positions per element
+     * @return the positions in probe order and, at the same index, the element each position belongs to. Equal
+     * positions keep the order of their elements.
+     */
+    private int[][] sortProbes(int[] positions, int k) {
+        int buckets = Math.max(1, Math.min(MAX_PROBE_BUCKETS, Integer.highestOneBit(positions.length)));
+        int positionBits = 32 - Integer.numberOfLeadingZeros(config.size() - 1);
+        int shift = Math.max(0, positionBits - Integer.numberOfTrailingZeros(buckets));
+        int[] starts = new int[buckets + 1];
+        for (int position : positions) {
+            starts[(position >>> shift) + 1]++;
+        }
+        for (int b = 0; b < buckets; b++) {
+            starts[b + 1] += starts[b];
+        }
+        int[] sorted = new int[positions.length];
+        int[] element = new int[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            int slot = starts[positions[i] >>> shift]++;
+            sorted[slot] = positions[i];
+            element[slot] = i / k;
+        }
+        return new int[][]{sorted, element};
+    }
+
     protected boolean getBit(int index) {
         return bloom.get(index);
     }
 
     protected void setBit(int index, boolean to) {
-        bloom.set(index, to);
+        if (bloom.get(index) != to) {
+            bloom.set(index, to);
+            oneBits.add(to ? 1 : -1);
+        }
+    }
+
+    private void recount() {
+        oneBits.reset();
+        oneBits.add(bloom.cardinality());
     }
 
     @Override
@@ -66,6 +208,7 @@ public class BloomFilterMemory<T> implements BloomFilter<T> {
     public synchronized boolean union(BloomFilter<T> other) {
         if (compatible(other)) {
             bloom.or(other.getBitSet());
+            recount();
             return true;
         }
         return false;
@@ -75,6 +218,7 @@ public class BloomFilterMemory<T> implements BloomFilter<T> {
     public synchronized boolean intersect(BloomFilter<T> other) {
         if (compatible(other)) {
             bloom.and(other.getBitSet());
+            recount();
             return true;
         }
         return false;
@@ -86,6 +230,16 @@ public class BloomFilterMemory<T> implements BloomFilter<T> {
         return bloom.isEmpty();
     }
 
+    /**
+     * 根据增量维护的bit计数估算元素数量, 不复制bit数组
+     *
+     * @return 估算的bf的元素数量
+     */
+    @Override
+    public Double getEstimatedPopulation() {
+        return BloomFilter.population(oneBits.sum(), config);
+    }
+
 
     @Override
     @SuppressWarnings("unchecked")
@@ -97,6 +251,8 @@ public class BloomFilterMemory<T> implements BloomFilter<T> {
             e.printStackTrace();
         }
         o.bloom = (BitSet) bloom.clone();
+        o.oneBits = new LongAdder();
+        o.oneBits.add(oneBits.sum());
         return o;
     }
 
@@ -109,6 +265,7 @@ public class BloomFilterMemory<T> implements BloomFilter<T> {
 
     public synchronized void setBitSet(BitSet bloom) {
         this.bloom = bloom;
+        recount();
     }
 
     @Override
@@ -222,6 +222,11 @@ public class CountingBloomFilterMemory<T> implements CountingBloomFilter<T> {
         return filter.getBitSet();
     }
 
+    @Override
+    public Double getEstimatedPopulation() {
+        return filter.getEstimatedPopulation();
+    }
+
     @Override
     public FilterBuilder config() {
         return this.config;
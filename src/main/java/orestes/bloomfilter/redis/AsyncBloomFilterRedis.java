@@ -0,0 +1,164 @@
+package orestes.bloomfilter.redis;
+
+import orestes.bloomfilter.AsyncBloomFilter;
+import orestes.bloomfilter.redis.helper.RedisPipelineExecutor;
+import orestes.bloomfilter.redis.helper.RedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * {@link BloomFilterRedis}的异步实现. 请求通过{@link RedisPipelineExecutor}复用少量专用连接，
+ * 同一时间到达的请求在一个管道中发送. 读请求像{@link RedisPool#allowingSlaves()}一样按延迟逐个路由到slave(如果有).
+ * 不使用事务，每个元素发送<i>hashes</i>个SETBIT/GETBIT命令，与bf的{@link RedisCommandMode}无关.
+ * 维护bf的bit计数时, add使用与同步bf相同的Lua脚本, bits和计数原子地修改.
+ *
+ * @param <T> 元素类型
+ */
+public class AsyncBloomFilterRedis<T> implements AsyncBloomFilter<T> {
+    private final BloomFilterRedis<T> filter;
+    private final String bitsKey;
+    private final boolean counted;
+    private final RedisPipelineExecutor writer;
+    private final RedisPipelineExecutor reader;
+
+    /**
+     * @param filter 同步的bf, 其连接池提供一个专用连接
+     */
+    public AsyncBloomFilterRedis(BloomFilterRedis<T> filter) {
+        this(filter, 1, RedisPipelineExecutor.DEFAULT_MAX_BATCH);
+    }
+
+    /**
+     * @param filter      同步的bf, 其连接池提供专用连接
+     * @param connections master和每个slave的专用连接个数
+     * @param maxBatch    每个管道最多包含的请求个数
+     */
+    public AsyncBloomFilterRedis(BloomFilterRedis<T> filter, int connections, int maxBatch) {
+        this(filter, connections, maxBatch, Duration.ZERO);
+    }
+
+    /**
+     * @param filter      同步的bf, 其连接池提供专用连接
+     * @param connections master和每个slave的专用连接个数
+     * @param maxBatch    每个管道最多包含的请求个数
+     * @param maxDelay    请求等待更多请求的最长时间, 之后不满<i>maxBatch</i>的管道也会被发送
+     */
+    public AsyncBloomFilterRedis(BloomFilterRedis<T> filter, int connections, int maxBatch, Duration maxDelay) {
+        this.filter = filter;
+        this.bitsKey = filter.getRedisBitSet().getRedisKey();
+        this.counted = filter.getRedisBitSet().getPopulationKey() != null;
+        RedisPool pool = filter.getRedisPool();
+        this.writer = new RedisPipelineExecutor(pool, connections, maxBatch, maxDelay);
+        this.reader = pool.getSlavePools() == null ? writer
+                : RedisPipelineExecutor.forReads(pool, connections, maxBatch, maxDelay);
+    }
+
+    @Override
+    public BloomFilterRedis<T> getFilter() {
+        return filter;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> addRawAsync(byte[] element) {
+        int[] positions = filter.hash(element);
+        if (counted) {
+            return filter.getRedisBitSet().setAllAsync(writer, positions, 0, positions.length);
+        }
+        return writer.submit(p -> {
+            List<Response<Boolean>> bits = setBits(p, positions);
+            return () -> anyUnset(bits, 0, bits.size());
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<Boolean>> addAllAsync(Collection<T> elements) {
+        int[] positions = filter.hashAll(elements);
+        int k = filter.config().hashes();
+        if (counted) {
+            List<CompletableFuture<Boolean>> added = new ArrayList<>(positions.length / k);
+            for (int from = 0; from < positions.length; from += k) {
+                added.add(filter.getRedisBitSet().setAllAsync(writer, positions, from, from + k));
+            }
+            return CompletableFuture.allOf(added.toArray(new CompletableFuture[0]))
+                    .thenApply(v -> added.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+        }
+        return writer.submit(p -> {
+            List<Response<Boolean>> bits = setBits(p, positions);
+            return perElement(k, bits, (from, to) -> anyUnset(bits, from, to));
+        });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> containsAsync(byte[] element) {
+        int[] positions = filter.hash(element);
+        return reader.submit(p -> {
+            List<Response<Boolean>> bits = getBits(p, positions);
+            return () -> !anyUnset(bits, 0, bits.size());
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<Boolean>> containsAsync(Collection<T> elements) {
+        int[] positions = filter.hashAll(elements);
+        int k = filter.config().hashes();
+        return reader.submit(p -> {
+            List<Response<Boolean>> bits = getBits(p, positions);
+            return perElement(k, bits, (from, to) -> !anyUnset(bits, from, to));
+        });
+    }
+
+    private List<Response<Boolean>> setBits(Pipeline p, int[] positions) {
+        List<Response<Boolean>> bits = new ArrayList<>(positions.length);
+        for (int position : positions) {
+            bits.add(p.setbit(bitsKey, position, true));
+        }
+        return bits;
+    }
+
+    private List<Response<Boolean>> getBits(Pipeline p, int[] positions) {
+        List<Response<Boolean>> bits = new ArrayList<>(positions.length);
+        for (int position : positions) {
+            bits.add(p.getbit(bitsKey, position));
+        }
+        return bits;
+    }
+
+    private static boolean anyUnset(List<Response<Boolean>> bits, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!bits.get(i).get()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Supplier<List<Boolean>> perElement(int k, List<Response<Boolean>> bits, RangePredicate predicate) {
+        return () -> {
+            List<Boolean> results = new ArrayList<>(bits.size() / k);
+            for (int from = 0; from < bits.size(); from += k) {
+                results.add(predicate.test(from, from + k));
+            }
+            return results;
+        };
+    }
+
+    @Override
+    public void close() {
+        writer.close();
+        if (reader != writer) {
+            reader.close();
+        }
+    }
+
+    private interface RangePredicate {
+        boolean test(int from, int to);
+    }
+}
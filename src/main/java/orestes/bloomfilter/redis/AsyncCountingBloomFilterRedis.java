@@ -0,0 +1,131 @@
+package orestes.bloomfilter.redis;
+
+import orestes.bloomfilter.AsyncCountingBloomFilter;
+import orestes.bloomfilter.redis.helper.RedisPipelineExecutor;
+import orestes.bloomfilter.redis.helper.RedisPool;
+import redis.clients.jedis.Response;
+import redis.clients.util.SafeEncoder;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * {@link CountingBloomFilterRedis}的异步实现. 请求通过{@link RedisPipelineExecutor}复用少量专用连接,
+ * 读请求像{@link RedisPool#allowingSlaves()}一样按延迟逐个路由到slave(如果有).
+ * 添加和删除使用与同步bf相同的Lua脚本，计数与bits的修改都是原子的.
+ *
+ * @param <T> 元素类型
+ */
+public class AsyncCountingBloomFilterRedis<T> implements AsyncCountingBloomFilter<T> {
+    private final CountingBloomFilterRedis<T> filter;
+    private final RedisPipelineExecutor writer;
+    private final RedisPipelineExecutor reader;
+
+    /**
+     * @param filter 同步的bf, 其连接池提供一个专用连接
+     */
+    public AsyncCountingBloomFilterRedis(CountingBloomFilterRedis<T> filter) {
+        this(filter, 1, RedisPipelineExecutor.DEFAULT_MAX_BATCH);
+    }
+
+    /**
+     * @param filter      同步的bf, 其连接池提供专用连接
+     * @param connections master和每个slave的专用连接个数
+     * @param maxBatch    每个管道最多包含的请求个数
+     */
+    public AsyncCountingBloomFilterRedis(CountingBloomFilterRedis<T> filter, int connections, int maxBatch) {
+        this(filter, connections, maxBatch, Duration.ZERO);
+    }
+
+    /**
+     * @param filter      同步的bf, 其连接池提供专用连接
+     * @param connections master和每个slave的专用连接个数
+     * @param maxBatch    每个管道最多包含的请求个数
+     * @param maxDelay    请求等待更多请求的最长时间, 之后不满<i>maxBatch</i>的管道也会被发送
+     */
+    public AsyncCountingBloomFilterRedis(CountingBloomFilterRedis<T> filter, int connections, int maxBatch, Duration maxDelay) {
+        this.filter = filter;
+        RedisPool pool = filter.getRedisPool();
+        this.writer = new RedisPipelineExecutor(pool, connections, maxBatch, maxDelay);
+        this.reader = pool.getSlavePools() == null ? writer
+                : RedisPipelineExecutor.forReads(pool, connections, maxBatch, maxDelay);
+    }
+
+    @Override
+    public CountingBloomFilterRedis<T> getFilter() {
+        return filter;
+    }
+
+    @Override
+    public CompletableFuture<Long> addAndEstimateCountRawAsync(byte[] element) {
+        RedisCounterStore counters = filter.getCounterStore();
+        return counters.addScript().evalAsync(writer, counters.scriptKeys(), counters.scriptArgs(filter.hash(element)))
+                .thenApply(counters::scriptResult);
+    }
+
+    @Override
+    public CompletableFuture<List<Boolean>> addAllAsync(Collection<T> elements) {
+        List<CompletableFuture<Boolean>> added = elements.stream().map(this::addAsync).collect(Collectors.toList());
+        return allOf(added);
+    }
+
+    @Override
+    public CompletableFuture<Long> removeAndEstimateCountRawAsync(byte[] element) {
+        RedisCounterStore counters = filter.getCounterStore();
+        return counters.removeScript().evalAsync(writer, counters.scriptKeys(), counters.scriptArgs(filter.hash(element)))
+                .thenApply(counters::scriptResult);
+    }
+
+    @Override
+    public CompletableFuture<Long> getEstimatedCountAsync(T element) {
+        if (filter.getCounterStorage() == RedisCounterStorage.BITFIELD) {
+            byte[][] args = filter.getCounterStore().packedGetArgs(filter.hash(filter.toBytes(element)));
+            //BITFIELD is a write command before Redis 6.2, so counters are read from the master
+            return writer.submit(p -> {
+                Response<List<Long>> counts = p.bitfield(SafeEncoder.encode(filter.keys.COUNTS_KEY), args);
+                return () -> counts.get().stream().mapToLong(Long::longValue).min().orElse(0L);
+            });
+        }
+        String[] fields = RedisCounterStore.encode(filter.hash(filter.toBytes(element)));
+        return reader.submit(p -> {
+            Response<List<String>> counts = p.hmget(filter.keys.COUNTS_KEY, fields);
+            return () -> counts.get().stream().mapToLong(c -> c == null ? 0L : Long.valueOf(c)).min().orElse(0L);
+        });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> containsAsync(byte[] element) {
+        int[] positions = filter.hash(element);
+        return reader.submit(p -> {
+            List<Response<Boolean>> bits = new ArrayList<>(positions.length);
+            for (int position : positions) {
+                bits.add(p.getbit(filter.keys.BITS_KEY, position));
+            }
+            return () -> bits.stream().allMatch(Response::get);
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<Boolean>> containsAsync(Collection<T> elements) {
+        List<CompletableFuture<Boolean>> contains = elements.stream().map(this::containsAsync)
+                .collect(Collectors.toList());
+        return allOf(contains);
+    }
+
+    private static CompletableFuture<List<Boolean>> allOf(List<CompletableFuture<Boolean>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenApply(v -> futures.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+    }
+
+    @Override
+    public void close() {
+        writer.close();
+        if (reader != writer) {
+            reader.close();
+        }
+    }
+}
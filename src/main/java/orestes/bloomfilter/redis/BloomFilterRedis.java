@@ -5,113 +5,93 @@ import orestes.bloomfilter.FilterBuilder;
 import orestes.bloomfilter.memory.BloomFilterMemory;
 import orestes.bloomfilter.redis.helper.RedisKeys;
 import orestes.bloomfilter.redis.helper.RedisPool;
+import orestes.bloomfilter.storage.StoredBloomFilter;
+import redis.clients.jedis.BitOP;
 
-import java.util.ArrayList;
-import java.util.BitSet;
 import java.util.Collection;
-import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
 
 /**
- * 使用redis的<i>setbit</i> 和<i>getbit</i> 操作.  因内部使用批量操作，因而性能非常好
+ * 使用redis的<i>setbit</i> 和<i>getbit</i> 操作.  因内部使用批量操作，因而性能非常好.
+ * 过滤逻辑来自{@link StoredBloomFilter}, bit数组的存储是{@link RedisBitSet}
  *
  * @param <T> 元素类型
  */
-public class BloomFilterRedis<T> implements BloomFilter<T> {
-    private final RedisKeys keys;
+public class BloomFilterRedis<T> extends StoredBloomFilter<T> implements AutoCloseable {
     private final RedisPool pool;
     private final RedisBitSet bloom;
-    private final FilterBuilder config;
+    private final AsyncBloomFilterRedis<T> batcher;
 
 
     public BloomFilterRedis(FilterBuilder builder) {
-        builder.complete();
-        this.keys = new RedisKeys(builder.name());
-        this.pool = builder.pool();
-        this.bloom = new RedisBitSet(pool, keys.BITS_KEY, builder.size());
-        this.config = keys.persistConfig(pool, builder);
-        if (builder.overwriteIfExists()) this.clear();
+        this(builder.complete(), new RedisKeys(builder.name()), builder.pool());
     }
 
+    private BloomFilterRedis(FilterBuilder builder, RedisKeys keys, RedisPool pool) {
+        this(builder, keys, pool, new RedisBitSet(pool, keys.BITS_KEY, builder.size(), builder.redisCommandMode(),
+                builder.redisPipelineChunkSize(), keys.POPULATION_KEY));
+    }
 
-    @Override
-    public FilterBuilder config() {
-        return config;
+    private BloomFilterRedis(FilterBuilder builder, RedisKeys keys, RedisPool pool, RedisBitSet bloom) {
+        super(keys.persistConfig(pool, builder), bloom);
+        this.pool = pool;
+        this.bloom = bloom;
+        if (builder.overwriteIfExists()) this.clear();
+        //Counts the bits of filters created before the population counter, before any write increments it
+        bloom.cardinality();
+        this.batcher = config().redisMicroBatching() ? new AsyncBloomFilterRedis<>(this,
+                config().redisBatchConnections(), config().redisBatchSize(), config().redisBatchDelay()) : null;
     }
 
     @Override
     public boolean addRaw(byte[] element) {
-        return bloom.setAll(hash(element));
+        if (batcher != null) {
+            return join(batcher.addRawAsync(element));
+        }
+        return super.addRaw(element);
     }
 
     @Override
-    public List<Boolean> addAll(Collection<T> elements) {
-        List<Boolean> added = new ArrayList<>();
-        List<Boolean> results = pool.transactionallyDo(p -> {
-            for (T value : elements) {
-                for (int position : hash(toBytes(value))) {
-                    bloom.set(p, position, true);
-                }
-            }
-        });
-
-        //For each value check, if any bits were set to one
-        boolean wasAdded = false;
-        int numProcessed = 0;
-        for (Boolean item : results) {
-            if (!item) wasAdded = true;
-            if ((numProcessed + 1) % config().hashes() == 0) {
-                added.add(wasAdded);
-                wasAdded = false;
-            }
-            numProcessed++;
+    public boolean contains(byte[] element) {
+        if (batcher != null) {
+            return join(batcher.containsAsync(element));
         }
-        return added;
+        return super.contains(element);
     }
 
-    public List<Boolean> contains(Collection<T> elements) {
-        List<Boolean> contains = new ArrayList<>();
-        List<Boolean> results = pool.transactionallyDo(p -> {
-            for (T value : elements) {
-                for (int position : hash(toBytes(value))) {
-                    bloom.get(p, position);
-                }
+    private static <R> R join(CompletableFuture<R> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
-        });
-
-        //For each value check, if all bits in ranges of #hashes bits are set
-        boolean isPresent = true;
-        int numProcessed = 0;
-        for (Boolean item : results) {
-            if (!item) isPresent = false;
-            if ((numProcessed + 1) % config().hashes() == 0) {
-                contains.add(isPresent);
-                isPresent = true;
-            }
-            numProcessed++;
+            throw e;
         }
-        return contains;
-    }
-
-    @Override
-    public boolean contains(byte[] element) {
-        return bloom.isAllSet(hash(element));
-    }
-
-    @Override
-    public void clear() {
-        bloom.clear();
     }
 
     @Override
     public void remove() {
         clear();
         pool.safelyDo(jedis -> jedis.del(config().name()));
-        pool.destroy();
+        release();
     }
 
+    /**
+     * 释放微批处理的连接和线程以及连接池, 不删除bf
+     */
     @Override
-    public BitSet getBitSet() {
-        return bloom.asBitSet();
+    public void close() {
+        release();
+    }
+
+    private void release() {
+        if (batcher != null) {
+            batcher.close();
+        }
+        pool.destroy();
     }
 
     public BloomFilterMemory<T> toMemoryFilter() {
@@ -122,27 +102,42 @@ public class BloomFilterRedis<T> implements BloomFilter<T> {
 
     @Override
     public BloomFilter<T> clone() {
-        return new BloomFilterRedis<>(config.clone());
+        return new BloomFilterRedis<>(config().clone());
     }
 
-    @Override
-    public boolean union(BloomFilter<T> other) {
-        throw new UnsupportedOperationException();
+    /**
+     * 用一个BITOP OR合并多个bf, 例如把每天的bf合并成每周的bf. 同一redis上的bf的数据不会离开redis
+     *
+     * @param others 兼容的bf
+     * @return 是否都兼容, 不兼容时不做修改
+     */
+    public boolean unionAll(Collection<? extends BloomFilter<T>> others) {
+        return combine(BitOP.OR, others);
     }
 
-    @Override
-    public boolean intersect(BloomFilter<T> other) {
-        throw new UnsupportedOperationException();
+    /**
+     * 用一个BITOP AND求多个bf的交集. 同一redis上的bf的数据不会离开redis
+     *
+     * @param others 兼容的bf
+     * @return 是否都兼容, 不兼容时不做修改
+     */
+    public boolean intersectAll(Collection<? extends BloomFilter<T>> others) {
+        return combine(BitOP.AND, others);
     }
 
-    @Override
-    public boolean isEmpty() {
-        return bloom.isEmpty();
+    private boolean combine(BitOP op, Collection<? extends BloomFilter<T>> others) {
+        if (!others.stream().allMatch(this::compatible)) {
+            return false;
+        }
+        bloom.combine(op, others.stream().map(this::bitStore).collect(Collectors.toList()));
+        return true;
     }
 
-    @Override
-    public Double getEstimatedPopulation() {
-        return BloomFilter.population(bloom, config());
+    /**
+     * @return 连接池
+     */
+    public RedisPool getRedisPool() {
+        return pool;
     }
 
     /**
@@ -162,7 +157,7 @@ public class BloomFilterRedis<T> implements BloomFilter<T> {
         BloomFilterRedis that = (BloomFilterRedis) o;
 
         if (bloom != null ? !bloom.equals(that.bloom) : that.bloom != null) return false;
-        if (config != null ? !config.isCompatibleTo(that.config) : that.config != null) return false;
+        if (config() != null ? !config().isCompatibleTo(that.config()) : that.config() != null) return false;
 
         return true;
     }
@@ -0,0 +1,317 @@
+package orestes.bloomfilter.redis;
+
+import orestes.bloomfilter.BloomFilter;
+import orestes.bloomfilter.FilterBuilder;
+import orestes.bloomfilter.HashProvider;
+import orestes.bloomfilter.redis.helper.RedisClusterTopology;
+import orestes.bloomfilter.redis.helper.RedisKeys;
+import orestes.bloomfilter.redis.helper.RedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisMovedDataException;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * 存储在redis cluster中的bf. bit数组被分成<i>segments</i>个分段，每个分段是一个独立的key，
+ * 通过hash tag(<i>{name:i}:bits</i>)分布到不同的slot, 从而分布到不同的节点上. 每个元素的所有bit都在同一个分段中
+ * (blocked bloom filter), 分段由一个与bf的hash函数相互独立的murmur3 hash选择.
+ * <p>
+ * 配置(<i>size</i>, <i>expectedElements</i>等)描述一个分段，总容量为<i>segments * size</i>, 可以超过单个key 512MB的上限.
+ * 批量操作按节点分组，每个节点一个管道，所有节点的管道并发执行.
+ *
+ * @param <T> 元素类型
+ */
+public class ClusterBloomFilterRedis<T> implements BloomFilter<T> {
+    public static final String SEGMENTS_KEY = "segments";
+    //Independent of the seeds of the filter's hash function
+    private static final int SEGMENT_SEED = 0x9E3779B9;
+
+    private final FilterBuilder config;
+    private final RedisClusterTopology topology;
+    private final int segments;
+    private final String[] segmentKeys;
+    private volatile RedisBitSet[] bitSets;
+    private ExecutorService executor;
+
+    /**
+     * 打开或创建bf
+     *
+     * @param builder  一个分段的配置, 以<i>redisHost</i>和<i>redisPort</i>作为发现集群的种子节点
+     * @param segments 分段个数，如果bf已存在则使用已保存的分段个数
+     */
+    public ClusterBloomFilterRedis(FilterBuilder builder, int segments) {
+        builder.complete();
+        this.topology = new RedisClusterTopology(builder.pool(), builder.password(), builder.redisConnections(),
+                builder.redisSsl());
+        RedisPool configPool = topology.forKey(builder.name());
+        this.config = new RedisKeys(builder.name()).persistConfig(configPool, builder);
+        this.segments = configPool.safelyReturn(jedis -> {
+            if (builder.overwriteIfExists()) {
+                jedis.hset(builder.name(), SEGMENTS_KEY, String.valueOf(segments));
+            } else {
+                jedis.hsetnx(builder.name(), SEGMENTS_KEY, String.valueOf(segments));
+            }
+            return Integer.valueOf(jedis.hget(builder.name(), SEGMENTS_KEY));
+        });
+        this.segmentKeys = new String[this.segments];
+        for (int i = 0; i < this.segments; i++) {
+            segmentKeys[i] = "{" + builder.name() + ":" + i + "}:bits";
+        }
+        this.bitSets = createBitSets();
+        if (builder.overwriteIfExists()) {
+            this.clear();
+        }
+    }
+
+    private RedisBitSet[] createBitSets() {
+        RedisBitSet[] bitSets = new RedisBitSet[segments];
+        for (int i = 0; i < segments; i++) {
+            bitSets[i] = new RedisBitSet(topology.forKey(segmentKeys[i]), segmentKeys[i], config.size(),
+                    config.redisCommandMode(), config.redisPipelineChunkSize());
+        }
+        return bitSets;
+    }
+
+    /**
+     * 计算元素所在的分段
+     *
+     * @param element 元素
+     * @return 分段序号
+     */
+    public int segment(byte[] element) {
+        return (int) Math.floorMod(HashProvider.murmur3(SEGMENT_SEED ^ config.seed(), element), (long) segments);
+    }
+
+    @Override
+    public FilterBuilder config() {
+        return config;
+    }
+
+    @Override
+    public boolean addRaw(byte[] element) {
+        int[] positions = hash(element);
+        int segment = segment(element);
+        return retryOnMoved(() -> bitSets[segment].setAll(positions));
+    }
+
+    @Override
+    public boolean contains(byte[] element) {
+        int[] positions = hash(element);
+        int segment = segment(element);
+        return retryOnMoved(() -> bitSets[segment].isAllSet(positions));
+    }
+
+    @Override
+    public List<Boolean> addAll(Collection<T> elements) {
+        return pipelinedPerNode(elements, true);
+    }
+
+    @Override
+    public List<Boolean> contains(Collection<T> elements) {
+        return pipelinedPerNode(elements, false);
+    }
+
+    /**
+     * Groups the elements by the node of their segment and sends one pipeline per node. The pipelines are written and
+     * read on separate threads, so the nodes process them concurrently.
+     *
+     * @param elements the elements
+     * @param set      {@code true} to set the bits, {@code false} to read them
+     * @return for each element whether a bit changed (set) or all bits are set (read)
+     */
+    private List<Boolean> pipelinedPerNode(Collection<T> elements, boolean set) {
+        byte[][] values = new byte[elements.size()][];
+        int i = 0;
+        for (T element : elements) {
+            values[i++] = toBytes(element);
+        }
+        int[] positions = hash(values);
+        int[] elementSegments = new int[values.length];
+        for (int e = 0; e < values.length; e++) {
+            elementSegments[e] = segment(values[e]);
+        }
+        return retryOnMoved(() -> {
+            int k = config.hashes();
+            Map<RedisPool, List<Integer>> byNode = new LinkedHashMap<>();
+            for (int e = 0; e < values.length; e++) {
+                RedisPool node = topology.forKey(segmentKeys[elementSegments[e]]);
+                byNode.computeIfAbsent(node, n -> new ArrayList<>()).add(e);
+            }
+            Response<?>[] responses = new Response<?>[positions.length];
+            List<CompletableFuture<Void>> pending = new ArrayList<>(byNode.size());
+            Runnable local = null;
+            for (Map.Entry<RedisPool, List<Integer>> node : byNode.entrySet()) {
+                Runnable task = () -> node.getKey().safelyDo(jedis -> {
+                    Pipeline p = jedis.pipelined();
+                    for (int e : node.getValue()) {
+                        String key = segmentKeys[elementSegments[e]];
+                        for (int j = e * k; j < (e + 1) * k; j++) {
+                            responses[j] = set ? p.setbit(key, positions[j], true) : p.getbit(key, positions[j]);
+                        }
+                    }
+                    p.sync();
+                });
+                //The calling thread handles one node itself
+                if (local == null) {
+                    local = task;
+                } else {
+                    pending.add(CompletableFuture.runAsync(task, executor()));
+                }
+            }
+            if (local != null) {
+                local.run();
+            }
+            try {
+                CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+            List<Boolean> results = new ArrayList<>(values.length);
+            for (int e = 0; e < values.length; e++) {
+                boolean result = !set;
+                for (int j = e * k; j < (e + 1) * k; j++) {
+                    boolean bit = (Boolean) responses[j].get();
+                    result = set ? result || !bit : result && bit;
+                }
+                results.add(result);
+            }
+            return results;
+        });
+    }
+
+    /**
+     * Reloads the slot mapping and retries once if a node answered with MOVED, e.g. after a resharding or failover.
+     */
+    private <R> R retryOnMoved(Supplier<R> operation) {
+        try {
+            return operation.get();
+        } catch (JedisMovedDataException e) {
+            topology.refresh();
+            bitSets = createBitSets();
+            return operation.get();
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (RedisBitSet bitSet : bitSets) {
+            bitSet.clear();
+        }
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "cluster-bloomfilter");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    @Override
+    public synchronized void remove() {
+        clear();
+        topology.forKey(config.name()).safelyDo(jedis -> jedis.del(config.name()));
+        topology.destroy();
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * 把所有分段按顺序拼接成一个BitSet. 分段<i>i</i>从<i>i * size</i>开始
+     *
+     * @return 所有分段的bits
+     */
+    @Override
+    public BitSet getBitSet() {
+        if ((long) segments * config.size() > Integer.MAX_VALUE) {
+            throw new UnsupportedOperationException("The filter is too large for a BitSet.");
+        }
+        BitSet bits = new BitSet(segments * config.size());
+        for (int i = 0; i < segments; i++) {
+            BitSet segment = bitSets[i].asBitSet();
+            int offset = i * config.size();
+            segment.stream().forEach(bit -> bits.set(offset + bit));
+        }
+        return bits;
+    }
+
+    /**
+     * @return 分段个数
+     */
+    public int getSegments() {
+        return segments;
+    }
+
+    /**
+     * @return 所有分段的总大小，以bit为单位
+     */
+    public long getTotalSize() {
+        return (long) segments * config.size();
+    }
+
+    /**
+     * @return 每个分段的bitset
+     */
+    public RedisBitSet[] getRedisBitSets() {
+        return bitSets.clone();
+    }
+
+    @Override
+    public BloomFilter<T> clone() {
+        return new ClusterBloomFilterRedis<>(config.clone(), segments);
+    }
+
+    @Override
+    public boolean union(BloomFilter<T> other) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean intersect(BloomFilter<T> other) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (RedisBitSet bitSet : bitSets) {
+            if (bitSet.cardinality() != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 各分段估计值之和
+     *
+     * @return 估计的元素个数
+     */
+    @Override
+    public Double getEstimatedPopulation() {
+        double population = 0;
+        for (RedisBitSet bitSet : bitSets) {
+            int oneBits = bitSet.cardinality();
+            population += -config.size() / ((double) config.hashes()) * Math.log(1 - oneBits / ((double) config.size()));
+        }
+        return population;
+    }
+}
@@ -1,124 +1,55 @@
 package orestes.bloomfilter.redis;
 
-import orestes.bloomfilter.BloomFilter;
 import orestes.bloomfilter.CountingBloomFilter;
 import orestes.bloomfilter.FilterBuilder;
 import orestes.bloomfilter.memory.CountingBloomFilterMemory;
 import orestes.bloomfilter.redis.helper.RedisKeys;
 import orestes.bloomfilter.redis.helper.RedisPool;
-import redis.clients.jedis.Pipeline;
-import redis.clients.jedis.Response;
-import redis.clients.util.SafeEncoder;
-
-import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import orestes.bloomfilter.storage.StoredCountingBloomFilter;
 
 /**
- * 使用kv对来计数.  可以结合Pipelining 来提高性能
+ * 使用kv对来计数.  可以结合Pipelining 来提高性能. 计数器的存储方式见{@link RedisCounterStorage}.
+ * 过滤逻辑来自{@link StoredCountingBloomFilter}, 计数器由{@link RedisCounterStore}的Lua脚本与bits一起原子地修改,
+ * 批量操作的脚本通过管道分块发送
  *
  * @param <T> 元素类型
  */
-public class CountingBloomFilterRedis<T> implements CountingBloomFilter<T> {
+public class CountingBloomFilterRedis<T> extends StoredCountingBloomFilter<T> {
     protected final RedisKeys keys;
     protected final RedisPool pool;
     protected final RedisBitSet bloom;
-    protected final FilterBuilder config;
 
 
     public CountingBloomFilterRedis(FilterBuilder builder) {
-        builder.complete();
-        this.keys = new RedisKeys(builder.name());
-        this.pool = builder.pool();
-        this.bloom = new RedisBitSet(pool, keys.BITS_KEY, builder.size());
-        this.config = keys.persistConfig(pool, builder);
-        if (builder.overwriteIfExists()) {
-            this.clear();
-        }
-    }
-
-    @Override
-    public long addAndEstimateCountRaw(byte[] element) {
-        List<Object> results = pool.transactionallyRetry(p -> {
-            int[] hashes = hash(element);
-            for (int position : hashes) {
-                bloom.set(p, position, true);
-            }
-            for (int position : hashes) {
-                p.hincrBy(keys.COUNTS_KEY, encode(position), 1);
-            }
-        }, keys.BITS_KEY, keys.COUNTS_KEY);
-        return results.stream().skip(config().hashes()).map(i -> (Long) i).min(Comparator.<Long>naturalOrder()).get();
-    }
-
-    //TODO removeALL addAll
-
-    @Override
-    public boolean removeRaw(byte[] value) {
-        return removeAndEstimateCountRaw(value) <= 0;
+        this(builder.complete(), new RedisKeys(builder.name()), builder.pool());
     }
 
-    @Override
-    public long removeAndEstimateCountRaw(byte[] value) {
-        return pool.safelyReturn(jedis -> {
-            int[] hashes = hash(value);
-            String[] hashesString = encode(hashes);
-
-            Pipeline p = jedis.pipelined();
-            p.watch(keys.COUNTS_KEY, keys.BITS_KEY);
-
-            List<Long> counts;
-            List<Response<Long>> responses = new ArrayList<>(config().hashes());
-            for (String position : hashesString) {
-                responses.add(p.hincrBy(keys.COUNTS_KEY, position, -1));
-            }
-            p.sync();
-            counts = responses.stream().map(Response::get).collect(Collectors.toList());
-
-            //Fast lane: don't set BF bits
-            long min = Collections.min(counts);
-            if (min > 0) {
-                return min;
-            }
-
-            while (true) {
-                p = jedis.pipelined();
-                p.multi();
-                for (int i = 0; i < config().hashes(); i++) {
-                    if (counts.get(i) <= 0) {
-                        bloom.set(p, hashes[i], false);
-                    }
-                }
-                Response<List<Object>> exec = p.exec();
-                p.sync();
-                if (exec.get() == null) {
-                    p = jedis.pipelined();
-                    p.watch(keys.COUNTS_KEY, keys.BITS_KEY);
-                    Response<List<String>> hmget = p.hmget(keys.COUNTS_KEY, hashesString);
-                    p.sync();
-                    counts = hmget.get().stream().map(o -> o != null ? Long.parseLong(o) : 0l).collect(Collectors.toList());
-                } else {
-                    return Collections.min(counts);
-                }
-            }
-        });
+    private CountingBloomFilterRedis(FilterBuilder builder, RedisKeys keys, RedisPool pool) {
+        this(builder, keys, pool, new RedisBitSet(pool, keys.BITS_KEY, builder.size(), builder.redisCommandMode(),
+                builder.redisPipelineChunkSize()), keys.persistConfig(pool, builder));
     }
 
-    @Override
-    public long getEstimatedCount(T element) {
-        return pool.allowingSlaves().safelyReturn(jedis -> {
-            String[] hashesString = encode(hash(toBytes(element)));
-            List<String> hmget = jedis.hmget(keys.COUNTS_KEY, hashesString);
-            return hmget.stream().mapToLong(i -> i == null ? 0L : Long.valueOf(i)).min().orElse(0L);
-        });
+    private CountingBloomFilterRedis(FilterBuilder builder, RedisKeys keys, RedisPool pool, RedisBitSet bloom,
+                                     FilterBuilder config) {
+        super(config, new RedisCounterStore(pool, keys, bloom, config));
+        this.keys = keys;
+        this.pool = pool;
+        this.bloom = bloom;
+        if (builder.overwriteIfExists()) {
+            this.clear();
+        } else {
+            getCounterStore().upgradeFormat(config.name());
+        }
     }
 
-
-    @Override
-    public void clear() {
-        pool.safelyDo(jedis -> {
-            jedis.del(keys.COUNTS_KEY, keys.BITS_KEY);
-        });
+    /**
+     * 迁移旧版本(按UTF-8解码计数器字段名)写入的计数器, 见{@link RedisCounterStore#migrateLegacyFields()}.
+     * 加载旧版本创建的bf时已经自动迁移, 只有旧版本的客户端在此之后又写入了计数器时才需要调用
+     *
+     * @return 迁移的计数器个数
+     */
+    public long migrateLegacyCounters() {
+        return getCounterStore().migrateLegacyFields();
     }
 
     @Override
@@ -128,31 +59,22 @@ public class CountingBloomFilterRedis<T> implements CountingBloomFilter<T> {
         pool.destroy();
     }
 
-    @Override
-    public boolean contains(byte[] element) {
-        int[] hash = hash(element);
-        return bloom.isAllSet(hash);
-    }
-
-
     protected RedisBitSet getRedisBitSet() {
         return bloom;
     }
 
+    /**
+     * @return 计数器的存储
+     */
     @Override
-    public BitSet getBitSet() {
-        return bloom.asBitSet();
+    public RedisCounterStore getCounterStore() {
+        return (RedisCounterStore) counters;
     }
 
     public byte[] getBytes() {
         return bloom.toByteArray();
     }
 
-    @Override
-    public FilterBuilder config() {
-        return config;
-    }
-
     /**
      * 转换成内存形式
      *
@@ -169,37 +91,15 @@ public class CountingBloomFilterRedis<T> implements CountingBloomFilter<T> {
         return new CountingBloomFilterRedis<>(config().clone());
     }
 
-    @Override
-    public boolean union(BloomFilter<T> other) {
-        throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public boolean intersect(BloomFilter<T> other) {
-        throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public boolean isEmpty() {
-        return bloom.isEmpty();
-    }
-
-    @Override
-    public Double getEstimatedPopulation() {
-        return BloomFilter.population(bloom, config());
-    }
-
     public RedisPool getRedisPool() {
         return pool;
     }
 
-    private static String encode(int value) {
-        return SafeEncoder.encode(new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value});
-    }
-
-
-    private static String[] encode(int[] hashes) {
-        return IntStream.of(hashes).mapToObj(CountingBloomFilterRedis::encode).toArray(String[]::new);
+    /**
+     * @return 保存计数器的方式
+     */
+    public RedisCounterStorage getCounterStorage() {
+        return getCounterStore().getStorage();
     }
 
     @Override
@@ -0,0 +1,335 @@
+package orestes.bloomfilter.redis;
+
+import orestes.bloomfilter.BloomFilter;
+import orestes.bloomfilter.FilterBuilder;
+import orestes.bloomfilter.memory.BloomFilterMemory;
+import orestes.bloomfilter.redis.helper.RedisKeys;
+import orestes.bloomfilter.redis.helper.RedisScript;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Protocol;
+import redis.clients.util.SafeEncoder;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 带本地副本(near cache)的redis bf. contains在本地的{@link BloomFilterMemory}上执行，写操作同时写入redis和本地副本.
+ * <p>
+ * bit数组被分成固定大小的块，每块在<i>name:versions</i>中有一个版本号，写操作在设置bit的同一个Lua脚本中增加bit被修改的块的版本号.
+ * 后台线程定期读取版本号，只用GETRANGE读取版本号变化了的块. 如果本地副本超过<i>maxStaleness</i>没有刷新成功,
+ * contains直接访问redis.
+ * <p>
+ * 只有通过NearCacheBloomFilterRedis的写操作会增加版本号，所以所有写入该bf的客户端都应使用这个类.
+ * 不再使用时调用{@link #close()}停止后台刷新.
+ *
+ * @param <T> 元素类型
+ */
+public class NearCacheBloomFilterRedis<T> extends BloomFilterRedis<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(NearCacheBloomFilterRedis.class);
+    public static final int DEFAULT_CHUNK_BYTES = 64 * 1024;
+    //Incremented by clear(), forces a full reload
+    private static final String EPOCH_FIELD = "epoch";
+    //KEYS: bits, versions, optionally population. ARGV: bits per chunk, positions. Sets the bits, increments the
+    //versions of the chunks with changed bits and the population counter, returns 1 if a bit changed
+    private static final RedisScript SET_ALL_VERSIONED_SCRIPT = new RedisScript("local added, chunks = 0, {} "
+            + "for i = 2, #ARGV do if redis.call('setbit', KEYS[1], ARGV[i], 1) == 0 then added = added + 1 "
+            + "chunks[math.floor(tonumber(ARGV[i]) / tonumber(ARGV[1]))] = true end end "
+            + "for chunk in pairs(chunks) do redis.call('hincrby', KEYS[2], chunk, 1) end "
+            + "if added > 0 and KEYS[3] then redis.call('incrby', KEYS[3], added) end "
+            + "return math.min(added, 1)");
+
+    private final RedisKeys keys;
+    private final int chunkBytes;
+    private final long maxStalenessNanos;
+    private final LocalCopy<T> local;
+    private final ScheduledExecutorService refresher;
+    private Map<String, String> versions = new HashMap<>();
+    private volatile long lastRefresh;
+    private volatile boolean loaded = false;
+
+    /**
+     * @param builder         bf的配置
+     * @param refreshInterval 刷新本地副本的间隔
+     * @param maxStaleness    本地副本的最大延迟，超过后contains访问redis
+     */
+    public NearCacheBloomFilterRedis(FilterBuilder builder, Duration refreshInterval, Duration maxStaleness) {
+        this(builder, refreshInterval, maxStaleness, DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * @param builder         bf的配置
+     * @param refreshInterval 刷新本地副本的间隔
+     * @param maxStaleness    本地副本的最大延迟，超过后contains访问redis
+     * @param chunkBytes      每块的字节数
+     */
+    public NearCacheBloomFilterRedis(FilterBuilder builder, Duration refreshInterval, Duration maxStaleness,
+                                     int chunkBytes) {
+        super(builder);
+        this.keys = new RedisKeys(config().name());
+        this.chunkBytes = chunkBytes;
+        this.maxStalenessNanos = maxStaleness.toNanos();
+        this.local = new LocalCopy<>(config().clone());
+        if (builder.overwriteIfExists()) {
+            bumpEpoch();
+        }
+        refresh();
+        this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "near-cache-" + config().name());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = refreshInterval.toNanos();
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (RuntimeException e) {
+                LOG.warn("Refreshing the near cache of {} failed", config().name(), e);
+            }
+        }, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 刷新本地副本: 只读取版本号变化了的块. 版本号和块从同一个节点读取, 否则落后的slave上的旧bits可能与另一个节点上的新版本号一起被缓存
+     */
+    public synchronized void refresh() {
+        long start = System.nanoTime();
+        //Local writes during a full reload are kept, they may reach redis after the node was read
+        local.startJournal();
+        try {
+            //A bulk transfer, so it is not hedged
+            Update update = getRedisPool().allowingSlaves().safelyReturn(this::read);
+            if (update.bits != null) {
+                local.replace(update.bits);
+            } else {
+                for (int i = 0; i < update.chunks.size(); i++) {
+                    local.or(RedisBitSet.fromByteArrayReverse(update.ranges.get(i)),
+                            update.chunks.get(i) * chunkBytes * 8);
+                }
+            }
+            versions = update.versions;
+        } finally {
+            local.stopJournal();
+        }
+        loaded = true;
+        lastRefresh = start;
+    }
+
+    /**
+     * Reads the versions and then the whole filter or the changed chunks on the same connection.
+     */
+    private Update read(Jedis jedis) {
+        Update update = new Update();
+        update.versions = jedis.hgetAll(keys.VERSIONS_KEY);
+        if (!loaded || !equal(update.versions.get(EPOCH_FIELD), versions.get(EPOCH_FIELD))) {
+            update.bits = getRedisBitSet().asBitSet(jedis);
+            return update;
+        }
+        for (Map.Entry<String, String> version : update.versions.entrySet()) {
+            if (!EPOCH_FIELD.equals(version.getKey()) && !version.getValue().equals(versions.get(version.getKey()))) {
+                update.chunks.add(Integer.parseInt(version.getKey()));
+            }
+        }
+        if (!update.chunks.isEmpty()) {
+            update.ranges = getRedisBitSet().getRanges(jedis, update.chunks, chunkBytes);
+            getRedisPool().recordPipeline(update.chunks.size());
+        }
+        return update;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * @return 本地副本是否在最大延迟之内
+     */
+    public boolean isFresh() {
+        return loaded && System.nanoTime() - lastRefresh <= maxStalenessNanos;
+    }
+
+    @Override
+    public boolean addRaw(byte[] element) {
+        int[] positions = hash(element);
+        List<byte[]> args = scriptArgs(positions, 0, positions.length);
+        boolean added = getRedisPool().safelyReturn(jedis ->
+                (Long) SET_ALL_VERSIONED_SCRIPT.eval(jedis, scriptKeys(), args) == 1);
+        local.set(positions);
+        return added;
+    }
+
+    @Override
+    public List<Boolean> addAll(Collection<T> elements) {
+        int[] positions = hashAll(elements);
+        int k = config().hashes();
+        List<List<byte[]>> args = new ArrayList<>(positions.length / k);
+        for (int offset = 0; offset < positions.length; offset += k) {
+            args.add(scriptArgs(positions, offset, offset + k));
+        }
+        List<Object> results = getRedisPool().safelyReturn(jedis ->
+                SET_ALL_VERSIONED_SCRIPT.evalAll(jedis, scriptKeys(), args));
+        getRedisPool().recordPipeline(results.size());
+        local.set(positions);
+        List<Boolean> added = new ArrayList<>(results.size());
+        results.forEach(r -> added.add((Long) r == 1));
+        return added;
+    }
+
+    /**
+     * The versions are incremented by the script that sets the bits, so readers that see a new version also see the
+     * bits, and a client that fails after writing cannot leave bits behind that other near caches never fetch.
+     */
+    private List<byte[]> scriptKeys() {
+        List<byte[]> scriptKeys = new ArrayList<>(3);
+        scriptKeys.add(SafeEncoder.encode(keys.BITS_KEY));
+        scriptKeys.add(SafeEncoder.encode(keys.VERSIONS_KEY));
+        if (getRedisBitSet().getPopulationKey() != null) {
+            scriptKeys.add(SafeEncoder.encode(getRedisBitSet().getPopulationKey()));
+        }
+        return scriptKeys;
+    }
+
+    private List<byte[]> scriptArgs(int[] positions, int from, int to) {
+        List<byte[]> args = new ArrayList<>(to - from + 1);
+        args.add(Protocol.toByteArray(chunkBytes * 8));
+        for (int i = from; i < to; i++) {
+            args.add(Protocol.toByteArray(positions[i]));
+        }
+        return args;
+    }
+
+    @Override
+    public boolean contains(byte[] element) {
+        return isFresh() ? local.contains(element) : super.contains(element);
+    }
+
+    @Override
+    public List<Boolean> contains(Collection<T> elements) {
+        return isFresh() ? local.contains(elements) : super.contains(elements);
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        //Called by the super constructor before the near cache exists
+        if (local != null) {
+            bumpEpoch();
+            local.clear();
+        }
+    }
+
+    @Override
+    public boolean unionAll(Collection<? extends BloomFilter<T>> others) {
+        return reloadAfter(super.unionAll(others));
+    }
+
+    @Override
+    public boolean intersectAll(Collection<? extends BloomFilter<T>> others) {
+        return reloadAfter(super.intersectAll(others));
+    }
+
+    //Whole-filter changes are published by a new epoch, which makes every near cache reload the filter
+    private boolean reloadAfter(boolean changed) {
+        if (changed) {
+            bumpEpoch();
+            refresh();
+        }
+        return changed;
+    }
+
+    private void bumpEpoch() {
+        getRedisPool().safelyDo(jedis -> jedis.hincrBy(keys.VERSIONS_KEY, EPOCH_FIELD, 1));
+    }
+
+    /**
+     * 停止后台刷新并释放连接, 不删除bf
+     */
+    @Override
+    public void close() {
+        refresher.shutdownNow();
+        super.close();
+    }
+
+    @Override
+    public void remove() {
+        refresher.shutdownNow();
+        getRedisPool().safelyDo(jedis -> jedis.del(keys.VERSIONS_KEY));
+        super.remove();
+    }
+
+    /**
+     * @return 本地副本
+     */
+    public BloomFilterMemory<T> getLocalFilter() {
+        return local;
+    }
+
+    private static class Update {
+        Map<String, String> versions;
+        //The whole filter after a new epoch, otherwise the changed chunks
+        BitSet bits;
+        List<Integer> chunks = new ArrayList<>();
+        List<byte[]> ranges;
+    }
+
+    private static class LocalCopy<T> extends BloomFilterMemory<T> {
+        //Positions written locally while a refresh is running
+        private BitSet journal;
+
+        LocalCopy(FilterBuilder config) {
+            super(config);
+        }
+
+        synchronized void set(int[] positions) {
+            for (int position : positions) {
+                setBit(position, true);
+                if (journal != null) {
+                    journal.set(position);
+                }
+            }
+        }
+
+        synchronized void startJournal() {
+            journal = new BitSet();
+        }
+
+        synchronized void stopJournal() {
+            journal = null;
+        }
+
+        /**
+         * Replaces the bits with a full reload, keeping the positions written since the refresh started.
+         */
+        synchronized void replace(BitSet bits) {
+            if (journal != null) {
+                bits.or(journal);
+            }
+            setBitSet(bits);
+        }
+
+        /**
+         * Bits are only reset by clear(), which forces a full reload, so chunks are merged instead of replaced. This
+         * keeps local writes that happened while a chunk was loaded.
+         */
+        synchronized void or(BitSet chunk, int offset) {
+            chunk.stream().forEach(bit -> setBit(offset + bit, true));
+        }
+
+        @Override
+        public synchronized void clear() {
+            super.clear();
+            if (journal != null) {
+                journal.clear();
+            }
+        }
+    }
+}
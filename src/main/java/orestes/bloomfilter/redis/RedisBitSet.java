@@ -1,19 +1,92 @@
 package orestes.bloomfilter.redis;
 
+import orestes.bloomfilter.redis.helper.RedisPipelineExecutor;
 import orestes.bloomfilter.redis.helper.RedisPool;
+import orestes.bloomfilter.redis.helper.RedisScript;
+import orestes.bloomfilter.storage.BitStore;
+import redis.clients.jedis.BitOP;
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Jedis;
 import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
 import redis.clients.util.SafeEncoder;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 /**
  * Redis提供的bitset. 并非所有方法都实现.如果有需要，可用 {@link #asBitSet()}.转换成传统的BitSet<br>
+ * 同时是{@link BitStore}的redis实现
  */
-public class RedisBitSet extends BitSet {
+public class RedisBitSet extends BitSet implements BitStore {
+    //Returns 1 if any of the bits in ARGV was 0 and adds the number of such bits to the population key, if given
+    private static final RedisScript SET_ALL_SCRIPT = new RedisScript("local added = 0 "
+            + "for i = 1, #ARGV do if redis.call('setbit', KEYS[1], ARGV[i], 1) == 0 then added = added + 1 end end "
+            + "if added > 0 and KEYS[2] then redis.call('incrby', KEYS[2], added) end "
+            + "return math.min(added, 1)");
+    //Sets the bit ARGV[1] to ARGV[2], adjusts the population key and returns the previous value
+    private static final RedisScript SET_BIT_SCRIPT = new RedisScript(
+            "local old = redis.call('setbit', KEYS[1], ARGV[1], ARGV[2]) "
+            + "if old ~= tonumber(ARGV[2]) then redis.call('incrby', KEYS[2], 2 * ARGV[2] - 1) end return old");
+    //Returns the population counter, initialized with BITCOUNT if it does not exist yet
+    private static final RedisScript POPULATION_SCRIPT = new RedisScript("local n = redis.call('get', KEYS[2]) "
+            + "if n then return tonumber(n) end "
+            + "n = redis.call('bitcount', KEYS[1]) redis.call('set', KEYS[2], n) return n");
+    //Overwrites the population counter with BITCOUNT
+    private static final RedisScript RECOUNT_SCRIPT = new RedisScript(
+            "local n = redis.call('bitcount', KEYS[1]) redis.call('set', KEYS[2], n) return n");
+    //BITOP of KEYS[3..] into KEYS[1], then recounts the population
+    private static final RedisScript BITOP_SCRIPT = new RedisScript(
+            "redis.call('bitop', ARGV[1], KEYS[1], unpack(KEYS, 3)) "
+            + "local n = redis.call('bitcount', KEYS[1]) redis.call('set', KEYS[2], n) return n");
+    //Returns 1 if all bits in ARGV are 1
+    private static final RedisScript IS_ALL_SET_SCRIPT = new RedisScript(
+            "for i = 1, #ARGV do if redis.call('getbit', KEYS[1], ARGV[i]) == 0 then return 0 end end return 1");
+
+    //Upper bound for the number of sub-commands of one BITFIELD command in batch operations
+    private static final int BITFIELD_BATCH_POSITIONS = 8192;
+    private static final byte[] BITFIELD_GET = SafeEncoder.encode("GET");
+    private static final byte[] BITFIELD_SET = SafeEncoder.encode("SET");
+    private static final byte[] BITFIELD_U1 = SafeEncoder.encode("u1");
+    private static final byte[] BITFIELD_ONE = Protocol.toByteArray(1);
+
+    /**
+     * 分段传输bit串时每段的缺省字节数
+     */
+    public static final int DEFAULT_TRANSFER_CHUNK_BYTES = 1 << 20;
+    //Number of GETRANGE/SETRANGE commands one connection has in flight during transfers
+    private static final int TRANSFER_WINDOW = 4;
+
     private final RedisPool pool;
+    private final RedisCommandMode mode;
+    private final int pipelineChunkSize;
+    private final String populationKey;
     private String name;
+    private byte[] binaryName;
     private int size;
 
     /**
@@ -24,15 +97,62 @@ public class RedisBitSet extends BitSet {
      * @param size RedisBitSet的初始化大小
      */
     public RedisBitSet(RedisPool pool, String name, int size) {
+        this(pool, name, size, RedisCommandMode.TRANSACTIONAL);
+    }
+
+    /**
+     * 构建bitset
+     *
+     * @param pool the redis pool
+     * @param name redis中key的名称
+     * @param size RedisBitSet的初始化大小
+     * @param mode 读写bit的方式
+     */
+    public RedisBitSet(RedisPool pool, String name, int size, RedisCommandMode mode) {
+        this(pool, name, size, mode, RedisPool.DEFAULT_PIPELINE_CHUNK_SIZE);
+    }
+
+    /**
+     * 构建bitset
+     *
+     * @param pool              the redis pool
+     * @param name              redis中key的名称
+     * @param size              RedisBitSet的初始化大小
+     * @param mode              读写bit的方式
+     * @param pipelineChunkSize 批量读取时每次flush的命令个数
+     */
+    public RedisBitSet(RedisPool pool, String name, int size, RedisCommandMode mode, int pipelineChunkSize) {
+        this(pool, name, size, mode, pipelineChunkSize, null);
+    }
+
+    /**
+     * 构建bitset. 给定<i>populationKey</i>时, 在该key中增量维护被设置的bit数: 写操作根据bit原来的值INCRBY,
+     * 整体修改(clear, 覆盖, BITOP)后重新计数, 所以{@link #cardinality()}是O(1)的GET而不是BITCOUNT.
+     * 为了让SETBIT和INCRBY原子执行且不需要额外的往返, 维护计数时写操作与<i>mode</i>无关, 总是使用Lua脚本,
+     * <i>mode</i>只影响读操作. 通过{@link #set(Pipeline, int, boolean)}的写入不被计数
+     *
+     * @param pool              the redis pool
+     * @param name              redis中key的名称
+     * @param size              RedisBitSet的初始化大小
+     * @param mode              读写bit的方式
+     * @param pipelineChunkSize 批量读取时每次flush的命令个数
+     * @param populationKey     保存被设置的bit数的key, 为null时不维护
+     */
+    public RedisBitSet(RedisPool pool, String name, int size, RedisCommandMode mode, int pipelineChunkSize,
+                       String populationKey) {
         this.pool = pool;
+        this.populationKey = populationKey;
         this.name = name;
+        this.binaryName = SafeEncoder.encode(name);
         this.size = size;
+        this.mode = mode;
+        this.pipelineChunkSize = pipelineChunkSize;
     }
 
 
     @Override
     public boolean get(int bitIndex) {
-        return pool.allowingSlaves().safelyReturn(jedis -> jedis.getbit(name, bitIndex));
+        return pool.allowingHedgedReads().safelyReturn(jedis -> jedis.getbit(name, bitIndex));
     }
 
     /**
@@ -42,17 +162,19 @@ public class RedisBitSet extends BitSet {
      * @return 指定位置的值.
      */
     public Boolean[] getBulk(int... indexes) {
-        List<Boolean> results = pool.allowingSlaves().transactionallyDo(p -> {
-            for (int index : indexes) {
-                get(p, index);
-            }
-        });
+        List<Boolean> results = pool.allowingHedgedReads().pipelinedDo(indexes.length, pipelineChunkSize,
+                (p, i) -> p.getbit(name, indexes[i]));
         return results.toArray(new Boolean[indexes.length]);
     }
 
     @Override
     public void set(int bitIndex, boolean value) {
-        pool.safelyDo(jedis -> jedis.setbit(name, bitIndex, value));
+        if (populationKey == null) {
+            pool.safelyDo(jedis -> jedis.setbit(name, bitIndex, value));
+            return;
+        }
+        List<byte[]> args = Arrays.asList(Protocol.toByteArray(bitIndex), Protocol.toByteArray(value ? 1 : 0));
+        pool.safelyDo(jedis -> SET_BIT_SCRIPT.eval(jedis, keys(), args));
     }
 
 
@@ -84,15 +206,142 @@ public class RedisBitSet extends BitSet {
     @Override
     public void clear() {
         pool.safelyDo(jedis -> {
-            jedis.del(name);
+            if (populationKey != null) {
+                jedis.del(name, populationKey);
+            } else {
+                jedis.del(name);
+            }
         });
     }
 
+    /**
+     * 被设置的bit数. 维护计数时读取计数(不存在时用BITCOUNT初始化), 否则执行BITCOUNT
+     *
+     * @return 被设置的bit数
+     */
     @Override
     public int cardinality() {
+        if (populationKey != null) {
+            return pool.safelyReturn(jedis -> (Long) POPULATION_SCRIPT.eval(jedis, keys(), Collections.emptyList()))
+                    .intValue();
+        }
         return pool.safelyReturn(jedis -> jedis.bitcount(name)).intValue();
     }
 
+    /**
+     * 用BITCOUNT重新计数并覆盖计数key. 写入在中途失败时, 部分bit可能已被设置而计数没有增加, 之后调用此方法修正计数
+     *
+     * @return 被设置的bit数
+     */
+    public int recountPopulation() {
+        if (populationKey == null) {
+            return cardinality();
+        }
+        return pool.safelyReturn(jedis -> (Long) RECOUNT_SCRIPT.eval(jedis, keys(), Collections.emptyList()))
+                .intValue();
+    }
+
+    /**
+     * 用BITOP把源key合并到bit串中, 维护计数时在同一个脚本中重新计数
+     *
+     * @param op      BITOP的操作
+     * @param sources 同一redis上的源key, 可以包含bit串本身
+     */
+    public void bitop(BitOP op, List<String> sources) {
+        if (populationKey == null) {
+            pool.safelyDo(jedis -> jedis.bitop(op, name, sources.toArray(new String[0])));
+            return;
+        }
+        List<byte[]> keys = new ArrayList<>(keys());
+        sources.forEach(source -> keys.add(SafeEncoder.encode(source)));
+        pool.safelyDo(jedis -> BITOP_SCRIPT.eval(jedis, keys, Collections.singletonList(SafeEncoder.encode(op.name()))));
+    }
+
+    /**
+     * 在redis中用BITOP OR合并, 见{@link #combine(BitOP, Collection)}
+     *
+     * @param other 大小相同的bit数组
+     */
+    @Override
+    public void union(BitStore other) {
+        combine(BitOP.OR, Collections.singletonList(other));
+    }
+
+    /**
+     * 在redis中用BITOP AND求交集, 见{@link #combine(BitOP, Collection)}
+     *
+     * @param other 大小相同的bit数组
+     */
+    @Override
+    public void intersect(BitStore other) {
+        combine(BitOP.AND, Collections.singletonList(other));
+    }
+
+    /**
+     * 用一个BITOP把多个bit数组合并到此bit数组中. 同一redis上的RedisBitSet直接使用其key, 数据不离开redis,
+     * 其他bit数组先分段复制到临时key
+     *
+     * @param op     BITOP的操作
+     * @param others 大小相同的bit数组
+     */
+    public void combine(BitOP op, Collection<? extends BitStore> others) {
+        List<String> sources = new ArrayList<>(others.size() + 1);
+        List<String> temporary = new ArrayList<>();
+        sources.add(name);
+        try {
+            for (BitStore other : others) {
+                if (other instanceof RedisBitSet && sameNode(((RedisBitSet) other).pool)) {
+                    sources.add(((RedisBitSet) other).name);
+                } else {
+                    String key = name + ":merge:" + UUID.randomUUID();
+                    temporary.add(key);
+                    RedisBitSet copy = new RedisBitSet(pool, key, size);
+                    if (other instanceof RedisBitSet) {
+                        copy.copyFrom((RedisBitSet) other, DEFAULT_TRANSFER_CHUNK_BYTES);
+                    } else {
+                        copy.overwriteBitSet(other.asBitSet());
+                    }
+                    sources.add(key);
+                }
+            }
+            bitop(op, sources);
+        } finally {
+            if (!temporary.isEmpty()) {
+                pool.safelyDo(jedis -> jedis.del(temporary.toArray(new String[0])));
+            }
+        }
+    }
+
+    private boolean sameNode(RedisPool other) {
+        if (other == pool) {
+            return true;
+        }
+        return other.getHost().equals(pool.getHost()) && other.getPort() == pool.getPort()
+                && other.safelyReturn(Jedis::getDB).equals(pool.safelyReturn(Jedis::getDB));
+    }
+
+    /**
+     * @return 保存被设置的bit数的key, 不维护时为null
+     */
+    public String getPopulationKey() {
+        return populationKey;
+    }
+
+    private static long zeros(List<Long> previous) {
+        return previous.stream().filter(b -> b == 0).count();
+    }
+
+
+    /**
+     * 通过BITCOUNT判断redis中的bit数组是否为空, 需要一次往返. 旧版本继承了{@link BitSet#isEmpty()},
+     * 对redis中的bit数组总是返回true
+     *
+     * @return 是否没有设置任何bit
+     */
+    @Override
+    public boolean isEmpty() {
+        return cardinality() == 0;
+    }
 
     @Override
     public int size() {
@@ -100,16 +349,24 @@ public class RedisBitSet extends BitSet {
     }
 
 
+    /**
+     * 读取redis中的bit串, 格式见{@link #transferTo(OutputStream, int)}. 用GETRANGE分段读取, 不会用一次GET传输整个bit串
+     *
+     * @return bit串, key不存在时为全0
+     */
     @Override
     public byte[] toByteArray() {
-        return pool.allowingSlaves().safelyReturn(jedis -> {
-            byte[] bytes = jedis.get(SafeEncoder.encode(name));
-            if (bytes == null) {
-                //prevent null values
-                bytes = new byte[(int) Math.ceil(size / 8)];
-            }
-            return bytes;
-        });
+        ByteArrayOutputStream out = new ByteArrayOutputStream((size + 7) / 8);
+        try {
+            transferTo(out, DEFAULT_TRANSFER_CHUNK_BYTES);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (out.size() == 0) {
+            //prevent empty values
+            return new byte[(size + 7) / 8];
+        }
+        return out.toByteArray();
     }
 
     /**
@@ -118,9 +375,138 @@ public class RedisBitSet extends BitSet {
      * @return BitSet.
      */
     public BitSet asBitSet() {
-        return fromByteArrayReverse(toByteArray());
+        return asBitSet(DEFAULT_TRANSFER_CHUNK_BYTES, 1);
     }
 
+    /**
+     * 分段读取并转换成BitSet, 见{@link #toLongArray(int, int)}.
+     *
+     * @param chunkBytes  每段的字节数
+     * @param parallelism 并行读取的连接数
+     * @return BitSet.
+     */
+    public BitSet asBitSet(int chunkBytes, int parallelism) {
+        return BitSet.valueOf(toLongArray(chunkBytes, parallelism));
+    }
+
+    /**
+     * 用GETRANGE分段读取bit串, 每段直接转换到结果中, 不会缓存整个bit串. 每个连接同时发送多个GETRANGE.
+     * 各段不是同一时刻的快照, 读取期间的写入可能只有部分可见.
+     *
+     * @param chunkBytes  每段的字节数, 向下取整为8的倍数
+     * @param parallelism 并行读取的连接数
+     * @return 与{@link BitSet#toLongArray()}格式相同的字数组
+     */
+    public long[] toLongArray(int chunkBytes, int parallelism) {
+        int chunk = alignChunk(chunkBytes);
+        RedisPool reader = pool.allowingSlaves();
+        if (parallelism <= 1) {
+            return reader.safelyReturn(jedis -> readChunks(jedis, chunk));
+        }
+        long length = reader.safelyReturn(jedis -> jedis.strlen(binaryName));
+        long[] words = new long[(int) ((length + 7) / 8)];
+        int chunks = (int) ((length + chunk - 1) / chunk);
+        inParallel(parallelism, task -> reader.safelyDo(jedis -> {
+            for (int first = task * TRANSFER_WINDOW; first < chunks; first += parallelism * TRANSFER_WINDOW) {
+                List<byte[]> ranges = getRanges(jedis, first, Math.min(first + TRANSFER_WINDOW, chunks), chunk);
+                for (int i = 0; i < ranges.size(); i++) {
+                    int offset = (int) ((long) (first + i) * chunk / 8);
+                    byte[] range = ranges.get(i);
+                    //The string may have grown since STRLEN
+                    int valid = (int) Math.min(range.length, (long) (words.length - offset) * 8);
+                    fromByteArrayReverse(range, valid, words, offset);
+                }
+            }
+        }));
+        return words;
+    }
+
+    /**
+     * Reads the whole bit string on the given connection, e.g. to read it from the same node as related keys.
+     *
+     * @param jedis the connection
+     * @return the bits
+     */
+    BitSet asBitSet(Jedis jedis) {
+        return BitSet.valueOf(readChunks(jedis, DEFAULT_TRANSFER_CHUNK_BYTES));
+    }
+
+    /**
+     * Reads the given chunks of the bit string on the given connection with pipelined GETRANGEs.
+     *
+     * @param jedis      the connection
+     * @param chunks     the chunk indices
+     * @param chunkBytes the bytes per chunk
+     * @return the bytes of each chunk, shorter or empty at the end of the string
+     */
+    List<byte[]> getRanges(Jedis jedis, List<Integer> chunks, int chunkBytes) {
+        //The binary GETRANGE of Jedis' pipeline has a wrong reply type, so the commands are pipelined on the client
+        Client client = jedis.getClient();
+        for (int i : chunks) {
+            client.getrange(binaryName, (long) i * chunkBytes, (long) (i + 1) * chunkBytes - 1);
+        }
+        //Read all replies even after an error to keep the connection usable
+        List<byte[]> ranges = new ArrayList<>(chunks.size());
+        JedisDataException error = null;
+        for (int i = 0; i < chunks.size(); i++) {
+            try {
+                ranges.add(client.getBinaryBulkReply());
+            } catch (JedisDataException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        return ranges;
+    }
+
+    private long[] readChunks(Jedis jedis, int chunk) {
+        long[] words = new long[(size + 63) / 64];
+        for (int first = 0; ; first += TRANSFER_WINDOW) {
+            List<byte[]> ranges = getRanges(jedis, first, first + TRANSFER_WINDOW, chunk);
+            for (int i = 0; i < ranges.size(); i++) {
+                int offset = (int) ((long) (first + i) * chunk / 8);
+                byte[] range = ranges.get(i);
+                int needed = offset + (range.length + 7) / 8;
+                if (needed > words.length) {
+                    words = Arrays.copyOf(words, Math.max(needed, words.length * 2));
+                }
+                fromByteArrayReverse(range, range.length, words, offset);
+                if (range.length < chunk) {
+                    return words;
+                }
+            }
+        }
+    }
+
+    private List<byte[]> getRanges(Jedis jedis, int fromChunk, int toChunk, int chunk) {
+        return getRanges(jedis, IntStream.range(fromChunk, toChunk).boxed().collect(Collectors.toList()), chunk);
+    }
+
+    /**
+     * 用GETRANGE分段读取bit串并写入流中, 不会缓存整个bit串. 流的格式与redis相同: 第i位是第i/8个字节的第7-i%8位
+     *
+     * @param out        输出流
+     * @param chunkBytes 每段的字节数
+     * @return 写入的字节数
+     * @throws IOException 写入流失败
+     */
+    public long transferTo(OutputStream out, int chunkBytes) throws IOException {
+        int chunk = alignChunk(chunkBytes);
+        long written = 0;
+        try (Jedis jedis = pool.allowingSlaves().getResource()) {
+            for (int first = 0; ; first += TRANSFER_WINDOW) {
+                for (byte[] range : getRanges(jedis, first, first + TRANSFER_WINDOW, chunk)) {
+                    out.write(range);
+                    written += range.length;
+                    if (range.length < chunk) {
+                        return written;
+                    }
+                }
+            }
+        }
+    }
 
     /**
      * 用BitSet的内容覆盖RedisBitSet
@@ -128,7 +514,175 @@ public class RedisBitSet extends BitSet {
      * @param bits BitSet
      */
     public void overwriteBitSet(BitSet bits) {
-        pool.safelyDo(jedis -> jedis.set(SafeEncoder.encode(name), toByteArrayReverse(bits)));
+        overwriteBitSet(bits, DEFAULT_TRANSFER_CHUNK_BYTES, 1);
+    }
+
+    /**
+     * 用SETRANGE分段写入临时key, 然后RENAME为bit串的key, 每段从BitSet的字数组直接转换, 不会生成整个bit串.
+     * 其他客户端读不到写了一半的bit串, 但覆盖期间的写入会丢失.
+     *
+     * @param bits        BitSet
+     * @param chunkBytes  每段的字节数, 向下取整为8的倍数
+     * @param parallelism 并行写入的连接数
+     */
+    public void overwriteBitSet(BitSet bits, int chunkBytes, int parallelism) {
+        long[] words = bits.toLongArray();
+        long length = bits.length() / 8 + 1;
+        int chunk = alignChunk(chunkBytes);
+        int chunks = (int) ((length + chunk - 1) / chunk);
+        int connections = Math.max(1, parallelism);
+        upload((long) bits.cardinality(), temporary -> inParallel(connections, task -> pool.safelyDo(jedis -> {
+            Pipeline p = jedis.pipelined();
+            List<Response<Long>> responses = new ArrayList<>(TRANSFER_WINDOW);
+            for (int i = task; i < chunks; i += connections) {
+                long from = (long) i * chunk;
+                byte[] bytes = new byte[(int) Math.min(chunk, length - from)];
+                toByteArrayReverse(words, from, bytes, bytes.length);
+                responses.add(p.setrange(temporary, from, bytes));
+                if (responses.size() == TRANSFER_WINDOW) {
+                    sync(p, responses);
+                }
+            }
+            sync(p, responses);
+        })));
+    }
+
+    /**
+     * 用另一个RedisBitSet(可以在其他redis上)的内容覆盖RedisBitSet. 用GETRANGE分段读取并用SETRANGE写入临时key,
+     * 然后RENAME为bit串的key, 不会缓存整个bit串.
+     *
+     * @param source     源bitset
+     * @param chunkBytes 每段的字节数
+     */
+    public void copyFrom(RedisBitSet source, int chunkBytes) {
+        int chunk = alignChunk(chunkBytes);
+        upload(null, temporary -> source.pool.allowingSlaves().safelyDo(from -> pool.safelyDo(to -> {
+            Pipeline p = to.pipelined();
+            List<Response<Long>> responses = new ArrayList<>(TRANSFER_WINDOW);
+            for (int first = 0; ; first += TRANSFER_WINDOW) {
+                List<byte[]> ranges = source.getRanges(from, first, first + TRANSFER_WINDOW, chunk);
+                for (int i = 0; i < ranges.size(); i++) {
+                    byte[] range = ranges.get(i);
+                    if (range.length > 0) {
+                        responses.add(p.setrange(temporary, (long) (first + i) * chunk, range));
+                    }
+                    if (range.length < chunk) {
+                        sync(p, responses);
+                        return;
+                    }
+                }
+                sync(p, responses);
+            }
+        })));
+    }
+
+    /**
+     * 用流的内容覆盖RedisBitSet. 分段写入临时key, 然后RENAME为bit串的key, 不会缓存整个bit串.
+     * 流的格式与redis相同, 见{@link #transferTo(OutputStream, int)}.
+     *
+     * @param in         输入流
+     * @param chunkBytes 每段的字节数
+     * @return 读取的字节数
+     * @throws IOException 读取流失败
+     */
+    public long transferFrom(InputStream in, int chunkBytes) throws IOException {
+        int chunk = alignChunk(chunkBytes);
+        long[] read = {0};
+        IOException[] error = {null};
+        upload(null, temporary -> pool.safelyDo(jedis -> {
+            Pipeline p = jedis.pipelined();
+            List<Response<Long>> responses = new ArrayList<>(TRANSFER_WINDOW);
+            try {
+                byte[] bytes;
+                while ((bytes = readChunk(in, chunk)).length > 0) {
+                    responses.add(p.setrange(temporary, read[0], bytes));
+                    read[0] += bytes.length;
+                    if (responses.size() == TRANSFER_WINDOW) {
+                        sync(p, responses);
+                    }
+                }
+            } catch (IOException e) {
+                error[0] = e;
+            }
+            sync(p, responses);
+        }));
+        if (error[0] != null) {
+            throw error[0];
+        }
+        return read[0];
+    }
+
+    /**
+     * @param population the number of set bits if known, otherwise the uploaded key is counted before the rename
+     */
+    private void upload(Long population, Consumer<byte[]> writer) {
+        byte[] temporary = SafeEncoder.encode(name + ":upload:" + UUID.randomUUID());
+        try {
+            writer.accept(temporary);
+            pool.safelyDo(jedis -> {
+                boolean written = jedis.exists(temporary);
+                long count = population != null || populationKey == null || !written ? 0 : jedis.bitcount(temporary);
+                Transaction t = jedis.multi();
+                if (written) {
+                    t.rename(temporary, binaryName);
+                } else {
+                    t.del(binaryName);
+                }
+                if (populationKey != null) {
+                    t.set(populationKey, String.valueOf(population != null ? population : count));
+                }
+                t.exec();
+            });
+        } catch (RuntimeException e) {
+            pool.safelyDo(jedis -> jedis.del(temporary));
+            throw e;
+        }
+    }
+
+    private static byte[] readChunk(InputStream in, int chunk) throws IOException {
+        byte[] bytes = new byte[chunk];
+        int length = 0;
+        int n;
+        while (length < chunk && (n = in.read(bytes, length, chunk - length)) != -1) {
+            length += n;
+        }
+        return length == chunk ? bytes : Arrays.copyOf(bytes, length);
+    }
+
+    private static void sync(Pipeline p, List<Response<Long>> responses) {
+        p.sync();
+        responses.forEach(Response::get);
+        responses.clear();
+    }
+
+    private static int alignChunk(int chunkBytes) {
+        return Math.max(8, chunkBytes & ~7);
+    }
+
+    private static void inParallel(int parallelism, IntConsumer task) {
+        if (parallelism <= 1) {
+            task.accept(0);
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<?>> futures = IntStream.range(0, parallelism)
+                    .mapToObj(i -> executor.submit(() -> task.accept(i)))
+                    .collect(Collectors.toList());
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new JedisException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JedisException(e);
+        } finally {
+            executor.shutdownNow();
+        }
     }
 
     @Override
@@ -147,10 +701,65 @@ public class RedisBitSet extends BitSet {
      * @return 是否给定位置上的值为true
      */
     public boolean isAllSet(int... positions) {
+        if (mode == RedisCommandMode.BITFIELD) {
+            List<Long> results = bitfield(BITFIELD_GET, positions);
+            return results.stream().allMatch(b -> b == 1);
+        }
+        if (mode == RedisCommandMode.SCRIPT) {
+            return pool.allowingHedgedReads().safelyReturn(jedis ->
+                    (Long) IS_ALL_SET_SCRIPT.eval(jedis, keys(), args(positions, 0, positions.length)) == 1);
+        }
         Boolean[] results = getBulk(positions);
         return Stream.of(results).allMatch(b -> b);
     }
 
+    /**
+     * 批量检查, 每<i>k</i>个位置属于一个元素
+     *
+     * @param positions 所有元素的位置
+     * @param k         每个元素的位置个数
+     * @return 每个元素的位置是否都为true
+     */
+    public List<Boolean> isAllSetBatch(int[] positions, int k) {
+        List<Boolean> contains = new ArrayList<>(positions.length / k);
+        if (mode == RedisCommandMode.BITFIELD) {
+            List<Long> results = bitfieldBatch(BITFIELD_GET, positions, k);
+            for (int offset = 0; offset < positions.length; offset += k) {
+                boolean isPresent = true;
+                for (int i = offset; i < offset + k; i++) {
+                    if (results.get(i) == 0) {
+                        isPresent = false;
+                    }
+                }
+                contains.add(isPresent);
+            }
+            return contains;
+        }
+        if (mode == RedisCommandMode.SCRIPT) {
+            RedisPool readPool = pool.allowingSlaves();
+            List<Object> results = readPool.safelyReturn(jedis ->
+                    IS_ALL_SET_SCRIPT.evalAll(jedis, keys(), argsPerElement(positions, k)));
+            readPool.recordPipeline(results.size());
+            results.forEach(r -> contains.add((Long) r == 1));
+            return contains;
+        }
+        List<Boolean> results = pool.allowingSlaves().pipelinedDo(positions.length, pipelineChunkSize,
+                (p, i) -> p.getbit(name, positions[i]));
+
+        //For each value check, if all bits in ranges of #hashes bits are set
+        boolean isPresent = true;
+        int numProcessed = 0;
+        for (Boolean item : results) {
+            if (!item) isPresent = false;
+            if ((numProcessed + 1) % k == 0) {
+                contains.add(isPresent);
+                isPresent = true;
+            }
+            numProcessed++;
+        }
+        return contains;
+    }
+
     /**
      * 批量设置
      *
@@ -158,6 +767,13 @@ public class RedisBitSet extends BitSet {
      * @return 是否设置成功
      */
     public boolean setAll(int... positions) {
+        if (mode == RedisCommandMode.SCRIPT || populationKey != null) {
+            return pool.safelyReturn(jedis ->
+                    (Long) SET_ALL_SCRIPT.eval(jedis, keys(), args(positions, 0, positions.length)) == 1);
+        }
+        if (mode == RedisCommandMode.BITFIELD) {
+            return zeros(bitfield(BITFIELD_SET, positions)) > 0;
+        }
         List<Object> results = pool.transactionallyDo(p -> {
             for (int position : positions)
                 p.setbit(name, position, true);
@@ -165,27 +781,249 @@ public class RedisBitSet extends BitSet {
         return results.stream().anyMatch(b -> !(Boolean) b);
     }
 
-    //拷贝自: https://github.com/xetorthio/jedis/issues/301
+    /**
+     * 通过{@link RedisPipelineExecutor}执行{@link #setAll(int...)}的Lua脚本, bits和被设置的bit数原子地修改
+     *
+     * @param executor  执行器
+     * @param positions 给定位置
+     * @param from      第一个位置的下标
+     * @param to        最后一个位置之后的下标
+     * @return 是否有bit被修改
+     */
+    CompletableFuture<Boolean> setAllAsync(RedisPipelineExecutor executor, int[] positions, int from, int to) {
+        return SET_ALL_SCRIPT.evalAsync(executor, keys(), args(positions, from, to)).thenApply(r -> (Long) r == 1);
+    }
+
+    /**
+     * 批量设置, 每<i>k</i>个位置属于一个元素
+     *
+     * @param positions 所有元素的位置
+     * @param k         每个元素的位置个数
+     * @return 每个元素是否有bit被修改
+     */
+    public List<Boolean> setAllBatch(int[] positions, int k) {
+        List<Boolean> added = new ArrayList<>(positions.length / k);
+        if (mode == RedisCommandMode.SCRIPT || populationKey != null) {
+            List<Object> results = pool.safelyReturn(jedis ->
+                    SET_ALL_SCRIPT.evalAll(jedis, keys(), argsPerElement(positions, k)));
+            pool.recordPipeline(results.size());
+            results.forEach(r -> added.add((Long) r == 1));
+            return added;
+        }
+        if (mode == RedisCommandMode.BITFIELD) {
+            List<Long> results = bitfieldBatch(BITFIELD_SET, positions, k);
+            for (int offset = 0; offset < positions.length; offset += k) {
+                boolean wasAdded = false;
+                for (int i = offset; i < offset + k; i++) {
+                    if (results.get(i) == 0) {
+                        wasAdded = true;
+                    }
+                }
+                added.add(wasAdded);
+            }
+            return added;
+        }
+        List<Boolean> results = pool.transactionallyDo(p -> {
+            for (int position : positions) {
+                set(p, position, true);
+            }
+        });
+
+        //For each value check, if any bits were set to one
+        boolean wasAdded = false;
+        int numProcessed = 0;
+        for (Boolean item : results) {
+            if (!item) wasAdded = true;
+            if ((numProcessed + 1) % k == 0) {
+                added.add(wasAdded);
+                wasAdded = false;
+            }
+            numProcessed++;
+        }
+        return added;
+    }
+
+    /**
+     * 用管道发送的BITFIELD SET批量设置bit, 与读写bit的方式无关. 维护计数时改为管道发送的Lua脚本, 每个脚本同时INCRBY.
+     * 每个命令或脚本是原子的, 整个批次不是
+     *
+     * @param positions 给定位置
+     */
+    public void setBits(int[] positions) {
+        if (populationKey == null) {
+            bitfieldBatch(BITFIELD_SET, positions, 1);
+            return;
+        }
+        List<List<byte[]>> chunks = new ArrayList<>();
+        for (int from = 0; from < positions.length; from += BITFIELD_BATCH_POSITIONS) {
+            chunks.add(args(positions, from, Math.min(positions.length, from + BITFIELD_BATCH_POSITIONS)));
+        }
+        List<Object> results = pool.safelyReturn(jedis -> SET_ALL_SCRIPT.evalAll(jedis, keys(), chunks));
+        pool.recordPipeline(results.size());
+    }
+
+    /**
+     * @return 读写bit的方式
+     */
+    public RedisCommandMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Executes a single BITFIELD command. Jedis' non-pipelined binary BITFIELD declares the wrong reply type, so a
+     * pipeline with one command is used instead.
+     *
+     * @return the (previous) value of every position
+     */
+    private List<Long> bitfield(byte[] operation, int[] positions) {
+        return pool.safelyReturn(jedis -> {
+            Pipeline p = jedis.pipelined();
+            Response<List<Long>> response = p.bitfield(binaryName, bitfieldArgs(operation, positions, 0, positions.length));
+            p.sync();
+            return response.get();
+        });
+    }
+
+    /**
+     * Pipelines one BITFIELD command per chunk of whole elements. Each command is atomic, the batch as a whole is not.
+     *
+     * @return the (previous) value of every position
+     */
+    private List<Long> bitfieldBatch(byte[] operation, int[] positions, int k) {
+        int chunk = Math.max(1, BITFIELD_BATCH_POSITIONS / k) * k;
+        return pool.safelyReturn(jedis -> {
+            Pipeline p = jedis.pipelined();
+            List<Response<List<Long>>> responses = new ArrayList<>();
+            for (int from = 0; from < positions.length; from += chunk) {
+                int to = Math.min(positions.length, from + chunk);
+                responses.add(p.bitfield(binaryName, bitfieldArgs(operation, positions, from, to)));
+            }
+            p.sync();
+            pool.recordPipeline(responses.size());
+            List<Long> results = new ArrayList<>(positions.length);
+            responses.forEach(r -> results.addAll(r.get()));
+            return results;
+        });
+    }
+
+    private static byte[][] bitfieldArgs(byte[] operation, int[] positions, int from, int to) {
+        boolean set = operation == BITFIELD_SET;
+        byte[][] args = new byte[(to - from) * (set ? 4 : 3)][];
+        int i = 0;
+        for (int pos = from; pos < to; pos++) {
+            args[i++] = operation;
+            args[i++] = BITFIELD_U1;
+            args[i++] = Protocol.toByteArray(positions[pos]);
+            if (set) {
+                args[i++] = BITFIELD_ONE;
+            }
+        }
+        return args;
+    }
+
+    private List<byte[]> keys() {
+        if (populationKey != null) {
+            return Arrays.asList(binaryName, SafeEncoder.encode(populationKey));
+        }
+        return Collections.singletonList(binaryName);
+    }
+
+    private static List<byte[]> args(int[] positions, int from, int to) {
+        List<byte[]> args = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            args.add(Protocol.toByteArray(positions[i]));
+        }
+        return args;
+    }
+
+    private static List<List<byte[]>> argsPerElement(int[] positions, int k) {
+        List<List<byte[]>> args = new ArrayList<>(positions.length / k);
+        for (int offset = 0; offset < positions.length; offset += k) {
+            args.add(args(positions, offset, offset + k));
+        }
+        return args;
+    }
+
+    /**
+     * 将redis的bit串转换成BitSet. redis的第i位是第i/8个字节的第7-i%8位(高位在前), 按64位的字转换
+     *
+     * @param bytes redis的bit串
+     * @return BitSet
+     */
     public static BitSet fromByteArrayReverse(final byte[] bytes) {
-        final BitSet bits = new BitSet();
-        for (int i = 0; i < bytes.length * 8; i++) {
-            if ((bytes[i / 8] & (1 << (7 - (i % 8)))) != 0) {
-                bits.set(i);
+        long[] words = new long[(bytes.length + 7) / 8];
+        fromByteArrayReverse(bytes, bytes.length, words, 0);
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * 流式转换: 将redis的bit串的一段转换到字数组中. 除最后一段外, 每段的长度必须是8的倍数
+     *
+     * @param bytes      redis的bit串的一段
+     * @param length     有效的字节数
+     * @param words      目标字数组, 与{@link BitSet#toLongArray()}的格式相同
+     * @param wordOffset 该段的第一个字节对应的字的下标
+     */
+    public static void fromByteArrayReverse(final byte[] bytes, int length, long[] words, int wordOffset) {
+        int full = length & ~7;
+        for (int i = 0; i < full; i += 8) {
+            words[wordOffset + i / 8] = Long.reverse(getLong(bytes, i));
+        }
+        if (full < length) {
+            long word = 0;
+            for (int i = full; i < length; i++) {
+                word |= (bytes[i] & 0xFFL) << (56 - 8 * (i - full));
             }
+            words[wordOffset + full / 8] = Long.reverse(word);
         }
-        return bits;
     }
 
-    //拷贝自: https://github.com/xetorthio/jedis/issues/301
+    /**
+     * 将BitSet转换成redis的bit串, 长度为{@code bits.length() / 8 + 1}个字节
+     *
+     * @param bits BitSet
+     * @return redis的bit串
+     */
     public static byte[] toByteArrayReverse(final BitSet bits) {
         final byte[] bytes = new byte[bits.length() / 8 + 1];
-        for (int i = 0; i < bits.length(); i++) {
-            if (bits.get(i)) {
-                final int value = bytes[i / 8] | (1 << (7 - (i % 8)));
-                bytes[i / 8] = (byte) value;
+        toByteArrayReverse(bits.toLongArray(), 0, bytes, bytes.length);
+        return bytes;
+    }
+
+    /**
+     * 流式转换: 将字数组的一段转换成redis的bit串
+     *
+     * @param words    字数组, 与{@link BitSet#toLongArray()}的格式相同. 超出数组的字视为0
+     * @param fromByte 转换的第一个字节在整个bit串中的下标, 必须是8的倍数
+     * @param bytes    目标数组
+     * @param length   转换的字节数
+     */
+    public static void toByteArrayReverse(long[] words, long fromByte, byte[] bytes, int length) {
+        int firstWord = (int) (fromByte / 8);
+        for (int i = 0; i < length; i += 8) {
+            int word = firstWord + i / 8;
+            long reversed = word < words.length ? Long.reverse(words[word]) : 0L;
+            if (i + 8 <= length) {
+                putLong(bytes, i, reversed);
+            } else {
+                for (int j = i; j < length; j++) {
+                    bytes[j] = (byte) (reversed >>> (56 - 8 * (j - i)));
+                }
             }
         }
-        return bytes;
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFFL) << 56 | (bytes[offset + 1] & 0xFFL) << 48 | (bytes[offset + 2] & 0xFFL) << 40
+                | (bytes[offset + 3] & 0xFFL) << 32 | (bytes[offset + 4] & 0xFFL) << 24
+                | (bytes[offset + 5] & 0xFFL) << 16 | (bytes[offset + 6] & 0xFFL) << 8 | (bytes[offset + 7] & 0xFFL);
+    }
+
+    private static void putLong(byte[] bytes, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
     }
 
     @Override
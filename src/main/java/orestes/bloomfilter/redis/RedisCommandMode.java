@@ -0,0 +1,22 @@
+package orestes.bloomfilter.redis;
+
+/**
+ * redis存储的bf读写bit数组的方式. 所有方式使用相同的bit数组，可以混用.
+ * 维护元素计数的bit数组(例如{@link BloomFilterRedis})总是用Lua脚本写入, 以便在同一个脚本中更新计数, 方式只影响读操作
+ */
+public enum RedisCommandMode {
+    /**
+     * 写操作: 每个元素的<i>hashes</i>个SETBIT命令放在一个MULTI/EXEC事务中执行.
+     * 读操作: GETBIT命令不使用事务，通过管道分块发送给slave
+     */
+    TRANSACTIONAL,
+    /**
+     * 每个元素执行一次预加载的Lua脚本(EVALSHA)，脚本返回一个结果. hash在客户端计算，redis只执行bit操作
+     */
+    SCRIPT,
+    /**
+     * 每个元素一个BITFIELD命令读写全部<i>hashes</i>个bit，批量操作时多个元素共用一个BITFIELD命令. 不使用事务，
+     * 单个BITFIELD命令是原子的. 因为BITFIELD是写命令(redis 6.2之前没有BITFIELD_RO)，读操作不使用slave
+     */
+    BITFIELD
+}
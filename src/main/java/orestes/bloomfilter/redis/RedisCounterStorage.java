@@ -0,0 +1,16 @@
+package orestes.bloomfilter.redis;
+
+/**
+ * redis存储的可计数bf保存计数器的方式. 持久化在bf的配置中，所有客户端使用相同的方式
+ */
+public enum RedisCounterStorage {
+    /**
+     * 每个位置一个hash字段(HINCRBY). 计数器不会溢出，但每个计数器占用几十个字节
+     */
+    HASH,
+    /**
+     * 所有计数器紧凑地保存在一个字符串中，每个计数器<i>countingBits</i>(最多53)位，用BITFIELD OVERFLOW SAT读写.
+     * 每个元素的计数器和bit通过一个Lua脚本原子地修改. 计数器在最大值处饱和，并调用溢出处理器
+     */
+    BITFIELD
+}
@@ -0,0 +1,342 @@
+package orestes.bloomfilter.redis;
+
+import orestes.bloomfilter.FilterBuilder;
+import orestes.bloomfilter.redis.helper.RedisKeys;
+import orestes.bloomfilter.redis.helper.RedisPool;
+import orestes.bloomfilter.redis.helper.RedisScript;
+import orestes.bloomfilter.storage.CounterStore;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.SafeEncoder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * redis中的计数器. 每个元素的计数器和bits通过一个Lua脚本原子地修改, 批量操作的脚本通过管道分块发送.
+ * 计数器的存储方式见{@link RedisCounterStorage}
+ */
+public class RedisCounterStore implements CounterStore {
+    //KEYS: bits, counts. ARGV: counter type, positions. Returns the minimum and maximum of the incremented counters.
+    private static final RedisScript ADD_PACKED_SCRIPT = new RedisScript(packedScript(1));
+    //KEYS: bits, counts. ARGV: counter type, positions. Returns the minimum and maximum of the decremented counters.
+    private static final RedisScript REMOVE_PACKED_SCRIPT = new RedisScript(packedScript(-1));
+    //KEYS: bits, counts. ARGV: pairs of counter field and position. Returns the minimum and maximum of the counters.
+    private static final RedisScript ADD_HASH_SCRIPT = new RedisScript(hashScript(1));
+    private static final RedisScript REMOVE_HASH_SCRIPT = new RedisScript(hashScript(-1));
+    //Redis supports unsigned BITFIELD integers of up to 63 bits, but Lua numbers are only exact up to 2^53
+    private static final int MAX_PACKED_BITS = 53;
+    //Expiry of the migration lock, so that a crashed client does not block the filter forever
+    private static final long MIGRATION_LOCK_MILLIS = 60_000;
+    private static final long MIGRATION_POLL_MILLIS = 50;
+
+    private final RedisPool pool;
+    private final RedisKeys keys;
+    private final RedisBitSet bits;
+    private final RedisCounterStorage storage;
+    private final int pipelineChunkSize;
+    private final byte[] counterType;
+    private final long counterMax;
+    private volatile Runnable overflowHandler = () -> {
+    };
+
+    /**
+     * @param pool   连接池
+     * @param keys   bf的key
+     * @param bits   与计数器一起维护的bit数组
+     * @param config bf的配置, 决定计数器的存储方式和位数
+     */
+    public RedisCounterStore(RedisPool pool, RedisKeys keys, RedisBitSet bits, FilterBuilder config) {
+        this.pool = pool;
+        this.keys = keys;
+        this.bits = bits;
+        this.storage = config.redisCounterStorage();
+        this.pipelineChunkSize = config.redisPipelineChunkSize();
+        int counterBits = Math.min(config.countingBits(), MAX_PACKED_BITS);
+        this.counterType = SafeEncoder.encode("u" + counterBits);
+        this.counterMax = (1L << counterBits) - 1;
+    }
+
+    @Override
+    public RedisBitSet bits() {
+        return bits;
+    }
+
+    @Override
+    public long increment(int[] positions) {
+        return eval(addScript(), positions);
+    }
+
+    @Override
+    public long decrement(int[] positions) {
+        return eval(removeScript(), positions);
+    }
+
+    @Override
+    public List<Long> incrementBatch(int[] positions, int k) {
+        return evalBatch(addScript(), positions, k);
+    }
+
+    @Override
+    public List<Long> decrementBatch(int[] positions, int k) {
+        return evalBatch(removeScript(), positions, k);
+    }
+
+    private long eval(RedisScript script, int[] positions) {
+        List<byte[]> args = scriptArgs(positions);
+        return scriptResult(pool.safelyReturn(jedis -> script.eval(jedis, scriptKeys(), args)));
+    }
+
+    private List<Long> evalBatch(RedisScript script, int[] positions, int k) {
+        List<List<byte[]>> args = new ArrayList<>(positions.length / k);
+        for (int from = 0; from < positions.length; from += k) {
+            args.add(scriptArgs(Arrays.copyOfRange(positions, from, from + k)));
+        }
+        int chunk = Math.max(1, pipelineChunkSize / k);
+        return pool.safelyReturn(jedis -> {
+            List<Long> counts = new ArrayList<>(args.size());
+            for (int from = 0; from < args.size(); from += chunk) {
+                List<List<byte[]>> slice = args.subList(from, Math.min(args.size(), from + chunk));
+                script.evalAll(jedis, scriptKeys(), slice).forEach(result -> counts.add(scriptResult(result)));
+                pool.recordPipeline(slice.size());
+            }
+            return counts;
+        });
+    }
+
+    @Override
+    public long getCount(int[] positions) {
+        if (storage == RedisCounterStorage.BITFIELD) {
+            //BITFIELD is a write command before Redis 6.2, so counters are read from the master
+            return pool.safelyReturn(jedis -> {
+                Pipeline p = jedis.pipelined();
+                Response<List<Long>> counts = p.bitfield(SafeEncoder.encode(keys.COUNTS_KEY), packedGetArgs(positions));
+                p.sync();
+                return counts.get().stream().mapToLong(Long::longValue).min().orElse(0L);
+            });
+        }
+        return pool.allowingHedgedReads().safelyReturn(jedis -> {
+            List<String> hmget = jedis.hmget(keys.COUNTS_KEY, encode(positions));
+            return hmget.stream().mapToLong(i -> i == null ? 0L : Long.valueOf(i)).min().orElse(0L);
+        });
+    }
+
+    @Override
+    public void clear() {
+        pool.safelyDo(jedis -> {
+            jedis.del(keys.COUNTS_KEY, keys.BITS_KEY);
+        });
+    }
+
+    /**
+     * 设置计数器饱和时的处理器. 只有{@link RedisCounterStorage#BITFIELD}的计数器会饱和
+     *
+     * @param handler 处理器
+     */
+    @Override
+    public void setOverflowHandler(Runnable handler) {
+        this.overflowHandler = handler;
+    }
+
+    /**
+     * 迁移旧版本写入的计数器. 旧版本把4字节的字段名按UTF-8解码, 含有大于等于0x80的字节的位置因此使用不同的字段名,
+     * 而且可能与其他位置共用一个字段, 新版本读不到这些计数器. 对每个已设置的bit, 旧字段中的计数被加到新字段上, 之后删除旧字段.
+     * 共用旧字段的位置都得到该字段的全部计数, 所以计数可能偏大(对应的bit可能不会被清除), 但不会产生false negative.
+     * 迁移期间不能有旧版本的客户端写入. 重复执行没有影响. 加载旧版本的bf时会自动迁移, 见{@link #upgradeFormat(String)}. {@link RedisCounterStorage#BITFIELD}的计数器不需要迁移
+     *
+     * @return 迁移的计数器个数
+     */
+    public long migrateLegacyFields() {
+        if (storage == RedisCounterStorage.BITFIELD) {
+            return 0;
+        }
+        //Positions without bytes >= 0x80 have the same field name in both versions
+        int[] positions = bits.asBitSet().stream()
+                .filter(position -> !Arrays.equals(legacyField(position), field(position)))
+                .toArray();
+        byte[] countsKey = SafeEncoder.encode(keys.COUNTS_KEY);
+        Set<ByteBuffer> legacyFields = new HashSet<>();
+        long migrated = 0;
+        for (int from = 0; from < positions.length; from += pipelineChunkSize) {
+            int[] chunk = Arrays.copyOfRange(positions, from, Math.min(positions.length, from + pipelineChunkSize));
+            byte[][] fields = IntStream.of(chunk).mapToObj(RedisCounterStore::legacyField).toArray(byte[][]::new);
+            List<byte[]> counts = pool.safelyReturn(jedis -> jedis.hmget(countsKey, fields));
+            List<Integer> found = new ArrayList<>();
+            for (int i = 0; i < chunk.length; i++) {
+                if (counts.get(i) != null) {
+                    found.add(i);
+                    legacyFields.add(ByteBuffer.wrap(fields[i]));
+                }
+            }
+            pool.safelyDo(jedis -> {
+                Pipeline p = jedis.pipelined();
+                for (int i : found) {
+                    p.hincrBy(countsKey, field(chunk[i]), Long.parseLong(SafeEncoder.encode(counts.get(i))));
+                }
+                p.sync();
+            });
+            migrated += found.size();
+        }
+        List<byte[]> obsolete = legacyFields.stream().map(ByteBuffer::array).collect(Collectors.toList());
+        for (int from = 0; from < obsolete.size(); from += pipelineChunkSize) {
+            byte[][] fields = obsolete.subList(from, Math.min(obsolete.size(), from + pipelineChunkSize))
+                    .toArray(new byte[0][]);
+            pool.safelyDo(jedis -> jedis.hdel(countsKey, fields));
+        }
+        return migrated;
+    }
+
+    /**
+     * 把旧版本写入的计数器迁移到当前的字段名格式. 配置hash中记录了计数器格式的版本({@link RedisKeys#COUNTER_FORMAT_KEY}),
+     * 没有记录版本的是旧版本创建的bf: 获得迁移锁的客户端执行{@link #migrateLegacyFields()}后记录当前版本, 其他客户端等待迁移完成.
+     * 迁移完成之前不会读写计数器, 所以升级后的客户端不会因为读不到旧字段而清除其他元素的bits
+     *
+     * @param configKey bf的配置hash的key
+     */
+    public void upgradeFormat(String configKey) {
+        while (!RedisKeys.COUNTER_FORMAT.equals(pool.safelyReturn(jedis -> jedis.hget(configKey,
+                RedisKeys.COUNTER_FORMAT_KEY)))) {
+            String lock = pool.safelyReturn(jedis -> jedis.set(keys.MIGRATION_KEY, "1", "NX", "PX",
+                    MIGRATION_LOCK_MILLIS));
+            if (lock == null) {
+                try {
+                    Thread.sleep(MIGRATION_POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new JedisException(e);
+                }
+                continue;
+            }
+            try {
+                migrateLegacyFields();
+                pool.safelyDo(jedis -> jedis.hset(configKey, RedisKeys.COUNTER_FORMAT_KEY, RedisKeys.COUNTER_FORMAT));
+            } finally {
+                pool.safelyDo(jedis -> jedis.del(keys.MIGRATION_KEY));
+            }
+        }
+    }
+
+    /**
+     * @return 保存计数器的方式
+     */
+    public RedisCounterStorage getStorage() {
+        return storage;
+    }
+
+    List<byte[]> scriptKeys() {
+        return Arrays.asList(SafeEncoder.encode(keys.BITS_KEY), SafeEncoder.encode(keys.COUNTS_KEY));
+    }
+
+    RedisScript addScript() {
+        return storage == RedisCounterStorage.BITFIELD ? ADD_PACKED_SCRIPT : ADD_HASH_SCRIPT;
+    }
+
+    RedisScript removeScript() {
+        return storage == RedisCounterStorage.BITFIELD ? REMOVE_PACKED_SCRIPT : REMOVE_HASH_SCRIPT;
+    }
+
+    List<byte[]> scriptArgs(int[] positions) {
+        List<byte[]> args = new ArrayList<>(positions.length * 2);
+        if (storage == RedisCounterStorage.BITFIELD) {
+            args.add(counterType);
+            for (int position : positions) {
+                args.add(Protocol.toByteArray(position));
+            }
+        } else {
+            for (int position : positions) {
+                args.add(field(position));
+                args.add(Protocol.toByteArray(position));
+            }
+        }
+        return args;
+    }
+
+    byte[][] packedGetArgs(int[] positions) {
+        byte[][] args = new byte[positions.length * 3][];
+        for (int i = 0; i < positions.length; i++) {
+            args[3 * i] = SafeEncoder.encode("GET");
+            args[3 * i + 1] = counterType;
+            args[3 * i + 2] = SafeEncoder.encode("#" + positions[i]);
+        }
+        return args;
+    }
+
+    /**
+     * @param result the minimum and maximum counter returned by an add or remove script
+     * @return the minimum, after reporting saturated counters
+     */
+    long scriptResult(Object result) {
+        List<?> minMax = (List<?>) result;
+        if (storage == RedisCounterStorage.BITFIELD && (Long) minMax.get(1) >= counterMax) {
+            overflowHandler.run();
+        }
+        return (Long) minMax.get(0);
+    }
+
+    private static String hashScript(int increment) {
+        //Counters are clamped at 0, fields of zero counters are deleted
+        return "local min, max "
+                + "for i = 1, #ARGV, 2 do "
+                + (increment > 0
+                    ? "local count = redis.call('hincrby', KEYS[2], ARGV[i], 1) "
+                        + "redis.call('setbit', KEYS[1], ARGV[i + 1], 1) "
+                    : "local count = tonumber(redis.call('hget', KEYS[2], ARGV[i]) or 0) "
+                        + "if count > 0 then count = redis.call('hincrby', KEYS[2], ARGV[i], -1) end "
+                        + "if count <= 0 then count = 0 redis.call('hdel', KEYS[2], ARGV[i]) "
+                        + "redis.call('setbit', KEYS[1], ARGV[i + 1], 0) end ")
+                + "if min == nil or count < min then min = count end "
+                + "if max == nil or count > max then max = count end "
+                + "end "
+                + "return {min, max}";
+    }
+
+    private static String packedScript(int increment) {
+        return "local cmd = {'bitfield', KEYS[2], 'overflow', 'sat'} "
+                + "for i = 2, #ARGV do "
+                + "cmd[#cmd + 1] = 'incrby' cmd[#cmd + 1] = ARGV[1] cmd[#cmd + 1] = '#' .. ARGV[i] "
+                + "cmd[#cmd + 1] = " + increment + " "
+                + "end "
+                + "local counts = redis.call(unpack(cmd)) "
+                + "local min, max = counts[1], counts[1] "
+                + "for i = 1, #counts do "
+                + (increment > 0
+                    ? "redis.call('setbit', KEYS[1], ARGV[i + 1], 1) "
+                    : "if counts[i] == 0 then redis.call('setbit', KEYS[1], ARGV[i + 1], 0) end ")
+                + "min = math.min(min, counts[i]) max = math.max(max, counts[i]) "
+                + "end "
+                + "return {min, max}";
+    }
+
+    static String encode(int value) {
+        //ISO-8859-1 maps every byte to its own char, decoding as UTF-8 would map distinct positions to the same field
+        return new String(bytes(value), StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] field(int position) {
+        return SafeEncoder.encode(encode(position));
+    }
+
+    /**
+     * @return the field name of a counter as written by versions that decoded the position bytes as UTF-8
+     */
+    private static byte[] legacyField(int position) {
+        return SafeEncoder.encode(SafeEncoder.encode(bytes(position)));
+    }
+
+    private static byte[] bytes(int value) {
+        return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+
+    static String[] encode(int[] positions) {
+        return IntStream.of(positions).mapToObj(RedisCounterStore::encode).toArray(String[]::new);
+    }
+}
@@ -0,0 +1,51 @@
+package orestes.bloomfilter.redis;
+
+import orestes.bloomfilter.FilterBuilder;
+import orestes.bloomfilter.redis.helper.RedisKeys;
+import orestes.bloomfilter.redis.helper.RedisPool;
+import orestes.bloomfilter.storage.StorageBackend;
+
+/**
+ * redis存储后端. 使用与{@link BloomFilterRedis}, {@link CountingBloomFilterRedis}和
+ * {@link orestes.bloomfilter.expiring.ExpiringBloomFilterRedis}相同的key, 但不持久化bf的配置
+ */
+public class RedisStorage implements StorageBackend {
+    private final RedisPool pool;
+
+    /**
+     * @param pool 连接池
+     */
+    public RedisStorage(RedisPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public RedisBitSet bits(FilterBuilder config) {
+        RedisKeys keys = new RedisKeys(config.name());
+        RedisBitSet bits = new RedisBitSet(pool, keys.BITS_KEY, config.size(), config.redisCommandMode(),
+                config.redisPipelineChunkSize(), keys.POPULATION_KEY);
+        //Counts the bits of existing filters before any write increments the population counter
+        bits.cardinality();
+        return bits;
+    }
+
+    @Override
+    public RedisCounterStore counters(FilterBuilder config) {
+        RedisKeys keys = new RedisKeys(config.name());
+        RedisBitSet bits = new RedisBitSet(pool, keys.BITS_KEY, config.size(), config.redisCommandMode(),
+                config.redisPipelineChunkSize());
+        return new RedisCounterStore(pool, keys, bits, config);
+    }
+
+    @Override
+    public RedisTtlStore ttls(FilterBuilder config) {
+        return new RedisTtlStore(pool, new RedisKeys(config.name()).TTL_KEY);
+    }
+
+    /**
+     * @return 连接池
+     */
+    public RedisPool getRedisPool() {
+        return pool;
+    }
+}
@@ -0,0 +1,83 @@
+package orestes.bloomfilter.redis;
+
+import orestes.bloomfilter.redis.helper.RedisPool;
+import orestes.bloomfilter.redis.helper.RedisScript;
+import orestes.bloomfilter.storage.TtlStore;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.util.SafeEncoder;
+
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * redis中的过期时间. 每个key保存过期时间戳, 并用PSETEX让redis删除过期的key. 时间戳由连接池的时钟计算
+ */
+public class RedisTtlStore implements TtlStore {
+    //KEYS: ttl key. ARGV: expiration timestamp, ttl. Only ever moves the expiration to a later point.
+    private static final RedisScript EXTEND_SCRIPT = new RedisScript("local current = redis.call('get', KEYS[1]); "
+            + "if current == false or tonumber(ARGV[1]) > tonumber(current) then "
+            + "redis.call('psetex', KEYS[1], ARGV[2], ARGV[1]) end");
+
+    private final RedisPool pool;
+    private final String prefix;
+    private final Clock clock;
+
+    /**
+     * @param pool   连接池
+     * @param prefix 所有key的前缀
+     */
+    public RedisTtlStore(RedisPool pool, String prefix) {
+        this.pool = pool;
+        this.prefix = prefix;
+        this.clock = pool.getClock();
+    }
+
+    @Override
+    public void extend(String key, long ttlMillis) {
+        long expiration = clock.millis() + ttlMillis;
+        List<byte[]> keys = Collections.singletonList(SafeEncoder.encode(prefix + key));
+        List<byte[]> args = Arrays.asList(Protocol.toByteArray(expiration), Protocol.toByteArray(ttlMillis));
+        pool.safelyDo(jedis -> {
+            EXTEND_SCRIPT.eval(jedis, keys, args);
+        });
+    }
+
+    @Override
+    public Long getRemainingMillis(String key) {
+        return remaining(pool.safelyReturn(jedis -> jedis.get(prefix + key)));
+    }
+
+    @Override
+    public List<Long> getRemainingMillis(List<String> keys) {
+        //Mget limitation: will be stored in Redis memory before being send, i.e. only scales to hundreds of thousands elements
+        String[] prefixed = keys.stream().map(key -> prefix + key).toArray(String[]::new);
+        List<String> timestamps = pool.safelyReturn(jedis -> jedis.mget(prefixed));
+        return timestamps.stream().map(this::remaining).collect(Collectors.toList());
+    }
+
+    private Long remaining(String timestamp) {
+        return timestamp != null ? Long.valueOf(timestamp) - clock.millis() : null;
+    }
+
+    @Override
+    public void clear() {
+        pool.safelyDo(jedis -> {
+            ScanParams params = new ScanParams().match(prefix + "*").count(500);
+            String cursor = ScanParams.SCAN_POINTER_START;
+            do {
+                ScanResult<String> scanResult = jedis.scan(cursor, params);
+                cursor = scanResult.getStringCursor();
+
+                List<String> result = scanResult.getResult();
+                if (!result.isEmpty()) {
+                    jedis.del(result.toArray(new String[result.size()]));
+                }
+            } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+        });
+    }
+}
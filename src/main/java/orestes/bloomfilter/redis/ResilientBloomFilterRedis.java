@@ -0,0 +1,510 @@
+package orestes.bloomfilter.redis;
+
+import orestes.bloomfilter.BloomFilter;
+import orestes.bloomfilter.FilterBuilder;
+import orestes.bloomfilter.memory.BloomFilterMemory;
+import orestes.bloomfilter.redis.helper.CircuitBreaker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * 在{@link BloomFilterRedis}前加一个熔断器, redis变慢或不可用时降级而不是阻塞调用线程.
+ * <p>
+ * 每个add和contains最多等待<i>latencyBudget</i>, 超时或连接失败记为一次失败, 连续失败后{@link CircuitBreaker}打开,
+ * 之后的请求不再访问redis, 直到一次试探请求成功. 有延迟预算时请求在最多<i>redisConnections</i>个线程中执行,
+ * 超时的请求被取消, 所有线程都忙时请求被拒绝并记为失败, 而不是排队:
+ * <ul>
+ * <li>读: {@link Fallback#SNAPSHOT}用最近一次下载的本地副本({@link BloomFilterRedis#toMemoryFilter()})回答,
+ * 副本还没有下载成功或使用{@link Fallback#MAYBE_PRESENT}时悲观地返回"可能存在"(true). 副本可能错过其他客户端在下载之后的写入</li>
+ * <li>写: 在本地副本中设置bit并排队, 熔断器关闭后在后台通过被包装的bf重放到redis.
+ * bf的add是幂等的, 所以超时但实际已执行的写入被重放也没有问题.
+ * 排队的写入超过<i>maxPendingWrites</i>时add抛出{@link IllegalStateException}</li>
+ * </ul>
+ * 熔断器关闭时, 副本每隔<i>snapshotInterval</i>在后台重新下载, 本客户端的写入同时写入副本.
+ * clear, union, intersect, getBitSet等其他操作直接访问redis.
+ *
+ * @param <T> 元素类型
+ */
+public class ResilientBloomFilterRedis<T> implements BloomFilter<T>, AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(ResilientBloomFilterRedis.class);
+    public static final int DEFAULT_MAX_PENDING_WRITES = 100_000;
+    //Number of queued writes sent to Redis in one batch
+    private static final int REPLAY_BATCH = 1_000;
+
+    /**
+     * 熔断器打开时读请求的回答方式
+     */
+    public enum Fallback {
+        /**
+         * 用本地副本回答, 没有副本时返回true
+         */
+        SNAPSHOT,
+        /**
+         * 总是返回true(可能存在)
+         */
+        MAYBE_PRESENT
+    }
+
+    private final BloomFilterRedis<T> filter;
+    private final CircuitBreaker breaker;
+    private final long budgetNanos;
+    private final Fallback fallback;
+    private final int maxPendingWrites;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService refresher;
+    private final Queue<byte[]> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingSize = new AtomicInteger();
+    private final AtomicBoolean replaying = new AtomicBoolean();
+    private final LongAdder fallbackReads = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder rejectedCalls = new LongAdder();
+    private final LongAdder replayedWrites = new LongAdder();
+    private volatile BloomFilterMemory<T> snapshot;
+    //Guards writes to the snapshot, the journal and the generation
+    private final Object snapshotLock = new Object();
+    //Elements written locally while a snapshot is downloaded, null otherwise
+    private List<byte[]> journal;
+    //Incremented by clear(), a snapshot downloaded before is discarded
+    private long generation;
+
+    /**
+     * 连续5次失败后熔断1秒, 每10秒下载一次副本
+     *
+     * @param filter        redis bf
+     * @param latencyBudget 每个请求的最长等待时间, 为0时只根据连接失败熔断
+     */
+    public ResilientBloomFilterRedis(BloomFilterRedis<T> filter, Duration latencyBudget) {
+        this(filter, latencyBudget, new CircuitBreaker(5, Duration.ofSeconds(1)), Duration.ofSeconds(10),
+                Fallback.SNAPSHOT, DEFAULT_MAX_PENDING_WRITES);
+    }
+
+    /**
+     * @param filter           redis bf
+     * @param latencyBudget    每个请求的最长等待时间, 为0时只根据连接失败熔断
+     * @param breaker          熔断器
+     * @param snapshotInterval 下载本地副本的间隔, 只在{@link Fallback#SNAPSHOT}时下载
+     * @param fallback         熔断时读请求的回答方式
+     * @param maxPendingWrites 最多排队的写入个数
+     */
+    public ResilientBloomFilterRedis(BloomFilterRedis<T> filter, Duration latencyBudget, CircuitBreaker breaker,
+                                     Duration snapshotInterval, Fallback fallback, int maxPendingWrites) {
+        this.filter = filter;
+        this.breaker = breaker;
+        this.budgetNanos = latencyBudget.toNanos();
+        this.fallback = fallback;
+        this.maxPendingWrites = maxPendingWrites;
+        String name = filter.config().name();
+        //More concurrent calls than connections would only wait for a connection
+        this.executor = new ThreadPoolExecutor(0, filter.config().redisConnections(), 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), r -> {
+            Thread thread = new Thread(r, "resilient-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "resilient-snapshot-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (fallback == Fallback.SNAPSHOT) {
+            long interval = snapshotInterval.toNanos();
+            refresher.scheduleWithFixedDelay(() -> {
+                try {
+                    if (breaker.getState() == CircuitBreaker.State.CLOSED) {
+                        refreshSnapshot();
+                    }
+                } catch (RuntimeException e) {
+                    LOG.warn("Downloading the snapshot of {} failed", name, e);
+                }
+            }, 0, interval, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public boolean addRaw(byte[] element) {
+        return call(() -> {
+            boolean added = filter.addRaw(element);
+            addLocally(Collections.singletonList(element));
+            return added;
+        }, () -> {
+            enqueue(element);
+            return addLocally(Collections.singletonList(element)).get(0);
+        });
+    }
+
+    @Override
+    public List<Boolean> addAll(Collection<T> elements) {
+        List<byte[]> raw = elements.stream().map(this::toBytes).collect(Collectors.toList());
+        return call(() -> {
+            List<Boolean> added = filter.addAll(elements);
+            addLocally(raw);
+            return added;
+        }, () -> {
+            raw.forEach(this::enqueue);
+            return addLocally(raw);
+        });
+    }
+
+    /**
+     * Adds elements to the snapshot after they were written to Redis or queued. A snapshot that is downloaded
+     * concurrently may miss them, so they are also journaled and added to it before it is published.
+     *
+     * @return whether each element changed the snapshot, true without a snapshot
+     */
+    private List<Boolean> addLocally(List<byte[]> elements) {
+        List<Boolean> added = new ArrayList<>(elements.size());
+        synchronized (snapshotLock) {
+            BloomFilterMemory<T> local = snapshot;
+            for (byte[] element : elements) {
+                if (journal != null) {
+                    journal.add(element);
+                }
+                added.add(local == null || local.addRaw(element));
+            }
+        }
+        return added;
+    }
+
+    @Override
+    public boolean contains(byte[] element) {
+        return call(() -> filter.contains(element), () -> {
+            fallbackReads.increment();
+            BloomFilterMemory<T> local = fallback == Fallback.SNAPSHOT ? snapshot : null;
+            return local == null || local.contains(element);
+        });
+    }
+
+    @Override
+    public List<Boolean> contains(Collection<T> elements) {
+        return call(() -> filter.contains(elements), () -> {
+            fallbackReads.add(elements.size());
+            BloomFilterMemory<T> local = fallback == Fallback.SNAPSHOT ? snapshot : null;
+            if (local == null) {
+                return elements.stream().map(e -> true).collect(Collectors.toList());
+            }
+            return local.contains(elements);
+        });
+    }
+
+    /**
+     * Runs the Redis call within the latency budget if the breaker allows it, otherwise or on failure the fallback.
+     * Only connection failures, timeouts and rejections count as failures, other exceptions mean that Redis answered.
+     */
+    private <R> R call(Callable<R> redis, Supplier<R> degraded) {
+        if (!breaker.allowRequest()) {
+            return degraded.get();
+        }
+        R result;
+        try {
+            result = budgetNanos > 0 ? withinBudget(redis) : redis.call();
+        } catch (TimeoutException | RejectedExecutionException e) {
+            breaker.recordFailure();
+            return degraded.get();
+        } catch (ExecutionException e) {
+            return failed(e.getCause(), degraded);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            breaker.recordFailure();
+            return degraded.get();
+        } catch (Exception e) {
+            return failed(e, degraded);
+        }
+        breaker.recordSuccess();
+        if (pendingSize.get() > 0) {
+            replayAsync();
+        }
+        return result;
+    }
+
+    /**
+     * Runs the call on the bounded executor. A call that exceeds the budget is cancelled: this interrupts a thread that
+     * waits for a pooled connection, a blocked socket read ends with the socket timeout. While all threads are busy,
+     * e.g. with such reads, new calls are rejected instead of queued.
+     */
+    private <R> R withinBudget(Callable<R> redis) throws Exception {
+        Future<R> future;
+        try {
+            future = executor.submit(redis);
+        } catch (RejectedExecutionException e) {
+            rejectedCalls.increment();
+            throw e;
+        }
+        try {
+            return future.get(budgetNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            future.cancel(true);
+            throw e;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        }
+    }
+
+    private <R> R failed(Throwable cause, Supplier<R> degraded) {
+        if (cause instanceof JedisConnectionException) {
+            breaker.recordFailure();
+            return degraded.get();
+        }
+        breaker.recordSuccess();
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new IllegalStateException(cause);
+    }
+
+    private void enqueue(byte[] element) {
+        if (pendingSize.incrementAndGet() > maxPendingWrites) {
+            pendingSize.decrementAndGet();
+            throw new IllegalStateException("Redis is unavailable and " + maxPendingWrites
+                    + " writes to " + filter.config().name() + " are already pending");
+        }
+        //Queued writes are added again to a refreshed snapshot by refreshSnapshot()
+        pending.offer(element);
+    }
+
+    private void replayAsync() {
+        if (replaying.compareAndSet(false, true)) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        replay();
+                    } finally {
+                        replaying.set(false);
+                    }
+                });
+            } catch (RuntimeException e) {
+                //The executor was shut down
+                replaying.set(false);
+            }
+        }
+    }
+
+    /**
+     * 把排队的写入分批通过被包装的bf的{@link BloomFilterRedis#addRaw(byte[])}重放, 所以子类(例如write-behind或near cache)
+     * 的逻辑不会被绕过. 失败时剩余的写入继续排队
+     *
+     * @return 是否所有写入都已发送
+     */
+    public boolean replay() {
+        while (true) {
+            List<byte[]> batch = new ArrayList<>(REPLAY_BATCH);
+            byte[] element;
+            while (batch.size() < REPLAY_BATCH && (element = pending.poll()) != null) {
+                batch.add(element);
+            }
+            if (batch.isEmpty()) {
+                return pendingSize.get() == 0;
+            }
+            //Asked only with a non-empty batch, so that a probe handed out by the breaker always gets an outcome
+            if (!breaker.allowRequest()) {
+                pending.addAll(batch);
+                return false;
+            }
+            int replayed = 0;
+            try {
+                for (byte[] write : batch) {
+                    filter.addRaw(write);
+                    replayed++;
+                }
+            } catch (RuntimeException e) {
+                pending.addAll(batch.subList(replayed, batch.size()));
+                pendingSize.addAndGet(-replayed);
+                replayedWrites.add(replayed);
+                breaker.recordFailure();
+                LOG.warn("Replaying {} pending writes to {} failed", pendingSize.get(), filter.config().name(), e);
+                return false;
+            }
+            pendingSize.addAndGet(-batch.size());
+            replayedWrites.add(batch.size());
+            breaker.recordSuccess();
+        }
+    }
+
+    /**
+     * 从redis下载本地副本. 尚未重放的写入和下载期间本客户端的写入在发布之前被加入新的副本,
+     * 下载期间调用了{@link #clear()}时丢弃新的副本
+     */
+    public synchronized void refreshSnapshot() {
+        List<byte[]> queued;
+        long started;
+        synchronized (snapshotLock) {
+            //Writes queued later are journaled, writes replayed during the download are still in this copy
+            queued = new ArrayList<>(pending);
+            journal = new ArrayList<>();
+            started = generation;
+        }
+        BloomFilterMemory<T> fresh = null;
+        try {
+            fresh = filter.toMemoryFilter();
+        } finally {
+            synchronized (snapshotLock) {
+                if (fresh != null && generation == started) {
+                    queued.forEach(fresh::addRaw);
+                    journal.forEach(fresh::addRaw);
+                    snapshot = fresh;
+                }
+                journal = null;
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        filter.clear();
+        pending.clear();
+        pendingSize.set(0);
+        synchronized (snapshotLock) {
+            generation++;
+            BloomFilterMemory<T> local = snapshot;
+            if (local != null) {
+                local.clear();
+            }
+            if (journal != null) {
+                journal.clear();
+            }
+        }
+    }
+
+    @Override
+    public BitSet getBitSet() {
+        return filter.getBitSet();
+    }
+
+    @Override
+    public FilterBuilder config() {
+        return filter.config();
+    }
+
+    /**
+     * @return 没有熔断器的redis bf
+     */
+    @Override
+    public BloomFilter<T> clone() {
+        return filter.clone();
+    }
+
+    @Override
+    public boolean union(BloomFilter<T> other) {
+        return filter.union(other);
+    }
+
+    @Override
+    public boolean intersect(BloomFilter<T> other) {
+        return filter.intersect(other);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return filter.isEmpty();
+    }
+
+    @Override
+    public Double getEstimatedPopulation() {
+        return filter.getEstimatedPopulation();
+    }
+
+    /**
+     * 停止后台线程. 熔断器关闭时先重放排队的写入
+     */
+    @Override
+    public void close() {
+        refresher.shutdownNow();
+        if (pendingSize.get() > 0) {
+            replay();
+        }
+        executor.shutdown();
+    }
+
+    @Override
+    public void remove() {
+        refresher.shutdownNow();
+        executor.shutdownNow();
+        filter.remove();
+    }
+
+    /**
+     * @return 被包装的redis bf
+     */
+    public BloomFilterRedis<T> getFilter() {
+        return filter;
+    }
+
+    /**
+     * @return 熔断器, 提供状态和失败次数
+     */
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    /**
+     * @return 没有访问redis而用本地副本或悲观地回答的读请求个数
+     */
+    public long getFallbackReads() {
+        return fallbackReads.sum();
+    }
+
+    /**
+     * @return 超过延迟预算的请求个数
+     */
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * @return 因为所有线程都忙而被拒绝的请求个数
+     */
+    public long getRejectedCalls() {
+        return rejectedCalls.sum();
+    }
+
+    /**
+     * @return 排队等待重放的写入个数
+     */
+    public int getPendingWrites() {
+        return pendingSize.get();
+    }
+
+    /**
+     * @return 已重放到redis的写入个数
+     */
+    public long getReplayedWrites() {
+        return replayedWrites.sum();
+    }
+
+    /**
+     * @return 是否有本地副本
+     */
+    public boolean hasSnapshot() {
+        return snapshot != null;
+    }
+}
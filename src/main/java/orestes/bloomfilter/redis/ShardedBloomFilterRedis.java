@@ -0,0 +1,65 @@
+package orestes.bloomfilter.redis;
+
+import orestes.bloomfilter.BloomFilter;
+import orestes.bloomfilter.FilterBuilder;
+import orestes.bloomfilter.ShardedBloomFilter;
+import orestes.bloomfilter.memory.BloomFilterMemory;
+import orestes.bloomfilter.redis.helper.RedisPool;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分布在多个独立redis实例上的bf, 每个实例保存一个{@link BloomFilterRedis}子bf. 适用于没有redis cluster的环境.
+ * 一致性hash环由实例的地址构成，批量操作并行地向每个实例发送一个管道.
+ *
+ * @param <T> 元素类型
+ */
+public class ShardedBloomFilterRedis<T> extends ShardedBloomFilter<T> {
+    private static final long serialVersionUID = -8529140317406419375L;
+
+    /**
+     * 打开或创建bf
+     *
+     * @param builder 整个bf的配置
+     * @param pools   每个redis实例的连接池
+     */
+    public ShardedBloomFilterRedis(FilterBuilder builder, List<RedisPool> pools) {
+        super(builder, shardIds(pools), createShards(builder, pools), true);
+    }
+
+    private static List<String> shardIds(List<RedisPool> pools) {
+        List<String> ids = new ArrayList<>(pools.size());
+        for (RedisPool pool : pools) {
+            String address = pool.getHost() + ":" + pool.getPort();
+            //Pools for different databases of the same instance
+            String id = address;
+            for (int i = 1; ids.contains(id); i++) {
+                id = address + "#" + i;
+            }
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    private static <T> List<BloomFilterRedis<T>> createShards(FilterBuilder builder, List<RedisPool> pools) {
+        List<BloomFilterRedis<T>> shards = new ArrayList<>(pools.size());
+        for (RedisPool pool : pools) {
+            shards.add(new BloomFilterRedis<>(shardConfig(builder, pools.size()).pool(pool)));
+        }
+        return shards;
+    }
+
+    /**
+     * 把所有子bf复制到内存中, 返回的bf与本bf使用相同的一致性hash环
+     *
+     * @return 内存中的bf
+     */
+    public ShardedBloomFilter<T> toMemoryFilter() {
+        List<BloomFilterMemory<T>> memoryShards = new ArrayList<>();
+        for (BloomFilter<T> shard : getShards()) {
+            memoryShards.add(((BloomFilterRedis<T>) shard).toMemoryFilter());
+        }
+        return new ShardedBloomFilter<>(config().clone(), getShardIds(), memoryShards, false);
+    }
+}
@@ -0,0 +1,304 @@
+package orestes.bloomfilter.redis;
+
+import orestes.bloomfilter.FilterBuilder;
+import orestes.bloomfilter.memory.BloomFilterMemory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 延迟写入(write-behind)的redis bf. add只在本地的增量{@link BloomFilterMemory}中设置bit并立即返回,
+ * 后台线程每隔<i>flushInterval</i>把增量写入redis: 增量稀疏时用管道发送的BITFIELD SET, 稠密时先上传到临时key再用BITOP OR合并.
+ * <p>
+ * 语义:
+ * <ul>
+ * <li>contains同时检查本地尚未写入的增量和redis, 所以本客户端add过的元素总能被找到. 其他客户端在下一次flush之后才能看到</li>
+ * <li>add的返回值只表示增量是否被修改, 不访问redis</li>
+ * <li>写入失败时增量被合并回本地, 下一次flush重试, redis中的元素计数被重新计算. 后台flush的失败只记录日志,
+ * {@link #flush()}和{@link #close()}抛出异常</li>
+ * <li>{@link #close()}停止后台线程并写入剩余的增量, 之后add抛出{@link IllegalStateException}.
+ * 如果最后的写入失败, 增量保留在本地, 可以再次调用{@link #flush()}</li>
+ * <li>{@link #getBitSet()}包含本地增量, 其他读操作(例如估计元素个数)只看到已写入redis的bit</li>
+ * </ul>
+ *
+ * @param <T> 元素类型
+ */
+public class WriteBehindBloomFilterRedis<T> extends BloomFilterRedis<T> implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindBloomFilterRedis.class);
+    //A delta with more set bits than size / DENSE_RATIO is uploaded as a whole and merged with BITOP OR
+    private static final int DENSE_RATIO = 128;
+
+    //Writers share the read lock, swapping the delta takes the write lock
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    //Serializes flushes and clear()
+    private final Object flushLock = new Object();
+    private final ScheduledExecutorService flusher;
+    private Delta<T> pending;
+    //The delta that is being written, still visible to contains
+    private volatile Delta<T> flushing;
+    private Delta<T> spare;
+    private volatile boolean closed = false;
+
+    /**
+     * @param builder       bf的配置
+     * @param flushInterval 后台写入增量的间隔, 即其他客户端看到的最大延迟, 必须为正
+     * @throws IllegalArgumentException 间隔不为正时
+     */
+    public WriteBehindBloomFilterRedis(FilterBuilder builder, Duration flushInterval) {
+        //Validated before the super constructor persists the config
+        super(checkInterval(builder, flushInterval));
+        this.pending = new Delta<>(config().clone());
+        this.spare = new Delta<>(config().clone());
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "write-behind-" + config().name());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = flushInterval.toNanos();
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                LOG.warn("Flushing the pending bits of {} failed, retrying in the next interval", config().name(), e);
+            }
+        }, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    private static FilterBuilder checkInterval(FilterBuilder builder, Duration flushInterval) {
+        if (flushInterval.isNegative() || flushInterval.isZero()) {
+            throw new IllegalArgumentException("The flush interval must be positive, got " + flushInterval);
+        }
+        return builder;
+    }
+
+    @Override
+    public boolean addRaw(byte[] element) {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            return pending.addRaw(element);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Boolean> addAll(Collection<T> elements) {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            return pending.addAll(elements);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The write-behind filter " + config().name() + " is closed");
+        }
+    }
+
+    @Override
+    public boolean contains(byte[] element) {
+        int[] positions = unresolved(hash(element));
+        return positions.length == 0 || getRedisBitSet().isAllSet(positions);
+    }
+
+    @Override
+    public List<Boolean> contains(Collection<T> elements) {
+        int k = config().hashes();
+        int[] positions = hashAll(elements);
+        List<Boolean> contains = new ArrayList<>(Collections.nCopies(elements.size(), true));
+        //Only the elements with bits that are not set locally are looked up, each with k positions
+        List<Integer> lookups = new ArrayList<>();
+        int[] remote = new int[positions.length];
+        int count = 0;
+        for (int element = 0; element < elements.size(); element++) {
+            int[] missing = unresolved(Arrays.copyOfRange(positions, element * k, element * k + k));
+            if (missing.length > 0) {
+                for (int i = 0; i < k; i++) {
+                    //Locally set positions are replaced by a position that has to be checked anyway
+                    remote[count++] = missing[i % missing.length];
+                }
+                lookups.add(element);
+            }
+        }
+        if (!lookups.isEmpty()) {
+            List<Boolean> results = getRedisBitSet().isAllSetBatch(Arrays.copyOf(remote, count), k);
+            for (int i = 0; i < lookups.size(); i++) {
+                contains.set(lookups.get(i), results.get(i));
+            }
+        }
+        return contains;
+    }
+
+    /**
+     * @return the positions that are neither set in the pending nor in the flushing delta
+     */
+    private int[] unresolved(int[] positions) {
+        Delta<T> current;
+        lock.readLock().lock();
+        try {
+            current = pending;
+        } finally {
+            lock.readLock().unlock();
+        }
+        Delta<T> inFlight = flushing;
+        return Arrays.stream(positions)
+                .filter(position -> !current.get(position) && (inFlight == null || !inFlight.get(position)))
+                .toArray();
+    }
+
+    /**
+     * 把本地增量写入redis. 失败时增量被合并回本地并抛出异常
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            Delta<T> delta;
+            lock.writeLock().lock();
+            try {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                delta = pending;
+                flushing = delta;
+                pending = spare;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            try {
+                push(delta);
+                //The bits are in redis now, so readers that still hold the delta do not miss them
+                flushing = null;
+                delta.clear();
+                spare = delta;
+            } catch (RuntimeException e) {
+                //Merge back before the delta stops being visible to contains
+                pending.union(delta);
+                flushing = null;
+                spare = new Delta<>(config().clone());
+                recount(e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Part of a failed flush may already be in redis, so the population is recounted to match the bits. If redis is
+     * still unavailable, the next successful recount or BITOP merge corrects it.
+     */
+    private void recount(RuntimeException cause) {
+        try {
+            getRedisBitSet().recountPopulation();
+        } catch (RuntimeException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    private void push(Delta<T> delta) {
+        BitSet bits = delta.getBitSet();
+        if (bits.cardinality() > config().size() / DENSE_RATIO) {
+            super.unionAll(Collections.singletonList(delta));
+        } else {
+            getRedisBitSet().setBits(bits.stream().toArray());
+        }
+    }
+
+    /**
+     * @return 尚未写入redis的增量是否为空
+     */
+    public boolean isFlushed() {
+        lock.readLock().lock();
+        try {
+            return pending.isEmpty() && flushing == null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 停止后台线程并写入剩余的增量, 然后释放连接. 之后add抛出{@link IllegalStateException}.
+     * 写入失败时连接不会被释放, 可以再次调用{@link #flush()}
+     */
+    @Override
+    public void close() {
+        closed = true;
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        super.close();
+    }
+
+    @Override
+    public BitSet getBitSet() {
+        BitSet bits = super.getBitSet();
+        lock.readLock().lock();
+        try {
+            bits.or(pending.getBitSet());
+        } finally {
+            lock.readLock().unlock();
+        }
+        Delta<T> inFlight = flushing;
+        if (inFlight != null) {
+            bits.or(inFlight.getBitSet());
+        }
+        return bits;
+    }
+
+    @Override
+    public void clear() {
+        //Called by the super constructor before the delta exists
+        if (pending == null) {
+            super.clear();
+            return;
+        }
+        synchronized (flushLock) {
+            lock.writeLock().lock();
+            try {
+                pending.clear();
+                super.clear();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * 丢弃尚未写入的增量并删除bf
+     */
+    @Override
+    public void remove() {
+        closed = true;
+        flusher.shutdownNow();
+        synchronized (flushLock) {
+            pending.clear();
+            super.remove();
+        }
+    }
+
+    private static class Delta<T> extends BloomFilterMemory<T> {
+        Delta(FilterBuilder config) {
+            super(config);
+        }
+
+        synchronized boolean get(int position) {
+            return bloom.get(position);
+        }
+    }
+}
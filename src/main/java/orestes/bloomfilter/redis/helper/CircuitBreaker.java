@@ -0,0 +1,147 @@
+package orestes.bloomfilter.redis.helper;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * A circuit breaker for calls to Redis. After {@code failureThreshold} consecutive failures it opens and rejects calls
+ * for {@code openDuration}. Then a single probe call is let through (half-open): if it succeeds the breaker closes, if
+ * it fails the breaker opens again. While closed, {@link #allowRequest()} and {@link #recordSuccess()} only read
+ * volatile fields.
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder openings = new LongAdder();
+    private volatile State state = State.CLOSED;
+    private long openedAt;
+    private boolean probing;
+    private volatile BiConsumer<State, State> listener;
+
+    /**
+     * @param failureThreshold the number of consecutive failures that open the breaker
+     * @param openDuration     how long the breaker rejects calls before it lets a probe through
+     */
+    public CircuitBreaker(int failureThreshold, Duration openDuration) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("The failure threshold must be positive");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+    }
+
+    /**
+     * @return whether a call may be made. A caller that was allowed must report the outcome with
+     * {@link #recordSuccess()} or {@link #recordFailure()}, otherwise a half-open breaker waits for its probe forever.
+     */
+    public boolean allowRequest() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        synchronized (this) {
+            if (state == State.CLOSED) {
+                return true;
+            }
+            if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+                transition(State.HALF_OPEN);
+            }
+            if (state == State.HALF_OPEN && !probing) {
+                probing = true;
+                return true;
+            }
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * Records a successful call, which closes a half-open or open breaker.
+     */
+    public void recordSuccess() {
+        if (state == State.CLOSED) {
+            if (consecutiveFailures.get() != 0) {
+                consecutiveFailures.set(0);
+            }
+            return;
+        }
+        synchronized (this) {
+            consecutiveFailures.set(0);
+            probing = false;
+            if (state != State.CLOSED) {
+                transition(State.CLOSED);
+            }
+        }
+    }
+
+    /**
+     * Records a failed call, e.g. a broken connection or an exceeded latency budget.
+     */
+    public void recordFailure() {
+        failures.increment();
+        int failed = consecutiveFailures.incrementAndGet();
+        if (state == State.CLOSED && failed < failureThreshold) {
+            return;
+        }
+        synchronized (this) {
+            probing = false;
+            if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures.get() >= failureThreshold)) {
+                openedAt = System.nanoTime();
+                openings.increment();
+                transition(State.OPEN);
+            }
+        }
+    }
+
+    private void transition(State next) {
+        State previous = state;
+        state = next;
+        BiConsumer<State, State> listener = this.listener;
+        if (listener != null) {
+            listener.accept(previous, next);
+        }
+    }
+
+    /**
+     * Sets a listener for state changes. It is called with the previous and the new state while the breaker is locked,
+     * so it must not call back into the breaker.
+     *
+     * @param listener the listener or null
+     */
+    public void setListener(BiConsumer<State, State> listener) {
+        this.listener = listener;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return the number of recorded failures
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return the number of calls rejected while the breaker was open
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return how often the breaker opened
+     */
+    public long getOpenings() {
+        return openings.sum();
+    }
+}
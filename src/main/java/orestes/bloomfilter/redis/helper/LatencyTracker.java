@@ -0,0 +1,136 @@
+package orestes.bloomfilter.redis.helper;
+
+import orestes.bloomfilter.redis.helper.RedisPoolListener.Operation;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tracks the latency of a Redis slave, separately for single commands, pipelines and transactions, since their
+ * latencies differ by orders of magnitude. The moving average of single commands is used for routing decisions, the
+ * 95th percentile of a sliding window of recent requests of the same kind as budget for hedged reads. Latencies exclude
+ * the time spent waiting for a pooled connection. Recording is lock-free.
+ * <p>
+ * A slave without samples for {@link #STALE_NANOS} is stale: it is offered one probe read, and its moving average
+ * restarts from the next sample. Otherwise a slave that once answered slowly or failed would never be chosen again and
+ * could never show that it recovered.
+ */
+public class LatencyTracker {
+    public static final long STALE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final double ALPHA = 0.2;
+    private static final int WINDOW = 128;
+    //The percentile is only trusted after this many samples and recomputed every RECOMPUTE samples
+    private static final int MIN_SAMPLES = 20;
+    private static final int RECOMPUTE = 16;
+    private static final long FAILURE_PENALTY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Stats[] stats = new Stats[Operation.values().length];
+    private volatile long lastSample = System.nanoTime();
+    private final AtomicLong lastProbe = new AtomicLong(lastSample);
+
+    public LatencyTracker() {
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new Stats();
+        }
+    }
+
+    /**
+     * Records the latency of a successful request.
+     *
+     * @param operation the kind of request
+     * @param nanos     the latency in nanoseconds
+     */
+    public void record(Operation operation, long nanos) {
+        long now = System.nanoTime();
+        stats[operation.ordinal()].record(nanos, now - lastSample > STALE_NANOS);
+        lastSample = now;
+    }
+
+    /**
+     * Records a failed request, e.g. a broken connection. Only the moving average used for routing is penalized, so
+     * that the slave is avoided until it answers quickly again.
+     */
+    public void recordFailure() {
+        long now = System.nanoTime();
+        stats[Operation.COMMAND.ordinal()].updateEwma(FAILURE_PENALTY_NANOS, now - lastSample > STALE_NANOS);
+        lastSample = now;
+    }
+
+    /**
+     * Claims the probe read of a stale slave. At most one caller per {@link #STALE_NANOS} succeeds.
+     *
+     * @param now the current {@link System#nanoTime()}
+     * @return whether the caller should send its read to this slave
+     */
+    public boolean claimProbe(long now) {
+        long probe = lastProbe.get();
+        return now - lastSample > STALE_NANOS && now - probe > STALE_NANOS && lastProbe.compareAndSet(probe, now);
+    }
+
+    /**
+     * @return the moving average of the latency of single commands in nanoseconds, 0 if nothing was recorded yet
+     */
+    public long getEwmaNanos() {
+        return getEwmaNanos(Operation.COMMAND);
+    }
+
+    /**
+     * @param operation the kind of request
+     * @return the moving average of the latency in nanoseconds, 0 if nothing was recorded yet
+     */
+    public long getEwmaNanos(Operation operation) {
+        double ewma = Double.longBitsToDouble(stats[operation.ordinal()].ewma.get());
+        return ewma == 0 ? 0 : Math.max(1, (long) ewma);
+    }
+
+    /**
+     * @param operation the kind of request
+     * @return the 95th percentile of recent latencies in nanoseconds, {@link Long#MAX_VALUE} if there are too few
+     * samples
+     */
+    public long getP95Nanos(Operation operation) {
+        return stats[operation.ordinal()].p95Nanos;
+    }
+
+    private static class Stats {
+        private final AtomicLongArray window = new AtomicLongArray(WINDOW);
+        private final AtomicLong samples = new AtomicLong();
+        //Bits of the moving average as double, 0 if nothing was recorded yet
+        private final AtomicLong ewma = new AtomicLong();
+        //Recomputing is skipped rather than waited for while another thread does it
+        private final AtomicBoolean recomputing = new AtomicBoolean();
+        private volatile long p95Nanos = Long.MAX_VALUE;
+
+        void record(long nanos, boolean restart) {
+            long count = samples.incrementAndGet();
+            window.set((int) ((count - 1) % WINDOW), nanos);
+            updateEwma(nanos, restart);
+            if (count >= MIN_SAMPLES && count % RECOMPUTE == 0 && recomputing.compareAndSet(false, true)) {
+                try {
+                    long[] sorted = new long[(int) Math.min(count, WINDOW)];
+                    for (int i = 0; i < sorted.length; i++) {
+                        sorted[i] = window.get(i);
+                    }
+                    Arrays.sort(sorted);
+                    p95Nanos = sorted[(int) Math.ceil(sorted.length * 0.95) - 1];
+                } finally {
+                    recomputing.set(false);
+                }
+            }
+        }
+
+        void updateEwma(long nanos, boolean restart) {
+            while (true) {
+                long bits = ewma.get();
+                double current = Double.longBitsToDouble(bits);
+                double next = bits == 0 || restart ? nanos : ALPHA * nanos + (1 - ALPHA) * current;
+                if (ewma.compareAndSet(bits, Double.doubleToLongBits(next))) {
+                    return;
+                }
+            }
+        }
+    }
+}
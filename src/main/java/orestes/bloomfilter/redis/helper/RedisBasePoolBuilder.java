@@ -13,6 +13,7 @@ public class RedisBasePoolBuilder<B extends RedisBasePoolBuilder> {
     protected int database;
     protected int redisConnections;
     protected int timeout;
+    protected RedisPoolListener listener;
 
     protected JedisPoolConfig getPoolConfig(int redisConnections) {
         JedisPoolConfig config = new JedisPoolConfig();
@@ -50,4 +51,13 @@ public class RedisBasePoolBuilder<B extends RedisBasePoolBuilder> {
         this.redisConnections = redisConnections;
         return (B) this;
     }
+
+    /**
+     * @param listener receives the instrumentation events of the pool, see {@link RedisPool#setListener(RedisPoolListener)}
+     * @return this builder
+     */
+    public B listener(RedisPoolListener listener) {
+        this.listener = listener;
+        return (B) this;
+    }
 }
@@ -0,0 +1,111 @@
+package orestes.bloomfilter.redis.helper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.util.JedisClusterCRC16;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps the hash slots of a Redis Cluster to one {@link RedisPool} per master node, so that commands for keys on the same
+ * node can be pipelined. The mapping is read with CLUSTER SLOTS from a seed node and has to be refreshed (see {@link
+ * #refresh()}) when a node answers with MOVED.
+ */
+public class RedisClusterTopology {
+    private static final Logger LOG = LoggerFactory.getLogger(RedisClusterTopology.class);
+    private static final int SLOTS = 16384;
+
+    private final RedisPool seed;
+    private final String password;
+    private final int redisConnections;
+    private final boolean ssl;
+    private Map<String, RedisPool> nodes = new HashMap<>();
+    private volatile RedisPool[] slots;
+
+    /**
+     * @param seed             any node of the cluster
+     * @param password         the password of the cluster nodes or {@code null}
+     * @param redisConnections the number of connections per node
+     * @param ssl              whether to connect with SSL
+     */
+    public RedisClusterTopology(RedisPool seed, String password, int redisConnections, boolean ssl) {
+        this.seed = seed;
+        this.password = password;
+        this.redisConnections = redisConnections;
+        this.ssl = ssl;
+        refresh();
+    }
+
+    /**
+     * Reloads the slot mapping. Pools of nodes that still serve slots are kept.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void refresh() {
+        List<Object> ranges = seed.safelyReturn(Jedis::clusterSlots);
+        RedisPool[] newSlots = new RedisPool[SLOTS];
+        Map<String, RedisPool> newNodes = new HashMap<>();
+        for (Object range : ranges) {
+            List<Object> info = (List<Object>) range;
+            int from = ((Long) info.get(0)).intValue();
+            int to = ((Long) info.get(1)).intValue();
+            //The master is listed first, followed by its replicas
+            List<Object> master = (List<Object>) info.get(2);
+            String host = SafeEncoder.encode((byte[]) master.get(0));
+            int port = ((Long) master.get(1)).intValue();
+            String address = host + ":" + port;
+            RedisPool pool = newNodes.get(address);
+            if (pool == null) {
+                pool = nodes.containsKey(address) ? nodes.remove(address) : createPool(host, port);
+                newNodes.put(address, pool);
+            }
+            for (int slot = from; slot <= to; slot++) {
+                newSlots[slot] = pool;
+            }
+        }
+        nodes.values().forEach(RedisPool::destroy);
+        nodes = newNodes;
+        slots = newSlots;
+        LOG.debug("Redis Cluster topology loaded with {} masters", newNodes.size());
+    }
+
+    private RedisPool createPool(String host, int port) {
+        return RedisPool.builder()
+                .host(host)
+                .port(port)
+                .password(password)
+                .ssl(ssl)
+                .redisConnections(redisConnections)
+                .build();
+    }
+
+    /**
+     * @param key a Redis key
+     * @return the pool of the master that serves the key
+     */
+    public RedisPool forKey(String key) {
+        RedisPool pool = slots[JedisClusterCRC16.getSlot(key)];
+        if (pool == null) {
+            throw new IllegalStateException("Slot of key " + key + " is not served by any node.");
+        }
+        return pool;
+    }
+
+    /**
+     * @return the pools of all masters
+     */
+    public synchronized Collection<RedisPool> getNodes() {
+        return new ArrayList<>(nodes.values());
+    }
+
+    public synchronized void destroy() {
+        nodes.values().forEach(RedisPool::destroy);
+        nodes.clear();
+        seed.destroy();
+    }
+}
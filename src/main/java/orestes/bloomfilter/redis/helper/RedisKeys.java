@@ -2,6 +2,7 @@ package orestes.bloomfilter.redis.helper;
 
 import orestes.bloomfilter.FilterBuilder;
 import orestes.bloomfilter.HashProvider.HashMethod;
+import orestes.bloomfilter.redis.RedisCounterStorage;
 import redis.clients.jedis.Transaction;
 
 import java.util.HashMap;
@@ -19,14 +20,25 @@ public class RedisKeys {
     public static final String C_KEY = "c";
     public static final String P_KEY = "p";
     public static final String HASH_METHOD_KEY = "hashmethod";
+    public static final String SEED_KEY = "seed";
+    public static final String COUNTER_STORAGE_KEY = "counterstorage";
+    //Version of the counter field names, config hashes without it were written with UTF-8 decoded field names
+    public static final String COUNTER_FORMAT_KEY = "counterformat";
+    public static final String COUNTER_FORMAT = "2";
     public final String BITS_KEY;
     public final String COUNTS_KEY;
     public final String TTL_KEY;
+    public final String VERSIONS_KEY;
+    public final String POPULATION_KEY;
+    public final String MIGRATION_KEY;
 
     public RedisKeys(String instanceName) {
         this.BITS_KEY = instanceName + ":bits";
         this.COUNTS_KEY = instanceName + ":counts";
         this.TTL_KEY = instanceName + ":ttl";
+        this.VERSIONS_KEY = instanceName + ":versions";
+        this.POPULATION_KEY = instanceName + ":population";
+        this.MIGRATION_KEY = instanceName + ":migration";
     }
 
 
@@ -37,6 +49,11 @@ public class RedisKeys {
             while (newConfig == null) {
                 if (!builder.overwriteIfExists() && jedis.exists(builder.name())) {
                     newConfig = this.parseConfigHash(jedis.hgetAll(builder.name()), builder.name(), pool);
+                    //Client-side options are not persisted
+                    newConfig.redisCommandMode(builder.redisCommandMode());
+                    newConfig.redisPipelineChunkSize(builder.redisPipelineChunkSize());
+                    newConfig.redisMicroBatching(builder.redisBatchConnections(), builder.redisBatchSize(),
+                            builder.redisBatchDelay());
                 } else {
                     Map<String, String> hash = this.buildConfigHash(builder);
                     jedis.watch(builder.name());
@@ -59,6 +76,9 @@ public class RedisKeys {
         map.put(N_KEY, String.valueOf(config.expectedElements()));
         map.put(C_KEY, String.valueOf(config.countingBits()));
         map.put(HASH_METHOD_KEY, config.hashMethod().name());
+        map.put(SEED_KEY, String.valueOf(config.seed()));
+        map.put(COUNTER_STORAGE_KEY, config.redisCounterStorage().name());
+        map.put(COUNTER_FORMAT_KEY, COUNTER_FORMAT);
         return map;
     }
 
@@ -72,6 +92,13 @@ public class RedisKeys {
         config.expectedElements(Integer.valueOf(map.get(N_KEY)));
         config.countingBits(Integer.valueOf(map.get(C_KEY)));
         config.hashFunction(HashMethod.valueOf(map.get(HASH_METHOD_KEY)));
+        //Filters persisted before seeds were introduced are unseeded
+        if (map.containsKey(SEED_KEY)) {
+            config.seed(Integer.valueOf(map.get(SEED_KEY)));
+        }
+        if (map.containsKey(COUNTER_STORAGE_KEY)) {
+            config.redisCounterStorage(RedisCounterStorage.valueOf(map.get(COUNTER_STORAGE_KEY)));
+        }
         config.complete();
         return config;
     }
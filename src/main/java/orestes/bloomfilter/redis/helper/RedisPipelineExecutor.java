@@ -0,0 +1,306 @@
+package orestes.bloomfilter.redis.helper;
+
+import orestes.bloomfilter.redis.helper.RedisPoolListener.Operation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Multiplexes asynchronous requests over a few dedicated Redis connections. Every connection is owned by a dispatcher
+ * thread that takes all requests queued so far (up to {@code maxBatch}), sends them as one pipeline and completes their
+ * futures. Requests that arrive while a pipeline is in flight form the next pipeline, so thousands of in-flight requests
+ * need neither thousands of connections nor thousands of round trips.
+ * <p>
+ * With a positive {@code maxDelay}, a dispatcher that found fewer than {@code maxBatch} requests keeps collecting until
+ * the oldest request waited {@code maxDelay}, trading a bounded latency for fewer and larger pipelines. The queue is
+ * lock-free; idle and collecting dispatchers are parked and woken by the next request.
+ * <p>
+ * Futures are completed on the dispatcher threads. Dependent stages that block should use the {@code *Async} methods of
+ * {@link CompletableFuture}.
+ * <p>
+ * An executor for reads created by {@link #forReads(RedisPool, int, int, Duration)} owns dedicated connections to every
+ * slave and routes each request like {@link RedisPool#allowingSlaves()}, so that the latency of the pipelines steers
+ * the routing just like synchronous reads do.
+ */
+public class RedisPipelineExecutor implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(RedisPipelineExecutor.class);
+    public static final int DEFAULT_MAX_BATCH = 1_000;
+
+    private final RedisPool pool;
+    private final int maxBatch;
+    private final long maxDelayNanos;
+    private final Queue<Request<?>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queueSize = new AtomicInteger();
+    private final Queue<Thread> idle = new ConcurrentLinkedQueue<>();
+    private final List<Thread> dispatchers = new ArrayList<>();
+    //The executor of each slave if requests are routed to slaves, otherwise null
+    private final Map<RedisPool, RedisPipelineExecutor> slaves;
+    private volatile boolean closed = false;
+
+    /**
+     * @param pool        the pool the dedicated connections are borrowed from for the lifetime of the executor
+     * @param connections the number of connections and dispatcher threads
+     * @param maxBatch    the maximum number of requests per pipeline
+     */
+    public RedisPipelineExecutor(RedisPool pool, int connections, int maxBatch) {
+        this(pool, connections, maxBatch, Duration.ZERO);
+    }
+
+    /**
+     * @param pool        the pool the dedicated connections are borrowed from for the lifetime of the executor
+     * @param connections the number of connections and dispatcher threads
+     * @param maxBatch    the maximum number of requests per pipeline
+     * @param maxDelay    how long a request may wait for further requests before a pipeline with less than
+     *                    {@code maxBatch} requests is sent
+     */
+    public RedisPipelineExecutor(RedisPool pool, int connections, int maxBatch, Duration maxDelay) {
+        this.pool = pool;
+        this.maxBatch = maxBatch;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.slaves = null;
+        for (int i = 0; i < connections; i++) {
+            Thread thread = new Thread(this::dispatch, "redis-pipeline-" + pool.getHost() + ":" + pool.getPort() + "-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            dispatchers.add(thread);
+        }
+    }
+
+    private RedisPipelineExecutor(RedisPool pool, Map<RedisPool, RedisPipelineExecutor> slaves) {
+        this.pool = pool;
+        this.maxBatch = 0;
+        this.maxDelayNanos = 0;
+        this.slaves = slaves;
+    }
+
+    /**
+     * Creates an executor for reads. Without slaves, it uses dedicated connections to the pool itself.
+     *
+     * @param pool        the pool whose slaves the dedicated connections are borrowed from for the lifetime of the
+     *                    executor
+     * @param connections the number of connections and dispatcher threads per slave
+     * @param maxBatch    the maximum number of requests per pipeline
+     * @param maxDelay    how long a request may wait for further requests before a pipeline with less than
+     *                    {@code maxBatch} requests is sent
+     * @return the executor
+     */
+    public static RedisPipelineExecutor forReads(RedisPool pool, int connections, int maxBatch, Duration maxDelay) {
+        if (pool.getSlavePools() == null) {
+            return new RedisPipelineExecutor(pool, connections, maxBatch, maxDelay);
+        }
+        Map<RedisPool, RedisPipelineExecutor> slaves = new HashMap<>();
+        for (RedisPool slave : pool.getSlavePools()) {
+            slaves.put(slave, new RedisPipelineExecutor(slave, connections, maxBatch, maxDelay));
+        }
+        return new RedisPipelineExecutor(pool, slaves);
+    }
+
+    /**
+     * Queues a request.
+     *
+     * @param command queues the commands of the request on the pipeline and returns a supplier that reads the result
+     *                after the pipeline was synced
+     * @param <R>     the result type
+     * @return the future result
+     */
+    public <R> CompletableFuture<R> submit(Function<Pipeline, Supplier<R>> command) {
+        if (slaves != null && !closed) {
+            return slaves.get(pool.allowingSlaves()).submit(command);
+        }
+        Request<R> request = new Request<>(command);
+        if (closed) {
+            request.future.completeExceptionally(new IllegalStateException("The executor is closed."));
+        } else {
+            queue.offer(request);
+            queueSize.incrementAndGet();
+            Thread dispatcher = idle.poll();
+            if (dispatcher != null) {
+                LockSupport.unpark(dispatcher);
+            }
+        }
+        return request.future;
+    }
+
+    private Request<?> poll() {
+        Request<?> request = queue.poll();
+        if (request != null) {
+            queueSize.decrementAndGet();
+        }
+        return request;
+    }
+
+    private Request<?> take() throws InterruptedException {
+        Thread self = Thread.currentThread();
+        while (true) {
+            Request<?> request = poll();
+            if (request != null || closed) {
+                return request;
+            }
+            idle.offer(self);
+            //Re-check after announcing ourselves, a request submitted in between may have found no idle dispatcher
+            request = poll();
+            if (request != null) {
+                idle.remove(self);
+                return request;
+            }
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+            idle.remove(self);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    private void collect(Request<?> first, List<Request<?>> batch) {
+        batch.add(first);
+        long deadline = first.created + maxDelayNanos;
+        Thread self = Thread.currentThread();
+        while (batch.size() < maxBatch) {
+            Request<?> request = poll();
+            if (request != null) {
+                batch.add(request);
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (maxDelayNanos <= 0 || closed || remaining <= 0 || self.isInterrupted()) {
+                return;
+            }
+            //Parked like an idle dispatcher, so the next request wakes us before the deadline
+            idle.offer(self);
+            request = poll();
+            if (request != null) {
+                idle.remove(self);
+                batch.add(request);
+                continue;
+            }
+            LockSupport.parkNanos(this, remaining);
+            idle.remove(self);
+        }
+    }
+
+    private void dispatch() {
+        List<Request<?>> batch = new ArrayList<>(maxBatch);
+        Jedis jedis = null;
+        try {
+            while (!closed || !queue.isEmpty()) {
+                Request<?> first = take();
+                if (first == null) {
+                    continue;
+                }
+                collect(first, batch);
+                try {
+                    if (jedis == null) {
+                        jedis = pool.getResource();
+                    }
+                    execute(jedis, batch);
+                } catch (JedisConnectionException e) {
+                    LOG.warn("Redis connection of pipeline executor failed", e);
+                    pool.recordFailure();
+                    batch.forEach(r -> r.future.completeExceptionally(e));
+                    if (jedis != null) {
+                        jedis.close();
+                        jedis = null;
+                    }
+                } catch (RuntimeException e) {
+                    batch.forEach(r -> r.future.completeExceptionally(e));
+                } finally {
+                    batch.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (jedis != null) {
+                jedis.close();
+            }
+        }
+    }
+
+    private void execute(Jedis jedis, List<Request<?>> batch) {
+        Pipeline p = jedis.pipelined();
+        List<Supplier<?>> results = new ArrayList<>(batch.size());
+        for (Request<?> request : batch) {
+            results.add(request.command.apply(p));
+        }
+        long start = System.nanoTime();
+        p.sync();
+        //Pipelines of a single request take one round trip, like single commands
+        pool.recordLatency(batch.size() == 1 ? Operation.COMMAND : Operation.PIPELINE, System.nanoTime() - start);
+        pool.recordPipeline(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).complete(results.get(i));
+        }
+    }
+
+    /**
+     * @return the number of queued requests that have not been sent yet
+     */
+    public int getQueueSize() {
+        if (slaves != null) {
+            return slaves.values().stream().mapToInt(RedisPipelineExecutor::getQueueSize).sum();
+        }
+        return queueSize.get();
+    }
+
+    /**
+     * Stops accepting requests, sends the queued ones and releases the connections.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (slaves != null) {
+            slaves.values().forEach(RedisPipelineExecutor::close);
+            return;
+        }
+        for (Thread dispatcher : dispatchers) {
+            LockSupport.unpark(dispatcher);
+        }
+        for (Thread dispatcher : dispatchers) {
+            try {
+                dispatcher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        Request<?> request;
+        while ((request = poll()) != null) {
+            request.future.completeExceptionally(new IllegalStateException("The executor is closed."));
+        }
+    }
+
+    private static class Request<R> {
+        private final Function<Pipeline, Supplier<R>> command;
+        private final CompletableFuture<R> future = new CompletableFuture<>();
+        private final long created = System.nanoTime();
+
+        private Request(Function<Pipeline, Supplier<R>> command) {
+            this.command = command;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void complete(Supplier<?> result) {
+            try {
+                future.complete((R) result.get());
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
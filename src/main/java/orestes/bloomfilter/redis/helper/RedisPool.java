@@ -1,33 +1,56 @@
 package orestes.bloomfilter.redis.helper;
 
+import orestes.bloomfilter.redis.helper.RedisPoolListener.Operation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.Pipeline;
 import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisConnectionException;
 import redis.clients.util.Pool;
 
 import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Encapsulates a Connection Pool and offers convenience methods for safe access through Java 8 Lambdas.
  */
 public class RedisPool {
     private static final Logger LOG = LoggerFactory.getLogger(RedisPool.class);
+    public static final int DEFAULT_PIPELINE_CHUNK_SIZE = 10_000;
+
+    //Runs hedged reads, shared by all pools
+    private static volatile ExecutorService hedgeExecutor;
 
     private final Pool<Jedis> pool;
     private final List<RedisPool> slavePools;
-    private final Random random;
     private final String host;
     private final int port;
+    private final LatencyTracker latency = new LatencyTracker();
+    private volatile boolean tracked = false;
+    private volatile boolean hedgedReads = false;
+    private RedisPool hedgedView;
+    private volatile RedisPoolListener listener;
 
     /**
      * Creates a builder for a standalone RedisPool
@@ -50,12 +73,10 @@ public class RedisPool {
         this.host = host;
         this.port = port;
 
-        if (slavePools != null && !slavePools.isEmpty()) {
-            this.slavePools = slavePools;
-            this.random = new Random();
-        } else {
-            this.slavePools = slavePools;
-            this.random = null;
+        this.slavePools = slavePools != null && !slavePools.isEmpty() ? slavePools : null;
+        if (this.slavePools != null) {
+            //Only slaves are routed by latency
+            this.slavePools.forEach(slave -> slave.tracked = true);
         }
     }
 
@@ -71,18 +92,174 @@ public class RedisPool {
         return port;
     }
 
+    /**
+     * Returns a pool for reads. With slaves, two random slaves are compared and the one with the lower moving average
+     * latency of single commands is used (power of two choices), so slow or failing slaves receive less traffic. A
+     * slave that received no reads for {@link LatencyTracker#STALE_NANOS} gets one probe read, so that it can recover.
+     * Reads on this pool are never hedged, so it also suits bulk transfers and functions with side effects on other
+     * connections.
+     *
+     * @return a pool for reads
+     */
     public RedisPool allowingSlaves() {
         if (slavePools == null) {
             return this;
         }
-        int index = random.nextInt(slavePools.size());
-        return slavePools.get(index);
+        RedisPool slave = chooseSlave(null);
+        RedisPoolListener listener = this.listener;
+        if (listener != null) {
+            listener.onReadRouted(this, slave);
+        }
+        return slave;
+    }
+
+    /**
+     * Returns a pool for idempotent point reads, e.g. a few GETBITs or an HMGET. Slaves are chosen as by {@link
+     * #allowingSlaves()}. With {@link #setHedgedReads(boolean) hedged reads}, the returned pool sends a read to a
+     * second slave if the first one did not answer within its 95th percentile latency, returns whichever answers first
+     * and disconnects the connection of the other one. Functions run on this pool must therefore only read, and only
+     * from the connection they are given.
+     *
+     * @return a pool for point reads
+     */
+    public RedisPool allowingHedgedReads() {
+        if (slavePools != null && hedgedReads && slavePools.size() > 1) {
+            return hedgedView;
+        }
+        return allowingSlaves();
+    }
+
+    private RedisPool chooseSlave(RedisPool except) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int n = slavePools.size();
+        if (except != null) {
+            //Choose among the other slaves
+            int skip = slavePools.indexOf(except);
+            int index = random.nextInt(n - 1);
+            return slavePools.get(index >= skip ? index + 1 : index);
+        }
+        if (n == 1) {
+            return slavePools.get(0);
+        }
+        int first = random.nextInt(n);
+        int second = random.nextInt(n - 1);
+        if (second >= first) {
+            second++;
+        }
+        RedisPool a = slavePools.get(first);
+        RedisPool b = slavePools.get(second);
+        long now = System.nanoTime();
+        if (a.latency.claimProbe(now)) {
+            return a;
+        }
+        if (b.latency.claimProbe(now)) {
+            return b;
+        }
+        return a.latency.getEwmaNanos() <= b.latency.getEwmaNanos() ? a : b;
+    }
+
+    /**
+     * Enables or disables hedged reads on the slaves of this pool, see {@link #allowingHedgedReads()}.
+     *
+     * @param hedgedReads whether to hedge reads
+     */
+    public synchronized void setHedgedReads(boolean hedgedReads) {
+        if (hedgedReads && hedgedView == null) {
+            hedgedView = new HedgedPool();
+        }
+        this.hedgedReads = hedgedReads;
+    }
+
+    public boolean isHedgedReads() {
+        return hedgedReads;
+    }
+
+    /**
+     * @return the latency observed for this node, only recorded if it is a slave of another pool
+     */
+    public LatencyTracker getLatency() {
+        return latency;
+    }
+
+    public List<RedisPool> getSlavePools() {
+        return slavePools;
+    }
+
+    /**
+     * Sets the listener that receives the instrumentation events of this pool and its slaves.
+     *
+     * @param listener the listener or null to disable instrumentation
+     */
+    public void setListener(RedisPoolListener listener) {
+        this.listener = listener;
+        if (slavePools != null) {
+            slavePools.forEach(slave -> slave.setListener(listener));
+        }
+    }
+
+    public RedisPoolListener getListener() {
+        return listener;
+    }
+
+    /**
+     * @return the number of connections currently borrowed from this pool
+     */
+    public int getNumActive() {
+        return pool.getNumActive();
+    }
+
+    /**
+     * @return the number of idle connections in this pool
+     */
+    public int getNumIdle() {
+        return pool.getNumIdle();
+    }
+
+    /**
+     * @return the number of threads waiting for a connection of this pool
+     */
+    public int getNumWaiters() {
+        return pool.getNumWaiters();
+    }
+
+    /**
+     * Reports a pipeline sent on a connection of this pool to the {@link #setListener(RedisPoolListener) listener}.
+     * Meant for callers that build their own pipelines inside {@link #safelyReturn(Function)}.
+     *
+     * @param commands the number of commands in the pipeline
+     */
+    public void recordPipeline(int commands) {
+        RedisPoolListener listener = this.listener;
+        if (listener != null) {
+            listener.onPipeline(this, commands);
+        }
     }
 
     public Jedis getResource() {
         return pool.getResource();
     }
 
+    /**
+     * Records the latency of a request sent on a connection from {@link #getResource()} for slave routing.
+     *
+     * @param operation the kind of request
+     * @param nanos     the latency in nanoseconds
+     */
+    void recordLatency(Operation operation, long nanos) {
+        if (tracked) {
+            latency.record(operation, nanos);
+        }
+    }
+
+    /**
+     * Records a broken connection from {@link #getResource()} for slave routing.
+     */
+    void recordFailure() {
+        if (tracked) {
+            latency.recordFailure();
+        }
+    }
+
     public void safelyDo(Consumer<Jedis> f) {
         safelyReturn(jedis -> {
             f.accept(jedis);
@@ -91,23 +268,61 @@ public class RedisPool {
     }
 
     public <T> T safelyReturn(Function<Jedis, T> f) {
+        return execute(Operation.COMMAND, f);
+    }
+
+    /**
+     * Runs an operation on a borrowed connection, records its latency for slave routing and reports it to the
+     * listener. The latency excludes waiting for the connection. Without a listener on a master, no timestamps are
+     * taken.
+     */
+    <T> T execute(Operation operation, Function<Jedis, T> f) {
+        RedisPoolListener listener = this.listener;
+        boolean timed = tracked || listener != null;
+        long start = listener != null ? System.nanoTime() : 0;
+        long borrowed = start;
         try (Jedis jedis = pool.getResource()) {
-            return f.apply(jedis);
+            if (timed) {
+                borrowed = System.nanoTime();
+            }
+            if (listener != null) {
+                listener.onBorrow(this, borrowed - start);
+            }
+            T result = f.apply(jedis);
+            if (timed) {
+                long nanos = System.nanoTime() - borrowed;
+                if (tracked) {
+                    latency.record(operation, nanos);
+                }
+                if (listener != null) {
+                    listener.onOperation(this, operation, nanos, true);
+                }
+            }
+            return result;
+        } catch (RuntimeException e) {
+            if (tracked && e instanceof JedisConnectionException) {
+                latency.recordFailure();
+            }
+            if (listener != null) {
+                listener.onOperation(this, operation, System.nanoTime() - borrowed, false);
+            }
+            throw e;
         }
     }
 
     public <T> void safeForEach(Collection<T> collection, BiConsumer<Pipeline, T> f) {
-        safelyReturn(jedis -> {
+        execute(Operation.PIPELINE, jedis -> {
             Pipeline p = jedis.pipelined();
             collection.stream().forEach(e -> f.accept(p, e));
             p.sync();
+            recordPipeline(collection.size());
             return null;
         });
     }
 
     @SuppressWarnings("unchecked")
     public <T> List<T> transactionallyDo(Consumer<Pipeline> f, String... watch) {
-        return (List<T>) safelyReturn(jedis -> {
+        return (List<T>) execute(Operation.TRANSACTION, jedis -> {
             Pipeline p = jedis.pipelined();
             if (watch.length != 0) {
                 p.watch(watch);
@@ -120,13 +335,46 @@ public class RedisPool {
         });
     }
 
+    /**
+     * Sends one command per index over a plain pipeline (no MULTI/EXEC) and syncs after every {@code chunkSize}
+     * commands, so that neither Redis nor the client has to buffer the replies of the whole batch. Meant for reads that
+     * do not need to be atomic, e.g. on {@link #allowingSlaves()}.
+     *
+     * @param count     the number of commands
+     * @param chunkSize the number of commands per flush
+     * @param command   queues the command for the given index
+     * @param <T>       the reply type
+     * @return the replies in the order of the indexes
+     */
+    public <T> List<T> pipelinedDo(int count, int chunkSize, BiFunction<Pipeline, Integer, Response<T>> command) {
+        return execute(Operation.PIPELINE, jedis -> {
+            List<T> results = new ArrayList<>(count);
+            List<Response<T>> responses = new ArrayList<>(Math.min(count, chunkSize));
+            Pipeline p = jedis.pipelined();
+            for (int i = 0; i < count; i++) {
+                responses.add(command.apply(p, i));
+                if (responses.size() == chunkSize || i == count - 1) {
+                    p.sync();
+                    recordPipeline(responses.size());
+                    responses.forEach(r -> results.add(r.get()));
+                    responses.clear();
+                }
+            }
+            return results;
+        });
+    }
+
     @SuppressWarnings("unchecked")
     public <T> List<T> transactionallyRetry(Consumer<Pipeline> f, String... watch) {
-        while (true) {
+        for (int attempt = 1; ; attempt++) {
             List<T> result = transactionallyDo(f, watch);
             if (result != null) {
                 return result;
             }
+            RedisPoolListener listener = this.listener;
+            if (listener != null) {
+                listener.onTransactionRetry(this, attempt);
+            }
         }
     }
 
@@ -193,4 +441,161 @@ public class RedisPool {
     public void destroy() {
         pool.destroy();
     }
+
+    private static ExecutorService hedgeExecutor() {
+        if (hedgeExecutor == null) {
+            synchronized (RedisPool.class) {
+                if (hedgeExecutor == null) {
+                    hedgeExecutor = Executors.newCachedThreadPool(r -> {
+                        Thread thread = new Thread(r, "redis-hedged-read");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return hedgeExecutor;
+    }
+
+    /**
+     * The view of the slaves returned by {@link #allowingHedgedReads()} when reads are hedged.
+     */
+    private class HedgedPool extends RedisPool {
+        private HedgedPool() {
+            super(RedisPool.this.pool, null, RedisPool.this.host, RedisPool.this.port);
+        }
+
+        @Override
+        public Jedis getResource() {
+            return chooseSlave(null).getResource();
+        }
+
+        @Override
+        public void destroy() {
+            //The slave pools are owned by the enclosing pool
+        }
+
+        @Override
+        public void recordPipeline(int commands) {
+            RedisPool.this.recordPipeline(commands);
+        }
+
+        @Override
+        <T> T execute(Operation operation, Function<Jedis, T> f) {
+            RedisPool first = chooseSlave(null);
+            RedisPoolListener listener = RedisPool.this.listener;
+            if (listener != null) {
+                listener.onReadRouted(RedisPool.this, first);
+            }
+            long budget = first.latency.getP95Nanos(operation);
+            if (budget == Long.MAX_VALUE) {
+                //Not enough samples for a budget yet
+                return first.execute(operation, f);
+            }
+            HedgedCall<T> primaryCall = new HedgedCall<>(first, operation, f);
+            CompletableFuture<T> primary = CompletableFuture.supplyAsync(primaryCall, hedgeExecutor());
+            try {
+                return primary.get(budget, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                RedisPool second = chooseSlave(first);
+                if (listener != null) {
+                    listener.onHedge(RedisPool.this, first, second);
+                }
+                HedgedCall<T> hedgeCall = new HedgedCall<>(second, operation, f);
+                CompletableFuture<T> hedge = CompletableFuture.supplyAsync(hedgeCall, hedgeExecutor());
+                try {
+                    return join(firstSuccessful(primary, hedge));
+                } finally {
+                    //Aborts the slower read, calls that already completed are not affected
+                    primaryCall.cancel();
+                    hedgeCall.cancel();
+                }
+            } catch (InterruptedException e) {
+                primaryCall.cancel();
+                Thread.currentThread().interrupt();
+                throw new JedisConnectionException(e);
+            }
+        }
+
+        private <T> CompletableFuture<T> firstSuccessful(CompletableFuture<T> a, CompletableFuture<T> b) {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            AtomicInteger failures = new AtomicInteger();
+            for (CompletableFuture<T> future : Arrays.asList(a, b)) {
+                future.whenComplete((value, error) -> {
+                    if (error == null) {
+                        result.complete(value);
+                    } else if (failures.incrementAndGet() == 2) {
+                        result.completeExceptionally(error);
+                    }
+                });
+            }
+            return result;
+        }
+
+        private <T> T join(CompletableFuture<T> future) {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new JedisConnectionException(cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new JedisConnectionException(e);
+            }
+        }
+    }
+
+    /**
+     * A read of a hedged pool on one slave. Cancelling it disconnects the connection it is blocked on, which also keeps
+     * the connection from being reused with an unread reply. A cancelled read is not recorded as a failure of the slave.
+     */
+    private static class HedgedCall<T> implements Supplier<T> {
+        private final RedisPool slave;
+        private final Operation operation;
+        private final Function<Jedis, T> f;
+        private Jedis running;
+        private boolean cancelled = false;
+
+        HedgedCall(RedisPool slave, Operation operation, Function<Jedis, T> f) {
+            this.slave = slave;
+            this.operation = operation;
+            this.f = f;
+        }
+
+        @Override
+        public T get() {
+            return slave.execute(operation, jedis -> {
+                synchronized (this) {
+                    if (cancelled) {
+                        throw new CancellationException("The hedged read was answered by another slave");
+                    }
+                    running = jedis;
+                }
+                try {
+                    return f.apply(jedis);
+                } catch (JedisConnectionException e) {
+                    synchronized (this) {
+                        if (cancelled) {
+                            throw new CancellationException("The hedged read was answered by another slave");
+                        }
+                    }
+                    throw e;
+                } finally {
+                    synchronized (this) {
+                        running = null;
+                    }
+                }
+            });
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            if (running != null) {
+                running.disconnect();
+            }
+        }
+    }
 }
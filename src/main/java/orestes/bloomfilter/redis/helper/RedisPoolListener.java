@@ -0,0 +1,91 @@
+package orestes.bloomfilter.redis.helper;
+
+/**
+ * Receives instrumentation events of a {@link RedisPool}, e.g. to export them as metrics. All methods are called
+ * synchronously on the thread that used the pool, so implementations must be thread-safe and fast. A pool without a
+ * listener only pays for a null check per operation.
+ * <p>
+ * The numbers of active, idle and waiting connections are gauges that can be read at any time with
+ * {@link RedisPool#getNumActive()}, {@link RedisPool#getNumIdle()} and {@link RedisPool#getNumWaiters()}.
+ *
+ * @see RedisPoolMetrics
+ */
+public interface RedisPoolListener {
+
+    /**
+     * The kind of a pool operation.
+     */
+    enum Operation {
+        /**
+         * {@link RedisPool#safelyReturn} and {@link RedisPool#safelyDo}, i.e. arbitrary commands on one connection
+         */
+        COMMAND,
+        /**
+         * {@link RedisPool#pipelinedDo} and {@link RedisPool#safeForEach}
+         */
+        PIPELINE,
+        /**
+         * {@link RedisPool#transactionallyDo} and {@link RedisPool#transactionallyRetry}
+         */
+        TRANSACTION
+    }
+
+    /**
+     * Called after a connection was borrowed. With a pool that blocks when exhausted, the wait includes the time spent
+     * waiting for a free connection.
+     *
+     * @param pool      the pool
+     * @param waitNanos the time it took to borrow the connection
+     */
+    default void onBorrow(RedisPool pool, long waitNanos) {
+    }
+
+    /**
+     * Called after an operation finished, excluding the time to borrow the connection.
+     *
+     * @param pool      the pool
+     * @param operation the kind of operation
+     * @param nanos     the time the operation held the connection
+     * @param success   false if the operation threw an exception
+     */
+    default void onOperation(RedisPool pool, Operation operation, long nanos, boolean success) {
+    }
+
+    /**
+     * Called when a pipeline is sent.
+     *
+     * @param pool     the pool
+     * @param commands the number of commands in the pipeline
+     */
+    default void onPipeline(RedisPool pool, int commands) {
+    }
+
+    /**
+     * Called when a transaction of {@link RedisPool#transactionallyRetry} was aborted by a concurrent change of a
+     * watched key and is retried.
+     *
+     * @param pool    the pool
+     * @param attempt the number of the retry, starting at 1
+     */
+    default void onTransactionRetry(RedisPool pool, int attempt) {
+    }
+
+    /**
+     * Called when {@link RedisPool#allowingSlaves()} routes a read to a slave.
+     *
+     * @param pool  the master pool
+     * @param slave the chosen slave
+     */
+    default void onReadRouted(RedisPool pool, RedisPool slave) {
+    }
+
+    /**
+     * Called when a hedged read was sent to a second slave, because the first did not answer within its budget.
+     *
+     * @param pool   the master pool
+     * @param first  the slave that did not answer in time
+     * @param second the slave that receives the hedged read
+     */
+    default void onHedge(RedisPool pool, RedisPool first, RedisPool second) {
+    }
+}
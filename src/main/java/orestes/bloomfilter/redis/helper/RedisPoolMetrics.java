@@ -0,0 +1,187 @@
+package orestes.bloomfilter.redis.helper;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link RedisPoolListener} that aggregates the events in lock-free counters and power-of-two histograms, e.g. to be
+ * polled by a metrics exporter. One instance can be shared by several pools.
+ */
+public class RedisPoolMetrics implements RedisPoolListener {
+    private final Histogram borrowWait = new Histogram();
+    private final Map<Operation, Histogram> operations = new EnumMap<>(Operation.class);
+    private final LongAdder failures = new LongAdder();
+    private final Histogram pipelineSizes = new Histogram();
+    private final LongAdder transactionRetries = new LongAdder();
+    private final Map<String, LongAdder> routedReads = new ConcurrentHashMap<>();
+    private final LongAdder hedgedReads = new LongAdder();
+
+    public RedisPoolMetrics() {
+        for (Operation operation : Operation.values()) {
+            operations.put(operation, new Histogram());
+        }
+    }
+
+    @Override
+    public void onBorrow(RedisPool pool, long waitNanos) {
+        borrowWait.record(waitNanos);
+    }
+
+    @Override
+    public void onOperation(RedisPool pool, Operation operation, long nanos, boolean success) {
+        operations.get(operation).record(nanos);
+        if (!success) {
+            failures.increment();
+        }
+    }
+
+    @Override
+    public void onPipeline(RedisPool pool, int commands) {
+        pipelineSizes.record(commands);
+    }
+
+    @Override
+    public void onTransactionRetry(RedisPool pool, int attempt) {
+        transactionRetries.increment();
+    }
+
+    @Override
+    public void onReadRouted(RedisPool pool, RedisPool slave) {
+        routedReads.computeIfAbsent(slave.getHost() + ":" + slave.getPort(), node -> new LongAdder()).increment();
+    }
+
+    @Override
+    public void onHedge(RedisPool pool, RedisPool first, RedisPool second) {
+        hedgedReads.increment();
+    }
+
+    /**
+     * @return the time it took to borrow connections in nanoseconds
+     */
+    public Histogram getBorrowWait() {
+        return borrowWait;
+    }
+
+    /**
+     * @param operation the kind of operation
+     * @return the latency of the operations of the given kind in nanoseconds
+     */
+    public Histogram getLatency(Operation operation) {
+        return operations.get(operation);
+    }
+
+    /**
+     * @return the number of operations that threw an exception
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return the number of commands per pipeline
+     */
+    public Histogram getPipelineSizes() {
+        return pipelineSizes;
+    }
+
+    /**
+     * @return the number of retried transactions
+     */
+    public long getTransactionRetries() {
+        return transactionRetries.sum();
+    }
+
+    /**
+     * @param host the host of a slave
+     * @param port the port of a slave
+     * @return the number of reads routed to the slave
+     */
+    public long getRoutedReads(String host, int port) {
+        LongAdder reads = routedReads.get(host + ":" + port);
+        return reads != null ? reads.sum() : 0;
+    }
+
+    /**
+     * @return the number of reads that were hedged to a second slave
+     */
+    public long getHedgedReads() {
+        return hedgedReads.sum();
+    }
+
+    /**
+     * A histogram with one bucket per power of two. Bucket {@code i > 0} counts the values in {@code [2^(i-1), 2^i)}
+     * and bucket 0 counts values of at most 0.
+     */
+    public static class Histogram {
+        private static final int BUCKETS = 64;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+
+        public void record(long value) {
+            buckets.incrementAndGet(value <= 0 ? 0 : BUCKETS - Long.numberOfLeadingZeros(value));
+            count.increment();
+            sum.add(value);
+        }
+
+        /**
+         * @return the number of recorded values
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * @return the sum of the recorded values
+         */
+        public long getSum() {
+            return sum.sum();
+        }
+
+        /**
+         * @return the mean of the recorded values, 0 if there are none
+         */
+        public double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : sum.sum() / (double) n;
+        }
+
+        /**
+         * @param bucket the index of the bucket
+         * @return the number of values in the bucket
+         */
+        public long getBucket(int bucket) {
+            return buckets.get(bucket);
+        }
+
+        /**
+         * @param quantile the quantile, e.g. 0.99
+         * @return an upper bound of the quantile, i.e. the exclusive upper bound of the bucket containing it, 0 if
+         * nothing was recorded
+         */
+        public long getQuantileUpperBound(double quantile) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank && counts[i] > 0) {
+                    return i == 0 ? 0 : i == BUCKETS - 1 ? Long.MAX_VALUE : 1L << i;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package orestes.bloomfilter.redis.helper;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A Lua script that is executed via EVALSHA. The SHA1 digest is computed locally, so the script is only sent to a Redis
+ * server if that server answers with NOSCRIPT (e.g. after a restart, a failover or on a replica).
+ */
+public class RedisScript {
+    private final String script;
+    private final byte[] sha;
+
+    public RedisScript(String script) {
+        this.script = script;
+        this.sha = SafeEncoder.encode(sha1Hex(script));
+    }
+
+    /**
+     * Evaluates the script, loading it first if necessary.
+     *
+     * @param jedis the connection
+     * @param keys  the keys passed as KEYS
+     * @param args  the arguments passed as ARGV
+     * @return the result of the script
+     */
+    public Object eval(Jedis jedis, List<byte[]> keys, List<byte[]> args) {
+        try {
+            return jedis.evalsha(sha, keys, args);
+        } catch (JedisDataException e) {
+            if (!isNoScript(e)) {
+                throw e;
+            }
+            jedis.scriptLoad(script);
+            return jedis.evalsha(sha, keys, args);
+        }
+    }
+
+    /**
+     * Queues an evaluation of the script. The response fails with NOSCRIPT if the script is not loaded, use {@link
+     * #evalAll(Jedis, List, List)} to handle that transparently.
+     *
+     * @param p    the pipeline
+     * @param keys the keys passed as KEYS
+     * @param args the arguments passed as ARGV
+     * @return the response of the script
+     */
+    public Response<Object> eval(Pipeline p, List<byte[]> keys, List<byte[]> args) {
+        return p.evalsha(sha, keys, args);
+    }
+
+    /**
+     * Evaluates the script once per argument list in a single pipeline. Evaluations that failed with NOSCRIPT did not
+     * run, so they are repeated in a second pipeline after loading the script once.
+     *
+     * @param jedis the connection
+     * @param keys  the keys passed as KEYS to every evaluation
+     * @param args  the arguments passed as ARGV, one list per evaluation
+     * @return the results in the order of the argument lists
+     */
+    public List<Object> evalAll(Jedis jedis, List<byte[]> keys, List<List<byte[]>> args) {
+        Object[] results = new Object[args.size()];
+        List<Integer> failed = new ArrayList<>();
+        List<Response<Object>> responses = new ArrayList<>(args.size());
+        Pipeline p = jedis.pipelined();
+        for (List<byte[]> arg : args) {
+            responses.add(eval(p, keys, arg));
+        }
+        p.sync();
+        collect(responses, results, failed, null);
+        if (!failed.isEmpty()) {
+            jedis.scriptLoad(script);
+            List<Integer> retried = failed;
+            responses = new ArrayList<>(retried.size());
+            p = jedis.pipelined();
+            for (int i : retried) {
+                responses.add(eval(p, keys, args.get(i)));
+            }
+            p.sync();
+            failed = new ArrayList<>();
+            collect(responses, results, failed, retried);
+            if (!failed.isEmpty()) {
+                throw new JedisDataException("NOSCRIPT persisted after loading the script");
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Copies the responses into the results. Indices of evaluations that failed with NOSCRIPT are added to failed,
+     * other errors are thrown.
+     *
+     * @param indices the result index of each response, {@code null} if they are in order
+     */
+    private static void collect(List<Response<Object>> responses, Object[] results, List<Integer> failed,
+                                List<Integer> indices) {
+        for (int i = 0; i < responses.size(); i++) {
+            int index = indices == null ? i : indices.get(i);
+            try {
+                results[index] = responses.get(i).get();
+            } catch (JedisDataException e) {
+                if (!isNoScript(e)) {
+                    throw e;
+                }
+                failed.add(index);
+            }
+        }
+    }
+
+    /**
+     * Evaluates the script through a {@link RedisPipelineExecutor}. If the server answers NOSCRIPT, the evaluation is
+     * repeated with EVAL, which also caches the script on that server.
+     *
+     * @param executor the executor
+     * @param keys     the keys passed as KEYS
+     * @param args     the arguments passed as ARGV
+     * @return the result of the script
+     */
+    public CompletableFuture<Object> evalAsync(RedisPipelineExecutor executor, List<byte[]> keys, List<byte[]> args) {
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        executor.submit(p -> eval(p, keys, args)::get).whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+            } else if (error instanceof JedisDataException && isNoScript((JedisDataException) error)) {
+                executor.submit(p -> p.eval(SafeEncoder.encode(script), keys, args)::get).whenComplete((retried, e) -> {
+                    if (e == null) {
+                        result.complete(retried);
+                    } else {
+                        result.completeExceptionally(e);
+                    }
+                });
+            } else {
+                result.completeExceptionally(error);
+            }
+        });
+        return result;
+    }
+
+    public String getScript() {
+        return script;
+    }
+
+    private static boolean isNoScript(JedisDataException e) {
+        return e.getMessage() != null && e.getMessage().startsWith("NOSCRIPT");
+    }
+
+    private static String sha1Hex(String script) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(script.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-1 is not available.", e);
+        }
+    }
+}
@@ -23,6 +23,8 @@ public class RedisSentinelPoolBuilder extends RedisBasePoolBuilder<RedisSentinel
 
     public RedisPool build() {
         JedisSentinelPool pool = new JedisSentinelPool(master, sentinels, getPoolConfig(redisConnections), timeout, password, database);
-        return new RedisPool(pool, null, host, port);
+        RedisPool redisPool = new RedisPool(pool, null, host, port);
+        redisPool.setListener(listener);
+        return redisPool;
     }
 }
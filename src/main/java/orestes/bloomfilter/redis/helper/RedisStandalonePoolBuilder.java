@@ -9,6 +9,7 @@ import java.util.Set;
 public class RedisStandalonePoolBuilder extends RedisBasePoolBuilder<RedisStandalonePoolBuilder> {
     private Set<Map.Entry<String, Integer>> readSlaves = null;
     private boolean ssl = false;
+    private boolean hedgedReads = false;
 
     public RedisStandalonePoolBuilder() {}
 
@@ -22,6 +23,11 @@ public class RedisStandalonePoolBuilder extends RedisBasePoolBuilder<RedisStanda
         return this;
     }
 
+    public RedisStandalonePoolBuilder hedgedReads(boolean hedgedReads) {
+        this.hedgedReads = hedgedReads;
+        return this;
+    }
+
     public RedisPool build() {
         ArrayList<RedisPool> slavePools = null;
         if (readSlaves != null && !readSlaves.isEmpty()) {
@@ -35,7 +41,10 @@ public class RedisStandalonePoolBuilder extends RedisBasePoolBuilder<RedisStanda
 
         JedisPool pool = createJedisPool(host, port);
 
-        return new RedisPool(pool, slavePools, host, port);
+        RedisPool redisPool = new RedisPool(pool, slavePools, host, port);
+        redisPool.setHedgedReads(hedgedReads);
+        redisPool.setListener(listener);
+        return redisPool;
     }
 
     protected JedisPool createJedisPool(String host, int port) {
@@ -0,0 +1,83 @@
+package orestes.bloomfilter.storage;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * bf的bit数组的存储. 批量方法的<i>positions</i>中每<i>k</i>个位置属于一个元素, 实现可以把一个批次合并成少量请求
+ */
+public interface BitStore {
+
+    /**
+     * 设置给定位置
+     *
+     * @param positions 给定位置
+     * @return 是否有bit原来为0
+     */
+    boolean setAll(int... positions);
+
+    /**
+     * 批量设置
+     *
+     * @param positions 所有元素的位置
+     * @param k         每个元素的位置个数
+     * @return 每个元素是否有bit原来为0
+     */
+    List<Boolean> setAllBatch(int[] positions, int k);
+
+    /**
+     * @param positions 给定位置
+     * @return 给定位置是否都为1
+     */
+    boolean isAllSet(int... positions);
+
+    /**
+     * 批量检查
+     *
+     * @param positions 所有元素的位置
+     * @param k         每个元素的位置个数
+     * @return 每个元素的位置是否都为1
+     */
+    List<Boolean> isAllSetBatch(int[] positions, int k);
+
+    /**
+     * 清除所有bit
+     */
+    void clear();
+
+    /**
+     * @return 被设置的bit数
+     */
+    int cardinality();
+
+    /**
+     * @return 是否没有bit被设置
+     */
+    boolean isEmpty();
+
+    /**
+     * @return bit数组的副本
+     */
+    BitSet asBitSet();
+
+    /**
+     * 用给定的bit数组覆盖
+     *
+     * @param bits bit数组
+     */
+    void overwriteBitSet(BitSet bits);
+
+    /**
+     * 与另一个bit数组求并集(OR), 不会丢失并发的写入. 同一后端的bit数组可以不经过客户端合并
+     *
+     * @param other 大小相同的bit数组
+     */
+    void union(BitStore other);
+
+    /**
+     * 与另一个bit数组求交集(AND), 不会丢失并发的写入. 同一后端的bit数组可以不经过客户端合并
+     *
+     * @param other 大小相同的bit数组
+     */
+    void intersect(BitStore other);
+}
@@ -0,0 +1,67 @@
+package orestes.bloomfilter.storage;
+
+import java.util.List;
+
+/**
+ * 可计数bf的计数器的存储. 计数器不小于0, 计数器大于0的位置在{@link #bits()}中被设置. 每个位置的计数器和bit一起修改,
+ * 不会出现计数器大于0而bit为0的状态
+ */
+public interface CounterStore {
+
+    /**
+     * @return 与计数器一起维护的bit数组
+     */
+    BitStore bits();
+
+    /**
+     * 增加给定位置的计数器
+     *
+     * @param positions 一个元素的位置
+     * @return 增加后的最小计数
+     */
+    long increment(int[] positions);
+
+    /**
+     * 减少给定位置的计数器(最小为0)
+     *
+     * @param positions 一个元素的位置
+     * @return 减少后的最小计数
+     */
+    long decrement(int[] positions);
+
+    /**
+     * 批量增加
+     *
+     * @param positions 所有元素的位置
+     * @param k         每个元素的位置个数
+     * @return 每个元素增加后的最小计数
+     */
+    List<Long> incrementBatch(int[] positions, int k);
+
+    /**
+     * 批量减少
+     *
+     * @param positions 所有元素的位置
+     * @param k         每个元素的位置个数
+     * @return 每个元素减少后的最小计数
+     */
+    List<Long> decrementBatch(int[] positions, int k);
+
+    /**
+     * @param positions 一个元素的位置
+     * @return 最小计数
+     */
+    long getCount(int[] positions);
+
+    /**
+     * 清除所有计数器和bit
+     */
+    void clear();
+
+    /**
+     * 设置计数器饱和时的处理器
+     *
+     * @param handler 处理器
+     */
+    void setOverflowHandler(Runnable handler);
+}
@@ -0,0 +1,184 @@
+package orestes.bloomfilter.storage;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * 进程内的bit数组. bit存放在{@link AtomicLongArray}中, 单个bit用CAS修改, 不需要锁. 被设置的bit数随每次修改维护
+ */
+public class InProcessBitStore implements BitStore {
+    private final int size;
+    private final AtomicLongArray words;
+    private final LongAdder oneBits = new LongAdder();
+
+    /**
+     * @param size bit数
+     */
+    public InProcessBitStore(int size) {
+        this.size = size;
+        this.words = new AtomicLongArray((size + 63) >>> 6);
+    }
+
+    /**
+     * @param size bit数
+     * @param bits 初始的bit数组
+     */
+    public InProcessBitStore(int size, BitSet bits) {
+        this(size);
+        overwriteBitSet(bits);
+    }
+
+    /**
+     * @return bit数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 设置或清除一个bit
+     *
+     * @param position 位置
+     * @param value    新的值
+     * @return 原来的值
+     */
+    public boolean set(int position, boolean value) {
+        int index = position >>> 6;
+        long mask = 1L << position;
+        while (true) {
+            long word = words.get(index);
+            boolean previous = (word & mask) != 0;
+            if (previous == value) {
+                return previous;
+            }
+            if (words.compareAndSet(index, word, value ? word | mask : word & ~mask)) {
+                oneBits.add(value ? 1 : -1);
+                return previous;
+            }
+        }
+    }
+
+    /**
+     * @param position 位置
+     * @return bit的值
+     */
+    public boolean get(int position) {
+        return (words.get(position >>> 6) & (1L << position)) != 0;
+    }
+
+    @Override
+    public boolean setAll(int... positions) {
+        boolean added = false;
+        for (int position : positions) {
+            if (!set(position, true)) {
+                added = true;
+            }
+        }
+        return added;
+    }
+
+    @Override
+    public List<Boolean> setAllBatch(int[] positions, int k) {
+        List<Boolean> added = new ArrayList<>(positions.length / k);
+        for (int offset = 0; offset < positions.length; offset += k) {
+            boolean wasAdded = false;
+            for (int i = offset; i < offset + k; i++) {
+                if (!set(positions[i], true)) {
+                    wasAdded = true;
+                }
+            }
+            added.add(wasAdded);
+        }
+        return added;
+    }
+
+    @Override
+    public boolean isAllSet(int... positions) {
+        for (int position : positions) {
+            if (!get(position)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public List<Boolean> isAllSetBatch(int[] positions, int k) {
+        List<Boolean> contains = new ArrayList<>(positions.length / k);
+        for (int offset = 0; offset < positions.length; offset += k) {
+            boolean isPresent = true;
+            for (int i = offset; i < offset + k && isPresent; i++) {
+                isPresent = get(positions[i]);
+            }
+            contains.add(isPresent);
+        }
+        return contains;
+    }
+
+    /**
+     * 逐字清除. 并发的写入不会丢失计数: 每个字被替换时减去它原来的bit数
+     */
+    @Override
+    public void clear() {
+        for (int i = 0; i < words.length(); i++) {
+            oneBits.add(-Long.bitCount(words.getAndSet(i, 0)));
+        }
+    }
+
+    @Override
+    public int cardinality() {
+        return (int) oneBits.sum();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return oneBits.sum() == 0;
+    }
+
+    @Override
+    public BitSet asBitSet() {
+        long[] copy = new long[words.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = words.get(i);
+        }
+        return BitSet.valueOf(copy);
+    }
+
+    @Override
+    public void overwriteBitSet(BitSet bits) {
+        long[] source = bits.toLongArray();
+        for (int i = 0; i < words.length(); i++) {
+            long word = i < source.length ? source[i] : 0;
+            oneBits.add(Long.bitCount(word) - Long.bitCount(words.getAndSet(i, word)));
+        }
+    }
+
+    /**
+     * 逐字用CAS合并, 并发修改的bit不会丢失
+     */
+    @Override
+    public void union(BitStore other) {
+        combine(other, (word, source) -> word | source);
+    }
+
+    /**
+     * 逐字用CAS求交集, 并发修改的bit不会丢失
+     */
+    @Override
+    public void intersect(BitStore other) {
+        combine(other, (word, source) -> word & source);
+    }
+
+    private void combine(BitStore other, LongBinaryOperator op) {
+        long[] source = other.asBitSet().toLongArray();
+        for (int i = 0; i < words.length(); i++) {
+            long word = i < source.length ? source[i] : 0;
+            long previous = words.getAndAccumulate(i, word, op);
+            oneBits.add(Long.bitCount(op.applyAsLong(previous, word)) - Long.bitCount(previous));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package orestes.bloomfilter.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 进程内的计数器. 计数器在<i>counterBits</i>位的最大值处饱和. 每个位置的计数器和bit在同一个分段锁内修改
+ */
+public class InProcessCounterStore implements CounterStore {
+    private static final int LOCK_STRIPES = 64;
+
+    private final InProcessBitStore bits;
+    private final AtomicLongArray counters;
+    private final long counterMax;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private volatile Runnable overflowHandler = () -> {
+    };
+
+    /**
+     * @param size        计数器个数
+     * @param counterBits 每个计数器的位数
+     */
+    public InProcessCounterStore(int size, int counterBits) {
+        this.bits = new InProcessBitStore(size);
+        this.counters = new AtomicLongArray(size);
+        this.counterMax = counterBits >= 63 ? Long.MAX_VALUE : (1L << counterBits) - 1;
+        Arrays.setAll(locks, i -> new Object());
+    }
+
+    @Override
+    public InProcessBitStore bits() {
+        return bits;
+    }
+
+    @Override
+    public long increment(int[] positions) {
+        return update(positions, 0, positions.length, 1);
+    }
+
+    @Override
+    public long decrement(int[] positions) {
+        return update(positions, 0, positions.length, -1);
+    }
+
+    @Override
+    public List<Long> incrementBatch(int[] positions, int k) {
+        return updateBatch(positions, k, 1);
+    }
+
+    @Override
+    public List<Long> decrementBatch(int[] positions, int k) {
+        return updateBatch(positions, k, -1);
+    }
+
+    private List<Long> updateBatch(int[] positions, int k, int delta) {
+        List<Long> counts = new ArrayList<>(positions.length / k);
+        for (int offset = 0; offset < positions.length; offset += k) {
+            counts.add(update(positions, offset, offset + k, delta));
+        }
+        return counts;
+    }
+
+    private long update(int[] positions, int from, int to, int delta) {
+        long min = Long.MAX_VALUE;
+        boolean overflow = false;
+        for (int i = from; i < to; i++) {
+            int position = positions[i];
+            long count;
+            synchronized (locks[position & (LOCK_STRIPES - 1)]) {
+                count = counters.get(position);
+                if (delta > 0 && count < counterMax) {
+                    count++;
+                } else if (delta < 0 && count > 0) {
+                    count--;
+                }
+                counters.set(position, count);
+                bits.set(position, count > 0);
+            }
+            overflow |= count >= counterMax;
+            min = Math.min(min, count);
+        }
+        if (overflow && delta > 0) {
+            overflowHandler.run();
+        }
+        return min == Long.MAX_VALUE ? 0 : min;
+    }
+
+    @Override
+    public long getCount(int[] positions) {
+        long min = Long.MAX_VALUE;
+        for (int position : positions) {
+            min = Math.min(min, counters.get(position));
+        }
+        return min == Long.MAX_VALUE ? 0 : min;
+    }
+
+    @Override
+    public void clear() {
+        for (int position = 0; position < counters.length(); position++) {
+            synchronized (locks[position & (LOCK_STRIPES - 1)]) {
+                counters.set(position, 0);
+                bits.set(position, false);
+            }
+        }
+    }
+
+    @Override
+    public void setOverflowHandler(Runnable handler) {
+        this.overflowHandler = handler;
+    }
+}
@@ -0,0 +1,55 @@
+package orestes.bloomfilter.storage;
+
+import orestes.bloomfilter.FilterBuilder;
+
+import java.time.Clock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内的存储后端, 用于没有redis的测试和基准测试. 与redis一样, 同一后端上名称相同的bf共享数据
+ */
+public class InProcessStorage implements StorageBackend {
+    private final Clock clock;
+    private final Map<String, InProcessBitStore> bits = new ConcurrentHashMap<>();
+    private final Map<String, InProcessCounterStore> counters = new ConcurrentHashMap<>();
+    private final Map<String, InProcessTtlStore> ttls = new ConcurrentHashMap<>();
+
+    public InProcessStorage() {
+        this(Clock.systemUTC());
+    }
+
+    /**
+     * @param clock 计算过期时间的时钟
+     */
+    public InProcessStorage(Clock clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public InProcessBitStore bits(FilterBuilder config) {
+        InProcessBitStore store = bits.computeIfAbsent(config.name(), name -> new InProcessBitStore(config.size()));
+        checkSize(config, store.size());
+        return store;
+    }
+
+    @Override
+    public InProcessCounterStore counters(FilterBuilder config) {
+        InProcessCounterStore store = counters.computeIfAbsent(config.name(),
+                name -> new InProcessCounterStore(config.size(), config.countingBits()));
+        checkSize(config, store.bits().size());
+        return store;
+    }
+
+    @Override
+    public InProcessTtlStore ttls(FilterBuilder config) {
+        return ttls.computeIfAbsent(config.name(), name -> new InProcessTtlStore(clock));
+    }
+
+    private static void checkSize(FilterBuilder config, int size) {
+        if (size != config.size()) {
+            throw new IllegalArgumentException("The filter " + config.name() + " already exists with " + size
+                    + " bits instead of " + config.size());
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package orestes.bloomfilter.storage;
+
+import java.time.Clock;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * 进程内的过期时间. 过期的key在读取时被删除
+ */
+public class InProcessTtlStore implements TtlStore {
+    private final Clock clock;
+    private final Map<String, Long> expirations = new ConcurrentHashMap<>();
+
+    /**
+     * @param clock 计算过期时间的时钟
+     */
+    public InProcessTtlStore(Clock clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public void extend(String key, long ttlMillis) {
+        expirations.merge(key, clock.millis() + ttlMillis, Math::max);
+    }
+
+    @Override
+    public Long getRemainingMillis(String key) {
+        Long expiration = expirations.get(key);
+        if (expiration == null) {
+            return null;
+        }
+        long remaining = expiration - clock.millis();
+        if (remaining <= 0) {
+            expirations.remove(key, expiration);
+            return null;
+        }
+        return remaining;
+    }
+
+    @Override
+    public List<Long> getRemainingMillis(List<String> keys) {
+        return keys.stream().map(this::getRemainingMillis).collect(Collectors.toList());
+    }
+
+    @Override
+    public void clear() {
+        expirations.clear();
+    }
+}
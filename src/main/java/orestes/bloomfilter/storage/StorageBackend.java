@@ -0,0 +1,27 @@
+package orestes.bloomfilter.storage;
+
+import orestes.bloomfilter.FilterBuilder;
+
+/**
+ * bf的存储后端. 同一后端上名称相同的bf共享数据. 通过{@link FilterBuilder#storage(StorageBackend)}使用
+ */
+public interface StorageBackend {
+
+    /**
+     * @param config bf的配置
+     * @return bf的bit数组
+     */
+    BitStore bits(FilterBuilder config);
+
+    /**
+     * @param config bf的配置
+     * @return 可计数bf的计数器和bit数组
+     */
+    CounterStore counters(FilterBuilder config);
+
+    /**
+     * @param config bf的配置
+     * @return 可过期bf的过期时间
+     */
+    TtlStore ttls(FilterBuilder config);
+}
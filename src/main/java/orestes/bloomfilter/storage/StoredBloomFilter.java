@@ -0,0 +1,146 @@
+package orestes.bloomfilter.storage;
+
+import orestes.bloomfilter.BloomFilter;
+import orestes.bloomfilter.FilterBuilder;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 数据保存在{@link FilterBuilder#storage()}中的bf. 与后端无关, 批量操作交给后端合并成少量请求
+ *
+ * @param <T> 元素类型
+ */
+public class StoredBloomFilter<T> implements BloomFilter<T> {
+    private final FilterBuilder config;
+    private final BitStore bits;
+
+    public StoredBloomFilter(FilterBuilder builder) {
+        this(builder.complete(), storage(builder).bits(builder));
+        if (builder.overwriteIfExists()) {
+            this.clear();
+        }
+    }
+
+    /**
+     * 使用已经创建的存储, 供后端专用的bf继承. 不处理{@link FilterBuilder#overwriteIfExists()}
+     *
+     * @param config bf的配置
+     * @param bits   bit数组的存储
+     */
+    protected StoredBloomFilter(FilterBuilder config, BitStore bits) {
+        this.config = config;
+        this.bits = bits;
+    }
+
+    static StorageBackend storage(FilterBuilder builder) {
+        if (builder.storage() == null) {
+            throw new NullPointerException("No storage backend was specified.");
+        }
+        return builder.storage();
+    }
+
+    @Override
+    public boolean addRaw(byte[] element) {
+        return bits.setAll(hash(element));
+    }
+
+    @Override
+    public List<Boolean> addAll(Collection<T> elements) {
+        return bits.setAllBatch(hashAll(elements), config.hashes());
+    }
+
+    @Override
+    public boolean contains(byte[] element) {
+        return bits.isAllSet(hash(element));
+    }
+
+    @Override
+    public List<Boolean> contains(Collection<T> elements) {
+        return bits.isAllSetBatch(hashAll(elements), config.hashes());
+    }
+
+    @Override
+    public void clear() {
+        bits.clear();
+    }
+
+    @Override
+    public BitSet getBitSet() {
+        return bits.asBitSet();
+    }
+
+    @Override
+    public FilterBuilder config() {
+        return config;
+    }
+
+    /**
+     * 与redis存储的bf一样, 克隆的bf使用相同的数据
+     *
+     * @return 使用相同数据的bf
+     */
+    @Override
+    public BloomFilter<T> clone() {
+        return new StoredBloomFilter<>(config.clone());
+    }
+
+    /**
+     * 用{@link BitStore#union(BitStore)}合并, 不会丢失并发的写入. 同一后端的bf的数据可以不经过客户端
+     *
+     * @param other 兼容的bf
+     * @return 是否兼容
+     */
+    @Override
+    public boolean union(BloomFilter<T> other) {
+        if (!compatible(other)) {
+            return false;
+        }
+        bits.union(bitStore(other));
+        return true;
+    }
+
+    /**
+     * 用{@link BitStore#intersect(BitStore)}求交集, 不会丢失并发的写入. 同一后端的bf的数据可以不经过客户端
+     *
+     * @param other 兼容的bf
+     * @return 是否兼容
+     */
+    @Override
+    public boolean intersect(BloomFilter<T> other) {
+        if (!compatible(other)) {
+            return false;
+        }
+        bits.intersect(bitStore(other));
+        return true;
+    }
+
+    /**
+     * @param other 兼容的bf
+     * @return 存储的bf的存储, 其他bf的bit数组的进程内副本
+     */
+    protected BitStore bitStore(BloomFilter<T> other) {
+        if (other instanceof StoredBloomFilter) {
+            return ((StoredBloomFilter<T>) other).bits;
+        }
+        return new InProcessBitStore(config.size(), other.getBitSet());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return bits.isEmpty();
+    }
+
+    @Override
+    public Double getEstimatedPopulation() {
+        return BloomFilter.population(bits.cardinality(), config);
+    }
+
+    /**
+     * @return bit数组的存储
+     */
+    public BitStore getBitStore() {
+        return bits;
+    }
+}
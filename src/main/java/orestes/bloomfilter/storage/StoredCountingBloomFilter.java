@@ -0,0 +1,149 @@
+package orestes.bloomfilter.storage;
+
+import orestes.bloomfilter.BloomFilter;
+import orestes.bloomfilter.CountingBloomFilter;
+import orestes.bloomfilter.FilterBuilder;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 计数器保存在{@link FilterBuilder#storage()}中的可计数bf. 每个元素的计数器和bit由后端一起修改
+ *
+ * @param <T> 元素类型
+ */
+public class StoredCountingBloomFilter<T> implements CountingBloomFilter<T> {
+    protected final FilterBuilder config;
+    protected final CounterStore counters;
+
+    public StoredCountingBloomFilter(FilterBuilder builder) {
+        this(builder.complete(), StoredBloomFilter.storage(builder).counters(builder));
+        if (builder.overwriteIfExists()) {
+            this.clear();
+        }
+    }
+
+    /**
+     * 使用已经创建的存储, 供后端专用的bf继承. 不处理{@link FilterBuilder#overwriteIfExists()}
+     *
+     * @param config   bf的配置
+     * @param counters 计数器的存储
+     */
+    protected StoredCountingBloomFilter(FilterBuilder config, CounterStore counters) {
+        this.config = config;
+        this.counters = counters;
+    }
+
+    @Override
+    public long addAndEstimateCountRaw(byte[] element) {
+        return counters.increment(hash(element));
+    }
+
+    @Override
+    public List<Boolean> addAll(Collection<T> elements) {
+        return addAllAndEstimateCount(elements).stream().map(count -> count == 1).collect(Collectors.toList());
+    }
+
+    @Override
+    public List<Long> addAllAndEstimateCount(Collection<T> elements) {
+        return counters.incrementBatch(hashAll(elements), config.hashes());
+    }
+
+    @Override
+    public boolean removeRaw(byte[] element) {
+        return removeAndEstimateCountRaw(element) <= 0;
+    }
+
+    @Override
+    public long removeAndEstimateCountRaw(byte[] element) {
+        return counters.decrement(hash(element));
+    }
+
+    @Override
+    public List<Boolean> removeAll(Collection<T> elements) {
+        return removeAllAndEstimateCount(elements).stream().map(count -> count <= 0).collect(Collectors.toList());
+    }
+
+    @Override
+    public List<Long> removeAllAndEstimateCount(Collection<T> elements) {
+        return counters.decrementBatch(hashAll(elements), config.hashes());
+    }
+
+    @Override
+    public long getEstimatedCount(T element) {
+        return counters.getCount(hash(toBytes(element)));
+    }
+
+    @Override
+    public boolean contains(byte[] element) {
+        return counters.bits().isAllSet(hash(element));
+    }
+
+    @Override
+    public List<Boolean> contains(Collection<T> elements) {
+        return counters.bits().isAllSetBatch(hashAll(elements), config.hashes());
+    }
+
+    @Override
+    public void clear() {
+        counters.clear();
+    }
+
+    @Override
+    public BitSet getBitSet() {
+        return counters.bits().asBitSet();
+    }
+
+    @Override
+    public FilterBuilder config() {
+        return config;
+    }
+
+    /**
+     * 克隆的bf使用相同的计数器
+     *
+     * @return 使用相同数据的bf
+     */
+    @Override
+    public CountingBloomFilter<T> clone() {
+        return new StoredCountingBloomFilter<>(config.clone());
+    }
+
+    @Override
+    public boolean union(BloomFilter<T> other) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean intersect(BloomFilter<T> other) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return counters.bits().isEmpty();
+    }
+
+    @Override
+    public Double getEstimatedPopulation() {
+        return BloomFilter.population(counters.bits().cardinality(), config);
+    }
+
+    /**
+     * 设置计数器饱和时的处理器
+     *
+     * @param callback 处理器
+     */
+    public void setOverflowHandler(Runnable callback) {
+        counters.setOverflowHandler(callback);
+    }
+
+    /**
+     * @return 计数器的存储
+     */
+    public CounterStore getCounterStore() {
+        return counters;
+    }
+}
@@ -0,0 +1,88 @@
+package orestes.bloomfilter.storage;
+
+import orestes.bloomfilter.BloomFilter;
+import orestes.bloomfilter.FilterBuilder;
+import orestes.bloomfilter.expiring.ExpirationQueue;
+import orestes.bloomfilter.expiring.ExpirationQueue.ExpiringItem;
+import orestes.bloomfilter.expiring.ExpiringCountingBloomFilter;
+import orestes.bloomfilter.memory.BloomFilterMemory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 计数器和过期时间保存在{@link FilterBuilder#storage()}中的可过期bf. 元素的key是其toString()
+ *
+ * @param <T> 元素类型
+ */
+public class StoredExpiringBloomFilter<T> extends StoredCountingBloomFilter<T> implements ExpiringCountingBloomFilter<T> {
+    private final TtlStore ttls;
+    private ExpirationQueue<T> queue;
+
+    public StoredExpiringBloomFilter(FilterBuilder builder) {
+        super(builder);
+        this.ttls = StoredBloomFilter.storage(builder).ttls(config);
+        if (builder.overwriteIfExists()) {
+            ttls.clear();
+        }
+        this.queue = new ExpirationQueue<>(this::onExpire);
+    }
+
+    private void onExpire(ExpiringItem<T> entry) {
+        this.removeAndEstimateCount(entry.getItem());
+    }
+
+    @Override
+    public boolean isCached(T element) {
+        Long remaining = getRemainingTTL(element, TimeUnit.MILLISECONDS);
+        return remaining != null && remaining > 0;
+    }
+
+    @Override
+    public Long getRemainingTTL(T element, TimeUnit unit) {
+        Long remaining = ttls.getRemainingMillis(element.toString());
+        return remaining != null ? unit.convert(remaining, TimeUnit.MILLISECONDS) : null;
+    }
+
+    @Override
+    public List<Long> getRemainingTTLs(List<T> elements, TimeUnit unit) {
+        List<String> ids = elements.stream().map(Object::toString).collect(Collectors.toList());
+        return ttls.getRemainingMillis(ids).stream()
+                .map(remaining -> remaining != null ? unit.convert(remaining, TimeUnit.MILLISECONDS) : null)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void reportRead(T element, long TTL, TimeUnit unit) {
+        ttls.extend(element.toString(), TimeUnit.MILLISECONDS.convert(TTL, unit));
+    }
+
+    @Override
+    public Long reportWrite(T element, TimeUnit unit) {
+        Long remaining = getRemainingTTL(element, TimeUnit.NANOSECONDS);
+        if (remaining != null && remaining >= 0) {
+            add(element);
+            queue.addTTL(element, remaining);
+        }
+        return remaining != null ? unit.convert(remaining, TimeUnit.NANOSECONDS) : null;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        //During init ONLY clear the counters
+        if (queue == null) {
+            return;
+        }
+        queue.clear();
+        ttls.clear();
+    }
+
+    @Override
+    public BloomFilter<T> getClonedBloomFilter() {
+        BloomFilterMemory<T> filter = new BloomFilterMemory<>(config.clone());
+        filter.setBitSet(getBitSet());
+        return filter;
+    }
+}
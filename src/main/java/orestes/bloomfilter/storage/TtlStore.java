@@ -0,0 +1,34 @@
+package orestes.bloomfilter.storage;
+
+import java.util.List;
+
+/**
+ * 可过期bf的过期时间的存储. 过期时间由存储的时钟计算, 过期的key视为不存在
+ */
+public interface TtlStore {
+
+    /**
+     * 把key的过期时间延长到现在之后<i>ttlMillis</i>毫秒, 已有的更晚的过期时间保持不变
+     *
+     * @param key       key
+     * @param ttlMillis 剩余时间(毫秒)
+     */
+    void extend(String key, long ttlMillis);
+
+    /**
+     * @param key key
+     * @return 剩余时间(毫秒), 不存在或已过期时为null
+     */
+    Long getRemainingMillis(String key);
+
+    /**
+     * @param keys keys
+     * @return 每个key的剩余时间(毫秒), 不存在或已过期时为null
+     */
+    List<Long> getRemainingMillis(List<String> keys);
+
+    /**
+     * 删除所有过期时间
+     */
+    void clear();
+}
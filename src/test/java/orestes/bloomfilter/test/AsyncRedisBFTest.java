@@ -0,0 +1,193 @@
+package orestes.bloomfilter.test;
+
+import orestes.bloomfilter.FilterBuilder;
+import orestes.bloomfilter.HashProvider.HashMethod;
+import orestes.bloomfilter.redis.AsyncBloomFilterRedis;
+import orestes.bloomfilter.redis.AsyncCountingBloomFilterRedis;
+import orestes.bloomfilter.redis.BloomFilterRedis;
+import orestes.bloomfilter.redis.CountingBloomFilterRedis;
+import orestes.bloomfilter.redis.RedisCounterStorage;
+import orestes.bloomfilter.redis.helper.RedisKeys;
+import orestes.bloomfilter.test.helper.Helper;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncRedisBFTest {
+
+    @Test
+    public void concurrentRequestsShareConnections() {
+        BloomFilterRedis<String> filter = Helper.createRedisFilter("async", 10_000, 0.01, HashMethod.Murmur3, true);
+        List<String> elements = IntStream.range(0, 5_000).mapToObj(i -> "element" + i).collect(Collectors.toList());
+        try (AsyncBloomFilterRedis<String> async = new AsyncBloomFilterRedis<>(filter, 2, 100)) {
+            List<CompletableFuture<Boolean>> added = elements.stream().map(async::addAsync)
+                .collect(Collectors.toList());
+            CompletableFuture.allOf(added.toArray(new CompletableFuture[0])).join();
+
+            assertTrue(filter.containsAll(elements));
+            assertTrue(elements.stream().map(async::containsAsync).allMatch(CompletableFuture::join));
+            assertTrue(async.containsAsync(elements).join().stream().allMatch(b -> b));
+            assertFalse(async.addAsync("element0").join());
+            assertEquals(filter.contains("other"), async.containsAsync("other").join());
+            assertEquals(filter.getBitSet(), async.getFilter().getBitSet());
+        }
+        filter.remove();
+    }
+
+    @Test
+    public void addAllMatchesSynchronousFilter() {
+        BloomFilterRedis<String> filter = Helper.createRedisFilter("async", 10_000, 0.01, HashMethod.Murmur3, true);
+        BloomFilterRedis<String> reference = Helper.createRedisFilter("sync", 10_000, 0.01, HashMethod.Murmur3, true);
+        List<String> elements = IntStream.range(0, 1_000).mapToObj(i -> "element" + i).collect(Collectors.toList());
+        try (AsyncBloomFilterRedis<String> async = new AsyncBloomFilterRedis<>(filter)) {
+            assertEquals(reference.addAll(elements), async.addAllAsync(elements).join());
+            assertEquals(reference.getBitSet(), filter.getBitSet());
+        }
+        filter.remove();
+        reference.remove();
+    }
+
+    @Test
+    public void populationCounterSurvivesConcurrentClear() {
+        BloomFilterRedis<String> filter = Helper.createRedisFilter("async", 10_000, 0.01, HashMethod.Murmur3, true);
+        RedisKeys keys = new RedisKeys("async");
+        try (AsyncBloomFilterRedis<String> async = new AsyncBloomFilterRedis<>(filter, 2, 100)) {
+            for (int round = 0; round < 20; round++) {
+                int offset = round * 200;
+                List<CompletableFuture<Boolean>> added = IntStream.range(offset, offset + 200)
+                    .mapToObj(i -> async.addAsync("element" + i)).collect(Collectors.toList());
+                filter.clear();
+                CompletableFuture.allOf(added.toArray(new CompletableFuture[0])).join();
+                long population = Helper.getPool().safelyReturn(jedis -> {
+                    String counter = jedis.get(keys.POPULATION_KEY);
+                    return counter == null ? 0L : Long.parseLong(counter);
+                });
+                assertEquals((long) Helper.getPool().safelyReturn(jedis -> jedis.bitcount(keys.BITS_KEY)),
+                    population);
+            }
+        }
+        filter.remove();
+    }
+
+    @Test
+    public void microBatchingCoalescesConcurrentCalls() throws Exception {
+        BloomFilterRedis<String> batched = new BloomFilterRedis<>(new FilterBuilder(10_000, 0.01)
+            .hashFunction(HashMethod.Murmur3)
+            .redisBacked(true)
+            .name("microbatch")
+            .redisHost(Helper.host)
+            .redisPort(Helper.port)
+            .overwriteIfExists(true)
+            .redisMicroBatching(2, 100, Duration.ofNanos(200_000))
+            .complete());
+        BloomFilterRedis<String> reference = Helper.createRedisFilter("sync", 10_000, 0.01, HashMethod.Murmur3, true);
+        List<String> elements = IntStream.range(0, 2_000).mapToObj(i -> "element" + i).collect(Collectors.toList());
+        reference.addAll(elements);
+
+        ExecutorService exec = Executors.newFixedThreadPool(50);
+        List<Future<Boolean>> added = elements.stream().map(e -> exec.submit(() -> batched.add(e)))
+            .collect(Collectors.toList());
+        for (Future<Boolean> result : added) {
+            result.get();
+        }
+        List<Future<Boolean>> contained = IntStream.range(0, 4_000)
+            .mapToObj(i -> exec.submit(() -> batched.contains("element" + i)))
+            .collect(Collectors.toList());
+        for (int i = 0; i < contained.size(); i++) {
+            assertEquals(reference.contains("element" + i), contained.get(i).get());
+        }
+        exec.shutdown();
+
+        assertEquals(reference.getBitSet(), batched.getBitSet());
+        batched.remove();
+        reference.remove();
+    }
+
+    @Test
+    public void microBatchingParksWhileCollecting() throws Exception {
+        BloomFilterRedis<String> batched = new BloomFilterRedis<>(new FilterBuilder(10_000, 0.01)
+            .hashFunction(HashMethod.Murmur3)
+            .redisBacked(true)
+            .name("microbatch-idle")
+            .redisHost(Helper.host)
+            .redisPort(Helper.port)
+            .overwriteIfExists(true)
+            .redisMicroBatching(1, 100, Duration.ofMillis(5))
+            .complete());
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        //Every single call waits the full delay for further calls
+        long start = System.nanoTime();
+        for (int i = 0; i < 50; i++) {
+            batched.add("element" + i);
+        }
+        long wall = System.nanoTime() - start;
+        long cpu = 0;
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (info != null && info.getThreadName().startsWith("redis-pipeline-")) {
+                cpu += threads.getThreadCpuTime(info.getThreadId());
+            }
+        }
+        assertTrue("Dispatcher used " + cpu + "ns CPU in " + wall + "ns", cpu < wall / 4);
+
+        batched.close();
+        Thread.sleep(100);
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+            assertFalse(info != null && info.getThreadName().startsWith("redis-pipeline-"));
+        }
+        new BloomFilterRedis<>(new FilterBuilder(10_000, 0.01).hashFunction(HashMethod.Murmur3)
+            .redisBacked(true)
+            .name("microbatch-idle")
+            .redisHost(Helper.host)
+            .redisPort(Helper.port)
+            .complete()).remove();
+    }
+
+    @Test
+    public void countingAddRemove() {
+        countingAddRemove(RedisCounterStorage.HASH);
+        countingAddRemove(RedisCounterStorage.BITFIELD);
+    }
+
+    private void countingAddRemove(RedisCounterStorage storage) {
+        CountingBloomFilterRedis<String> filter = new CountingBloomFilterRedis<>(new FilterBuilder(10_000, 0.01)
+            .hashFunction(HashMethod.Murmur3)
+            .redisBacked(true)
+            .name("asynccbf")
+            .redisHost(Helper.host)
+            .redisPort(Helper.port)
+            .overwriteIfExists(true)
+            .redisCounterStorage(storage)
+            .complete());
+        try (AsyncCountingBloomFilterRedis<String> async = new AsyncCountingBloomFilterRedis<>(filter, 2, 100)) {
+            List<CompletableFuture<Long>> added = IntStream.range(0, 10)
+                .mapToObj(i -> async.addAndEstimateCountAsync("element")).collect(Collectors.toList());
+            CompletableFuture.allOf(added.toArray(new CompletableFuture[0])).join();
+            assertEquals(10L, (long) async.getEstimatedCountAsync("element").join());
+            assertEquals(10L, filter.getEstimatedCount("element"));
+            assertTrue(async.addAsync("other").join());
+
+            for (int i = 9; i >= 0; i--) {
+                assertEquals(i, (long) async.removeAndEstimateCountAsync("element").join());
+            }
+            assertFalse(async.containsAsync("element").join());
+            assertTrue(async.containsAsync("other").join());
+            assertEquals(0L, (long) async.removeAndEstimateCountAsync("other").join());
+            assertTrue(filter.isEmpty());
+        }
+        filter.remove();
+    }
+}
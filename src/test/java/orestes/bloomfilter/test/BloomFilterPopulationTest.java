@@ -15,6 +15,7 @@ import java.util.Collection;
 import java.util.List;
 
 import static orestes.bloomfilter.test.helper.Helper.*;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 
@@ -203,5 +204,25 @@ public class BloomFilterPopulationTest {
         assertTrue(!wereAdded.get(1));
     }
 
+    @Test
+    public void populationStaysExactAcrossUnionAndClear() {
+        for (int i = 0; i < 300; i++) {
+            filter.add("element" + i);
+        }
+        assertEquals(BloomFilter.population(filter.getBitSet(), filter.config()), filter.getEstimatedPopulation());
+
+        if (!counting) {
+            BloomFilter<String> other = Helper.createFilter(defaultElements, defaultError, HashMethod.Murmur3);
+            other.add("other");
+            assertTrue(filter.union(other));
+            assertEquals(BloomFilter.population(filter.getBitSet(), filter.config()), filter.getEstimatedPopulation());
+            assertTrue(filter.intersect(other));
+            assertEquals(BloomFilter.population(filter.getBitSet(), filter.config()), filter.getEstimatedPopulation());
+        }
 
+        filter.clear();
+        assertEquals(0, Math.round(filter.getEstimatedPopulation()));
+        filter.add("after clear");
+        assertEquals(BloomFilter.population(filter.getBitSet(), filter.config()), filter.getEstimatedPopulation());
+    }
 }
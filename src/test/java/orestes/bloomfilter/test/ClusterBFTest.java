@@ -0,0 +1,82 @@
+package orestes.bloomfilter.test;
+
+import orestes.bloomfilter.FilterBuilder;
+import orestes.bloomfilter.HashProvider.HashMethod;
+import orestes.bloomfilter.redis.ClusterBloomFilterRedis;
+import orestes.bloomfilter.test.helper.Helper;
+import org.junit.Test;
+import redis.clients.util.JedisClusterCRC16;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ClusterBFTest {
+
+    private static ClusterBloomFilterRedis<String> createFilter(String name, int segments, boolean overwrite) {
+        return new ClusterBloomFilterRedis<>(new FilterBuilder(1_000, 0.01).hashFunction(HashMethod.Murmur3)
+            .name(name)
+            .redisBacked(true)
+            .redisHost(Helper.host)
+            .redisPort(Helper.clusterPort)
+            .overwriteIfExists(overwrite)
+            .complete(), segments);
+    }
+
+    @Test
+    public void segmentsAreSpreadOverSlots() {
+        ClusterBloomFilterRedis<String> filter = createFilter("cluster-spread", 16, true);
+        Set<Integer> slots = Arrays.stream(filter.getRedisBitSets())
+            .map(b -> JedisClusterCRC16.getSlot(b.getRedisKey())).collect(Collectors.toSet());
+        assertTrue(slots.size() > 1);
+        filter.remove();
+    }
+
+    @Test
+    public void addAndContains() {
+        ClusterBloomFilterRedis<String> filter = createFilter("cluster-bf", 8, true);
+        List<String> first = IntStream.range(0, 2_000).mapToObj(i -> "first" + i).collect(Collectors.toList());
+        List<String> second = IntStream.range(0, 2_000).mapToObj(i -> "second" + i).collect(Collectors.toList());
+        assertTrue(filter.isEmpty());
+        first.forEach(filter::add);
+        assertTrue(filter.addAll(second).stream().filter(b -> b).count() > 1_900);
+        assertTrue(filter.containsAll(first));
+        assertTrue(filter.contains(second).stream().allMatch(b -> b));
+        assertFalse(filter.add("first0"));
+        assertEquals(Arrays.asList(false, false), filter.addAll(Arrays.asList("first1", "second1")));
+
+        long falsePositives = IntStream.range(0, 10_000).mapToObj(i -> "absent" + i).filter(filter::contains).count();
+        assertTrue(falsePositives < 300);
+        assertEquals(4_000, filter.getEstimatedPopulation(), 200);
+
+        //Every segment holds the bits of its own elements only
+        BitSet bits = filter.getBitSet();
+        for (String element : first) {
+            int offset = filter.segment(element.getBytes()) * filter.config().size();
+            for (int position : filter.hash(element)) {
+                assertTrue(bits.get(offset + position));
+            }
+        }
+        filter.remove();
+    }
+
+    @Test
+    public void loadExistingFilter() {
+        ClusterBloomFilterRedis<String> filter = createFilter("cluster-load", 4, true);
+        filter.add("cow");
+        ClusterBloomFilterRedis<String> loaded = createFilter("cluster-load", 16, false);
+        assertEquals(4, loaded.getSegments());
+        assertTrue(loaded.contains("cow"));
+        assertEquals(filter.getBitSet(), loaded.getBitSet());
+        loaded.clear();
+        assertTrue(filter.isEmpty());
+        filter.remove();
+    }
+}
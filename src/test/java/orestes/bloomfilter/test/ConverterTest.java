@@ -11,6 +11,7 @@ import org.junit.Test;
 import java.util.Arrays;
 import java.util.UUID;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 
@@ -33,6 +34,17 @@ public class ConverterTest {
         assertTrue(otherBf.contains("Ululu"));
     }
 
+    @Test
+    public void testSeededJSON() throws Exception {
+        BloomFilter<String> bf = new FilterBuilder().expectedElements(50).falsePositiveProbability(0.1).seed(42).buildBloomFilter();
+        bf.add("Ululu");
+        JsonElement json = BloomFilterConverter.toJson(bf);
+        BloomFilter<String> otherBf = BloomFilterConverter.fromJson(json);
+        assertEquals(42, otherBf.config().seed());
+        assertTrue(otherBf.contains("Ululu"));
+        assertTrue(otherBf.compatible(bf));
+    }
+
     @Ignore
     @Test
     public void testMurmur3() throws Exception {
@@ -3,39 +3,57 @@ package orestes.bloomfilter.test;
 import orestes.bloomfilter.CountingBloomFilter;
 import orestes.bloomfilter.FilterBuilder;
 import orestes.bloomfilter.HashProvider.HashMethod;
+import orestes.bloomfilter.redis.CountingBloomFilterRedis;
+import orestes.bloomfilter.redis.RedisCounterStorage;
+import orestes.bloomfilter.test.helper.Helper;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static orestes.bloomfilter.test.helper.Helper.createCountingFilter;
-import static orestes.bloomfilter.test.helper.Helper.createCountingRedisFilter;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(Parameterized.class)
 public class CountingBFTest {
     private final boolean redis;
+    private final RedisCounterStorage storage;
     private static final String name = "CountingTests";
 
     @Parameterized.Parameters(name = "Counting Bloom Filter test with {0}")
     public static Collection<Object[]> data() throws Exception {
-        Object[][] data = {{"memory", false}, {"redis", true}};
+        Object[][] data = {{"memory", false, RedisCounterStorage.HASH}, {"redis", true, RedisCounterStorage.HASH},
+            {"redis packed", true, RedisCounterStorage.BITFIELD}};
         return Arrays.asList(data);
     }
 
-    public CountingBFTest(String name, boolean redis) {
+    public CountingBFTest(String name, boolean redis, RedisCounterStorage storage) {
         this.redis = redis;
+        this.storage = storage;
     }
 
     private CountingBloomFilter<String> createFilter(String name, int n, double p, HashMethod hm) {
         if (!redis) {
             return createCountingFilter(n, p, hm);
         } else {
-            return createCountingRedisFilter(name, n, p, hm, true);
+            return new FilterBuilder(n, p).hashFunction(hm)
+                .redisBacked(true)
+                .name(name)
+                .redisHost(Helper.host)
+                .redisPort(Helper.port)
+                .overwriteIfExists(true)
+                .redisCounterStorage(storage)
+                .buildCountingBloomFilter();
         }
     }
 
@@ -44,7 +62,8 @@ public class CountingBFTest {
         int m = 100000;
         int k = 10;
         Stream.of(4, 8, 16, 32, 55, 64).forEach(bits -> {
-            CountingBloomFilter<String> filter = new FilterBuilder(m, k).name(name).redisBacked(redis).countingBits(bits).buildCountingBloomFilter();
+            CountingBloomFilter<String> filter = new FilterBuilder(m, k).name(name).redisBacked(redis).countingBits(bits)
+                .overwriteIfExists(true).redisCounterStorage(storage).buildCountingBloomFilter();
             filter.clear();
 
             long first = filter.addAndEstimateCount("first");
@@ -66,6 +85,85 @@ public class CountingBFTest {
 
     }
 
+    @Test
+    public void testBatchAddRemove() {
+        CountingBloomFilter<String> b = createFilter(name + "batch", 10_000, 0.001, HashMethod.Murmur3);
+        assertEquals(Arrays.asList(1L, 1L, 2L, 1L, 3L), b.addAllAndEstimateCount(Arrays.asList("a", "b", "a", "c", "a")));
+        assertEquals(Arrays.asList(2L, 1L, 0L), b.removeAllAndEstimateCount(Arrays.asList("a", "a", "b")));
+        assertTrue(b.contains("a"));
+        assertTrue(b.contains("c"));
+        assertFalse(b.contains("b"));
+        assertEquals(Arrays.asList(true, true), b.removeAll(Arrays.asList("a", "c")));
+        assertTrue(b.isEmpty());
+
+        List<String> elements = IntStream.range(0, 5_000).mapToObj(i -> "element" + i).collect(Collectors.toList());
+        List<Long> counts = b.addAllAndEstimateCount(elements);
+        assertEquals(elements.size(), counts.size());
+        assertTrue(counts.stream().allMatch(c -> c >= 1));
+        assertTrue(b.containsAll(elements));
+        b.removeAll(elements);
+        assertTrue(b.isEmpty());
+        b.remove();
+    }
+
+    @Test
+    public void testConcurrentRemoveClampsAtZero() throws Exception {
+        if (!redis) {
+            return;
+        }
+        CountingBloomFilter<String> b = createFilter(name + "clamp", 10_000, 0.01, HashMethod.Murmur3);
+        assertEquals(0, b.removeAndEstimateCount("absent"));
+        assertEquals(0, b.getEstimatedCount("absent"));
+        assertEquals(1, b.addAndEstimateCount("absent"));
+
+        ExecutorService exec = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(exec.submit(() -> {
+                for (int i = 0; i < 50; i++) {
+                    b.add("shared");
+                    b.remove("shared");
+                    b.remove("shared");
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        exec.shutdown();
+        assertTrue(b.remove("absent"));
+        assertEquals(0, b.getEstimatedCount("shared"));
+        assertTrue(b.isEmpty());
+        b.remove();
+    }
+
+    @Test
+    public void testPackedCounterSaturation() {
+        if (storage != RedisCounterStorage.BITFIELD) {
+            return;
+        }
+        CountingBloomFilterRedis<String> filter = (CountingBloomFilterRedis<String>) new FilterBuilder(1000, 5)
+            .name(name).redisBacked(true).countingBits(4).overwriteIfExists(true)
+            .redisCounterStorage(storage).<String>buildCountingBloomFilter();
+        AtomicInteger overflows = new AtomicInteger();
+        filter.setOverflowHandler(overflows::incrementAndGet);
+        for (int i = 1; i <= 20; i++) {
+            assertEquals(Math.min(i, 15), filter.addAndEstimateCount("sat"));
+        }
+        assertEquals(6, overflows.get());
+        assertEquals(15, filter.getEstimatedCount("sat"));
+        assertEquals(14, filter.removeAndEstimateCount("sat"));
+
+        //Counters never drop below zero
+        filter.clear();
+        assertEquals(0, filter.removeAndEstimateCount("absent"));
+        assertEquals(1, filter.addAndEstimateCount("absent"));
+        assertTrue(filter.contains("absent"));
+        assertTrue(filter.remove("absent"));
+        assertTrue(filter.isEmpty());
+        filter.remove();
+    }
+
     @Test
     public void testCardinality() {
         int n = 1000;
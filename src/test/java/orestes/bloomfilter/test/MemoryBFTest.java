@@ -3,7 +3,10 @@ package orestes.bloomfilter.test;
 import orestes.bloomfilter.BloomFilter;
 import orestes.bloomfilter.CountingBloomFilter;
 import orestes.bloomfilter.FilterBuilder;
+import orestes.bloomfilter.HashMethodSelector;
 import orestes.bloomfilter.HashProvider.HashMethod;
+import orestes.bloomfilter.ProbeStrategy;
+import orestes.bloomfilter.memory.AutoHashBloomFilter;
 import orestes.bloomfilter.memory.BloomFilterMemory;
 import orestes.bloomfilter.memory.CountingBloomFilterMemory;
 import org.apache.commons.math.stat.inference.ChiSquareTestImpl;
@@ -11,10 +14,14 @@ import org.junit.Test;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static orestes.bloomfilter.test.helper.Helper.createCountingFilter;
 import static orestes.bloomfilter.test.helper.Helper.createFilter;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class MemoryBFTest {
@@ -257,4 +264,65 @@ public class MemoryBFTest {
         assertTrue(counting.contains("bar"));
         IntStream.range(0,100).forEach(i -> counting.add("same object"));
     }
+
+    @Test
+    public void sortedProbesEqualHashOrder() {
+        List<String> first = IntStream.range(0, 2000).mapToObj(i -> "first" + i).collect(Collectors.toList());
+        List<String> second = IntStream.range(0, 2000).mapToObj(i -> "second" + i).collect(Collectors.toList());
+        //A small filter with many hashes produces duplicate positions within an element and across the batch
+        for (HashMethod hm : new HashMethod[]{HashMethod.Murmur3KirschMitzenmacher, HashMethod.FNVWithLCG}) {
+            FilterBuilder config = new FilterBuilder(5000, 10).hashFunction(hm);
+            BloomFilter<String> hashOrder = config.clone().buildBloomFilter();
+            BloomFilter<String> sorted = config.clone().probeStrategy(ProbeStrategy.SORTED).buildBloomFilter();
+
+            assertEquals(hashOrder.addAll(first), sorted.addAll(first));
+            assertEquals(hashOrder.contains(second), sorted.contains(second));
+            second.forEach(e -> assertEquals(hashOrder.add(e), sorted.add(e)));
+            first.forEach(e -> assertEquals(hashOrder.contains(e), sorted.contains(e)));
+            assertEquals(hashOrder.getBitSet(), sorted.getBitSet());
+        }
+    }
+
+    @Test
+    public void autoHashMethodPinsAfterSample() throws Exception {
+        FilterBuilder config = new FilterBuilder(10_000, 0.01).hashFunction(HashMethod.AUTO).autoSampleSize(500);
+        BloomFilter<String> filter = config.buildBloomFilter();
+        assertTrue(filter instanceof AutoHashBloomFilter);
+        List<String> elements = IntStream.range(0, 2_000).mapToObj(i -> "key" + i).collect(Collectors.toList());
+        assertTrue(filter.isEmpty());
+        assertTrue(filter.addAll(elements.subList(0, 499)).stream().allMatch(b -> b));
+        assertFalse(filter.add(elements.get(0)));
+        assertFalse(filter.contains("absent"));
+        elements.forEach(filter::add);
+
+        ((AutoHashBloomFilter<String>) filter).pin();
+        assertTrue(((AutoHashBloomFilter<String>) filter).isPinned());
+        HashMethod pinned = filter.config().hashMethod();
+        assertTrue(HashMethodSelector.CANDIDATES.contains(pinned));
+        assertTrue(filter.containsAll(elements));
+        //The builder stays AUTO for the next filter
+        assertEquals(HashMethod.AUTO, config.hashMethod());
+        assertTrue(config.buildBloomFilter() instanceof AutoHashBloomFilter);
+
+        BloomFilter<String> reference = new FilterBuilder(10_000, 0.01).hashFunction(pinned)
+            .buildBloomFilter();
+        reference.addAll(elements);
+        assertEquals(reference.getBitSet(), filter.getBitSet());
+    }
+
+    @Test
+    public void autoHashMethodWithSample() {
+        List<byte[]> sample = IntStream.range(0, 1_000).mapToObj(i -> ("user:" + i).getBytes())
+            .collect(Collectors.toList());
+        FilterBuilder config = new FilterBuilder(10_000, 0.01).hashFunction(HashMethod.AUTO).autoSample(sample);
+        BloomFilter<String> filter = config.buildBloomFilter();
+        assertFalse(filter instanceof AutoHashBloomFilter);
+        assertTrue(HashMethodSelector.CANDIDATES.contains(config.hashMethod()));
+
+        FilterBuilder counting = new FilterBuilder(10_000, 0.01).hashFunction(HashMethod.AUTO);
+        assertEquals(HashMethodSelector.FALLBACK, counting.buildCountingBloomFilter().config().hashMethod());
+        //The builder is not pinned and still builds AUTO filters
+        assertEquals(HashMethod.AUTO, counting.hashMethod());
+        assertTrue(counting.buildBloomFilter() instanceof AutoHashBloomFilter);
+    }
 }
@@ -3,8 +3,11 @@ package orestes.bloomfilter.test;
 import com.google.common.hash.Hashing;
 import junit.framework.TestCase;
 import orestes.bloomfilter.HashProvider;
+import orestes.bloomfilter.HashProvider.HashFunction;
+import orestes.bloomfilter.HashProvider.HashMethod;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.Random;
 import java.util.stream.IntStream;
 
@@ -29,4 +32,53 @@ public class MurmurTest {
             });
         });
     }
+
+    @Test
+    public void testLongHashEqualsByteHash() {
+        new Random().longs(1000).forEach(l ->
+                TestCase.assertEquals(HashProvider.murmur3(42, HashProvider.toBytes(l)), HashProvider.murmur3(42, l)));
+    }
+
+    @Test
+    public void testBatchHashesEqualSingleHashes() {
+        Random random = new Random();
+        int m = 10_000;
+        int k = 7;
+        byte[][] values = new byte[100][];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new byte[random.nextInt(40)];
+            random.nextBytes(values[i]);
+        }
+        long[] longs = random.longs(100).toArray();
+
+        for (HashMethod hm : HashMethod.values()) {
+            HashFunction hf = hm.getHashFunction();
+            int[] batch = hf.hash(values, m, k);
+            int[] longBatch = hf.hash(longs, m, k);
+            for (int i = 0; i < values.length; i++) {
+                TestCase.assertTrue(hm.name(), Arrays.equals(hf.hash(values[i], m, k), Arrays.copyOfRange(batch, i * k, (i + 1) * k)));
+                TestCase.assertTrue(hm.name(), Arrays.equals(hf.hash(HashProvider.toBytes(longs[i]), m, k), Arrays.copyOfRange(longBatch, i * k, (i + 1) * k)));
+            }
+        }
+    }
+
+    @Test
+    public void testSeededHashFamilies() {
+        Random random = new Random();
+        int m = 100_000;
+        int k = 5;
+        for (HashMethod hm : HashMethod.values()) {
+            int differing = 0;
+            for (int i = 0; i < 100; i++) {
+                byte[] value = new byte[1 + random.nextInt(40)];
+                random.nextBytes(value);
+                int[] unseeded = hm.getHashFunction().hash(value, m, k);
+                TestCase.assertTrue(hm.name(), Arrays.equals(unseeded, hm.getHashFunction(0).hash(value, m, k)));
+                if (!Arrays.equals(hm.getHashFunction(1).hash(value, m, k), hm.getHashFunction(2).hash(value, m, k))) {
+                    differing++;
+                }
+            }
+            TestCase.assertTrue(hm.name() + " ignores the seed", differing > 90);
+        }
+    }
 }
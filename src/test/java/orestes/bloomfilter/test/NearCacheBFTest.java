@@ -0,0 +1,137 @@
+package orestes.bloomfilter.test;
+
+import orestes.bloomfilter.FilterBuilder;
+import orestes.bloomfilter.HashProvider.HashMethod;
+import orestes.bloomfilter.redis.NearCacheBloomFilterRedis;
+import orestes.bloomfilter.redis.helper.RedisKeys;
+import orestes.bloomfilter.test.helper.Helper;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NearCacheBFTest {
+
+    private static NearCacheBloomFilterRedis<String> createFilter(boolean overwrite, Duration refresh,
+                                                                  Duration maxStaleness) {
+        return new NearCacheBloomFilterRedis<>(new FilterBuilder(100_000, 0.01).hashFunction(HashMethod.Murmur3)
+            .redisBacked(true)
+            .name("nearcache")
+            .redisHost(Helper.host)
+            .redisPort(Helper.port)
+            .overwriteIfExists(overwrite)
+            .complete(), refresh, maxStaleness, 1024);
+    }
+
+    @Test
+    public void readsLocallyAndRefreshesChangedChunks() {
+        NearCacheBloomFilterRedis<String> writer = createFilter(true, Duration.ofHours(1), Duration.ofHours(1));
+        NearCacheBloomFilterRedis<String> reader = createFilter(false, Duration.ofHours(1), Duration.ofHours(1));
+        List<String> elements = IntStream.range(0, 1_000).mapToObj(i -> "element" + i).collect(Collectors.toList());
+
+        writer.addAll(elements.subList(0, 500));
+        writer.add("single");
+        assertTrue(writer.containsAll(elements.subList(0, 500)));
+        assertTrue(writer.contains("single"));
+        //The reader has not refreshed yet
+        assertFalse(reader.contains("single"));
+
+        reader.refresh();
+        assertTrue(reader.containsAll(elements.subList(0, 500)));
+        assertTrue(reader.contains("single"));
+        assertEquals(writer.getBitSet(), reader.getLocalFilter().getBitSet());
+
+        reader.addAll(elements.subList(500, 1_000));
+        writer.refresh();
+        assertTrue(writer.containsAll(elements));
+
+        writer.clear();
+        reader.refresh();
+        assertTrue(reader.getLocalFilter().isEmpty());
+        reader.remove();
+        writer.remove();
+    }
+
+    @Test
+    public void bumpsVersionsOfChangedChunksWithTheBits() {
+        NearCacheBloomFilterRedis<String> writer = createFilter(true, Duration.ofHours(1), Duration.ofHours(1));
+        RedisKeys keys = new RedisKeys("nearcache");
+        assertTrue(writer.add("cow"));
+        Map<String, String> versions = Helper.getPool().safelyReturn(jedis -> jedis.hgetAll(keys.VERSIONS_KEY));
+        for (int position : writer.hash("cow")) {
+            assertEquals("1", versions.get(String.valueOf(position / 8 / 1024)));
+        }
+        //Adding the same element again changes no bit and no version
+        assertFalse(writer.add("cow"));
+        assertEquals(Collections.singletonList(false), writer.addAll(Collections.singletonList("cow")));
+        assertEquals(versions, Helper.getPool().safelyReturn(jedis -> jedis.hgetAll(keys.VERSIONS_KEY)));
+        writer.remove();
+    }
+
+    @Test
+    public void fallsBackToRedisWhenStale() throws Exception {
+        NearCacheBloomFilterRedis<String> writer = createFilter(true, Duration.ofHours(1), Duration.ofHours(1));
+        NearCacheBloomFilterRedis<String> reader = createFilter(false, Duration.ofHours(1), Duration.ofMillis(1));
+        writer.add("cow");
+        Thread.sleep(5);
+        assertFalse(reader.isFresh());
+        assertTrue(reader.contains("cow"));
+        assertFalse(reader.getLocalFilter().contains("cow"));
+
+        NearCacheBloomFilterRedis<String> refreshing = createFilter(false, Duration.ofMillis(10), Duration.ofHours(1));
+        writer.add("bison");
+        Thread.sleep(200);
+        assertTrue(refreshing.getLocalFilter().contains("bison"));
+        refreshing.remove();
+        writer.remove();
+    }
+
+    @Test
+    public void refreshesFromReadSlave() {
+        NearCacheBloomFilterRedis<String> writer = createFilter(true, Duration.ofHours(1), Duration.ofHours(1));
+        NearCacheBloomFilterRedis<String> reader = new NearCacheBloomFilterRedis<>(new FilterBuilder(100_000, 0.01)
+            .hashFunction(HashMethod.Murmur3)
+            .redisBacked(true)
+            .name("nearcache")
+            .redisHost(Helper.host)
+            .redisPort(Helper.port)
+            .addReadSlave(Helper.host, Helper.slavePort)
+            .complete(), Duration.ofHours(1), Duration.ofHours(1), 1024);
+        List<String> elements = IntStream.range(0, 1_000).mapToObj(i -> "element" + i).collect(Collectors.toList());
+
+        writer.addAll(elements.subList(0, 500));
+        writer.getRedisPool().safelyDo(jedis -> jedis.waitReplicas(1, 1_000));
+        reader.refresh();
+        assertTrue(reader.getLocalFilter().containsAll(elements.subList(0, 500)));
+
+        writer.addAll(elements.subList(500, 1_000));
+        writer.getRedisPool().safelyDo(jedis -> jedis.waitReplicas(1, 1_000));
+        reader.refresh();
+        assertTrue(reader.getLocalFilter().containsAll(elements));
+        reader.close();
+        writer.remove();
+    }
+
+    @Test
+    public void closeStopsRefreshingWithoutRemoving() throws Exception {
+        NearCacheBloomFilterRedis<String> writer = createFilter(true, Duration.ofHours(1), Duration.ofHours(1));
+        NearCacheBloomFilterRedis<String> reader = createFilter(false, Duration.ofMillis(10), Duration.ofHours(1));
+        writer.add("cow");
+        reader.refresh();
+        reader.close();
+        writer.add("bison");
+        Thread.sleep(100);
+        assertTrue(reader.getLocalFilter().contains("cow"));
+        assertFalse(reader.getLocalFilter().contains("bison"));
+        assertTrue(writer.getRedisBitSet().isAllSet(writer.hash("bison")));
+        writer.remove();
+    }
+}
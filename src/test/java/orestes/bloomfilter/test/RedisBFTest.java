@@ -149,6 +149,23 @@ public class RedisBFTest {
         cleanupRedis();
     }
 
+    @Test
+    public void loadSeededFilter() {
+        String name = "loadSeededTest";
+        FilterBuilder builder = new FilterBuilder(1000, 0.01).name(name).redisHost(host).redisPort(port);
+
+        cleanupRedis();
+        BloomFilter<String> first = builder.clone().seed(42).overwriteIfExists(true).buildBloomFilter();
+        first.add("simpletest");
+
+        BloomFilter<String> loaded = builder.clone().buildBloomFilter();
+        assertEquals(42, loaded.config().seed());
+        assertTrue(loaded.contains("simpletest"));
+        assertTrue(loaded.compatible(first));
+
+        cleanupRedis();
+    }
+
     @Test
     public void removeExistingFilter() {
         int n = 1000;
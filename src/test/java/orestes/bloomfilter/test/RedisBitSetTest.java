@@ -1,15 +1,22 @@
 package orestes.bloomfilter.test;
 
 import orestes.bloomfilter.redis.RedisBitSet;
+import orestes.bloomfilter.redis.RedisCommandMode;
 import orestes.bloomfilter.redis.helper.RedisPool;
 import orestes.bloomfilter.test.helper.Helper;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.List;
 import java.util.Random;
 import java.util.stream.IntStream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.not;
 import static org.junit.Assert.assertThat;
@@ -73,5 +80,88 @@ public class RedisBitSetTest {
         assertEquals(b1.cardinality(), b2.cardinality());
     }
 
+    @Test
+    public void testChunkedBulkReads() {
+        BitSet bits = new BitSet();
+        IntStream.range(0, 100).forEach(i -> bits.set(i * 3));
+        RedisBitSet rb = new RedisBitSet(Helper.getPool(), "chunked", 1000, RedisCommandMode.TRANSACTIONAL, 7);
+        rb.overwriteBitSet(bits);
+
+        int[] indexes = IntStream.range(0, 300).toArray();
+        Boolean[] bulk = rb.getBulk(indexes);
+        for (int i : indexes) {
+            assertEquals(bits.get(i), bulk[i]);
+        }
+        //Every third element has all bits set
+        List<Boolean> contains = rb.isAllSetBatch(IntStream.range(0, 100).flatMap(i -> IntStream.of(i * 3, i * 3, i)).toArray(), 3);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i % 3 == 0, contains.get(i));
+        }
+        rb.clear();
+    }
 
+    @Test
+    public void testWordLevelConversion() {
+        Random rnd = new Random(42);
+        for (int length : new int[]{0, 1, 7, 8, 9, 63, 64, 65, 1000, 4099}) {
+            BitSet bits = new BitSet();
+            IntStream.range(0, length).filter(i -> rnd.nextBoolean()).forEach(bits::set);
+            if (length > 0) {
+                bits.set(length - 1);
+            }
+            //Reference: bit i is bit 7 - i % 8 of byte i / 8
+            byte[] expected = new byte[bits.length() / 8 + 1];
+            bits.stream().forEach(i -> expected[i / 8] |= 1 << (7 - i % 8));
+
+            byte[] bytes = RedisBitSet.toByteArrayReverse(bits);
+            assertArrayEquals(expected, bytes);
+            assertEquals(bits, RedisBitSet.fromByteArrayReverse(bytes));
+
+            //Streaming in chunks of 16 bytes
+            long[] words = new long[(bytes.length + 7) / 8];
+            for (int from = 0; from < bytes.length; from += 16) {
+                int chunk = Math.min(16, bytes.length - from);
+                byte[] out = new byte[chunk];
+                RedisBitSet.toByteArrayReverse(bits.toLongArray(), from, out, chunk);
+                assertArrayEquals(Arrays.copyOfRange(expected, from, from + chunk), out);
+                RedisBitSet.fromByteArrayReverse(out, chunk, words, from / 8);
+            }
+            assertEquals(bits, BitSet.valueOf(words));
+        }
+    }
+
+    @Test
+    public void testChunkedTransfer() throws Exception {
+        Random rnd = new Random(7);
+        BitSet bits = new BitSet();
+        IntStream.range(0, 10_000).filter(i -> rnd.nextInt(10) == 0).forEach(bits::set);
+        RedisBitSet rb = new RedisBitSet(Helper.getPool(), "transfer", 10_000);
+        byte[] expected = RedisBitSet.toByteArrayReverse(bits);
+
+        rb.overwriteBitSet(bits, 64, 3);
+        assertArrayEquals(expected, rb.toByteArray());
+        assertEquals(bits, rb.asBitSet(64, 1));
+        assertEquals(bits, rb.asBitSet(64, 3));
+        //Chunk sizes are aligned to words
+        assertEquals(bits, rb.asBitSet(13, 2));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(expected.length, rb.transferTo(out, 100));
+        assertArrayEquals(expected, out.toByteArray());
+
+        //Overwriting with a shorter bit string leaves no stale bits
+        BitSet shorter = bits.get(0, 1_000);
+        rb.overwriteBitSet(shorter, 64, 2);
+        assertEquals(shorter, rb.asBitSet());
+
+        RedisBitSet copy = new RedisBitSet(Helper.getPool(), "transfercopy", 10_000);
+        assertEquals(expected.length, copy.transferFrom(new ByteArrayInputStream(expected), 40));
+        assertEquals(bits, copy.asBitSet());
+        copy.transferFrom(new ByteArrayInputStream(new byte[0]), 40);
+        assertTrue(copy.isEmpty());
+        //A missing key reads as zeros
+        assertArrayEquals(new byte[1_250], copy.toByteArray());
+        copy.clear();
+        rb.clear();
+    }
 }
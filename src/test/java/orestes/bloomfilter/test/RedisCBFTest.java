@@ -2,14 +2,21 @@ package orestes.bloomfilter.test;
 
 import orestes.bloomfilter.CountingBloomFilter;
 import orestes.bloomfilter.FilterBuilder;
+import orestes.bloomfilter.redis.CountingBloomFilterRedis;
+import orestes.bloomfilter.redis.helper.RedisKeys;
+import orestes.bloomfilter.test.helper.Helper;
 import org.junit.Test;
+import redis.clients.util.SafeEncoder;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class RedisCBFTest {
@@ -63,4 +70,70 @@ public class RedisCBFTest {
         }
         assertTrue(!false_negative.get());
     }
+
+    @Test
+    public void migratesLegacyCounterFields() {
+        CountingBloomFilterRedis<String> filter = new CountingBloomFilterRedis<>(new FilterBuilder(1000, 0.01)
+            .name("legacy-counters")
+            .redisBacked(true)
+            .redisHost(Helper.host)
+            .redisPort(Helper.port)
+            .overwriteIfExists(true));
+        RedisKeys keys = new RedisKeys("legacy-counters");
+        List<String> elements = IntStream.range(0, 50).mapToObj(i -> "legacy" + i).collect(Collectors.toList());
+        //Written the way older versions named the counter fields
+        Helper.getPool().safelyDo(jedis -> {
+            for (String element : elements) {
+                for (int position : filter.hash(element)) {
+                    byte[] bytes = {(byte) (position >>> 24), (byte) (position >>> 16), (byte) (position >>> 8),
+                        (byte) position};
+                    jedis.hincrBy(SafeEncoder.encode(keys.COUNTS_KEY), SafeEncoder.encode(SafeEncoder.encode(bytes)), 1);
+                    jedis.setbit(keys.BITS_KEY, position, true);
+                }
+            }
+        });
+        assertTrue(filter.containsAll(elements));
+
+        assertTrue(filter.migrateLegacyCounters() > 0);
+        assertEquals(0, filter.migrateLegacyCounters());
+        elements.forEach(e -> assertTrue(filter.getEstimatedCount(e) >= 1));
+        //Without the migration, removing would clear bits of the remaining elements
+        filter.removeAll(elements.subList(0, 25));
+        assertTrue(filter.containsAll(elements.subList(25, 50)));
+        filter.remove();
+    }
+
+    @Test
+    public void migratesLegacyFilterOnLoad() {
+        FilterBuilder builder = new FilterBuilder(1000, 0.01)
+            .name("legacy-filter")
+            .redisBacked(true)
+            .redisHost(Helper.host)
+            .redisPort(Helper.port)
+            .overwriteIfExists(true);
+        CountingBloomFilterRedis<String> created = new CountingBloomFilterRedis<>(builder);
+        RedisKeys keys = new RedisKeys("legacy-filter");
+        List<String> elements = IntStream.range(0, 50).mapToObj(i -> "legacy" + i).collect(Collectors.toList());
+        //Written the way older versions named the counter fields and persisted the config
+        Helper.getPool().safelyDo(jedis -> {
+            for (String element : elements) {
+                for (int position : created.hash(element)) {
+                    byte[] bytes = {(byte) (position >>> 24), (byte) (position >>> 16), (byte) (position >>> 8),
+                        (byte) position};
+                    jedis.hincrBy(SafeEncoder.encode(keys.COUNTS_KEY), SafeEncoder.encode(SafeEncoder.encode(bytes)), 1);
+                    jedis.setbit(keys.BITS_KEY, position, true);
+                }
+            }
+            jedis.hdel("legacy-filter", RedisKeys.COUNTER_FORMAT_KEY);
+        });
+
+        CountingBloomFilterRedis<String> loaded = new CountingBloomFilterRedis<>(builder.clone().overwriteIfExists(false));
+        assertEquals(RedisKeys.COUNTER_FORMAT,
+            Helper.getPool().safelyReturn(jedis -> jedis.hget("legacy-filter", RedisKeys.COUNTER_FORMAT_KEY)));
+        assertEquals(0, loaded.migrateLegacyCounters());
+        elements.forEach(e -> assertTrue(loaded.getEstimatedCount(e) >= 1));
+        loaded.removeAll(elements.subList(0, 25));
+        assertTrue(loaded.containsAll(elements.subList(25, 50)));
+        loaded.remove();
+    }
 }
@@ -0,0 +1,140 @@
+package orestes.bloomfilter.test;
+
+import orestes.bloomfilter.BloomFilter;
+import orestes.bloomfilter.FilterBuilder;
+import orestes.bloomfilter.HashProvider.HashMethod;
+import orestes.bloomfilter.redis.AsyncBloomFilterRedis;
+import orestes.bloomfilter.redis.BloomFilterRedis;
+import orestes.bloomfilter.redis.RedisCommandMode;
+import orestes.bloomfilter.test.helper.Helper;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(Parameterized.class)
+public class RedisCommandModeTest {
+    private final RedisCommandMode mode;
+
+    @Parameterized.Parameters(name = "Redis Bloom Filter with {0} commands")
+    public static Collection<Object[]> data() {
+        return Arrays.stream(RedisCommandMode.values()).map(m -> new Object[]{m}).collect(Collectors.toList());
+    }
+
+    public RedisCommandModeTest(RedisCommandMode mode) {
+        this.mode = mode;
+    }
+
+    private BloomFilterRedis<String> createFilter(String name) {
+        return new BloomFilterRedis<>(new FilterBuilder(10_000, 0.01).hashFunction(HashMethod.Murmur3)
+            .redisBacked(true)
+            .name(name)
+            .redisHost(Helper.host)
+            .redisPort(Helper.port)
+            .overwriteIfExists(true)
+            .redisCommandMode(mode)
+            .complete());
+    }
+
+    @Test
+    public void behavesLikeMemoryFilter() {
+        BloomFilterRedis<String> filter = createFilter("modes");
+        BloomFilter<String> reference = new FilterBuilder(10_000, 0.01).hashFunction(HashMethod.Murmur3)
+            .buildBloomFilter();
+        List<String> first = IntStream.range(0, 500).mapToObj(i -> "first" + i).collect(Collectors.toList());
+        List<String> second = IntStream.range(0, 500).mapToObj(i -> "second" + i).collect(Collectors.toList());
+
+        first.forEach(e -> assertEquals(reference.add(e), filter.add(e)));
+        assertEquals(reference.addAll(second), filter.addAll(second));
+        assertEquals(Arrays.asList(false, false), filter.addAll(Arrays.asList("first0", "second0")));
+        assertEquals(reference.contains(Arrays.asList("first1", "absent1", "absent2")),
+            filter.contains(Arrays.asList("first1", "absent1", "absent2")));
+        assertTrue(filter.containsAll(first));
+        assertFalse(filter.contains("absent"));
+        assertEquals(reference.getBitSet(), filter.getBitSet());
+        filter.remove();
+    }
+
+    @Test
+    public void survivesScriptFlush() {
+        BloomFilterRedis<String> filter = createFilter("modes-flush");
+        filter.add("a");
+        Helper.getPool().safelyDo(jedis -> jedis.scriptFlush());
+        assertTrue(filter.add("b"));
+        Helper.getPool().safelyDo(jedis -> jedis.scriptFlush());
+        assertEquals(Arrays.asList(true, true, false), filter.contains(Arrays.asList("a", "b", "c")));
+        assertTrue(filter.contains("b"));
+
+        //Large batches are repeated in one pipeline after loading the script
+        List<String> batch = IntStream.range(0, 2_000).mapToObj(i -> "batch" + i).collect(Collectors.toList());
+        Helper.getPool().safelyDo(jedis -> jedis.scriptFlush());
+        assertTrue(filter.addAll(batch).stream().allMatch(b -> b));
+        Helper.getPool().safelyDo(jedis -> jedis.scriptFlush());
+        assertTrue(filter.containsAll(batch));
+        filter.remove();
+    }
+
+    @Test
+    public void maintainsPopulationCounter() throws Exception {
+        BloomFilterRedis<String> filter = createFilter("modes-population");
+        List<String> elements = IntStream.range(0, 300).mapToObj(i -> "e" + i).collect(Collectors.toList());
+        elements.subList(0, 100).forEach(filter::add);
+        filter.addAll(elements);
+        filter.getRedisBitSet().setBits(new int[]{1, 2, 3});
+        filter.getRedisBitSet().clear(1);
+        assertEquals(filter.getBitSet().cardinality(), filter.getRedisBitSet().cardinality());
+        assertEquals(BloomFilter.population(filter.getBitSet(), filter.config()), filter.getEstimatedPopulation());
+
+        AsyncBloomFilterRedis<String> async = new AsyncBloomFilterRedis<>(filter);
+        async.addAsync("async").get();
+        async.addAllAsync(Arrays.asList("async1", "async2")).get();
+        async.close();
+        assertEquals(filter.getBitSet().cardinality(), filter.getRedisBitSet().cardinality());
+
+        //Whole-array changes recount
+        BloomFilter<String> other = new FilterBuilder(10_000, 0.01).hashFunction(HashMethod.Murmur3).buildBloomFilter();
+        other.add("other");
+        assertTrue(filter.union(other));
+        assertEquals(filter.getBitSet().cardinality(), filter.getRedisBitSet().cardinality());
+        filter.getRedisBitSet().overwriteBitSet(other.getBitSet());
+        assertEquals(other.getBitSet().cardinality(), filter.getRedisBitSet().cardinality());
+        filter.clear();
+        assertEquals(0, filter.getRedisBitSet().cardinality());
+        assertTrue(filter.isEmpty());
+        filter.add("again");
+        assertEquals(filter.getBitSet().cardinality(), filter.getRedisBitSet().cardinality());
+
+        //Filters without a counter are counted once
+        Helper.getPool().safelyDo(jedis -> jedis.del(filter.getRedisBitSet().getPopulationKey()));
+        assertEquals(filter.getBitSet().cardinality(), filter.getRedisBitSet().cardinality());
+
+        //A counter that drifted, e.g. after a failed write, is corrected by recounting
+        Helper.getPool().safelyDo(jedis -> jedis.set(filter.getRedisBitSet().getPopulationKey(), "7"));
+        assertEquals(filter.getBitSet().cardinality(), filter.getRedisBitSet().recountPopulation());
+        assertEquals(filter.getBitSet().cardinality(), filter.getRedisBitSet().cardinality());
+        filter.remove();
+    }
+
+    @Test
+    public void populationCounterSurvivesConcurrentClear() throws Exception {
+        BloomFilterRedis<String> filter = createFilter("modes-population-clear");
+        Thread writer = new Thread(() -> IntStream.range(0, 2_000).forEach(i -> filter.add("e" + i)));
+        writer.start();
+        while (writer.isAlive()) {
+            filter.clear();
+            Thread.sleep(5);
+        }
+        writer.join();
+        assertEquals(filter.getBitSet().cardinality(), filter.getRedisBitSet().cardinality());
+        filter.remove();
+    }
+}
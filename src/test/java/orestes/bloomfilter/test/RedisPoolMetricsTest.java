@@ -0,0 +1,128 @@
+package orestes.bloomfilter.test;
+
+import orestes.bloomfilter.BloomFilter;
+import orestes.bloomfilter.FilterBuilder;
+import orestes.bloomfilter.HashProvider.HashMethod;
+import orestes.bloomfilter.redis.helper.RedisPool;
+import orestes.bloomfilter.redis.helper.RedisPoolListener.Operation;
+import orestes.bloomfilter.redis.helper.RedisPoolMetrics;
+import orestes.bloomfilter.redis.helper.RedisPoolMetrics.Histogram;
+import orestes.bloomfilter.test.helper.Helper;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RedisPoolMetricsTest {
+
+    private static RedisPool pool(RedisPoolMetrics metrics, Set<Map.Entry<String, Integer>> slaves) {
+        return RedisPool.builder().host(Helper.host).port(Helper.port).readSlaves(slaves).redisConnections(4)
+            .listener(metrics).build();
+    }
+
+    @Test
+    public void recordsOperations() {
+        RedisPoolMetrics metrics = new RedisPoolMetrics();
+        RedisPool pool = pool(metrics, null);
+        try {
+            pool.safelyDo(Jedis::ping);
+            pool.pipelinedDo(5, 2, (p, i) -> p.ping());
+            pool.transactionallyDo(p -> p.ping());
+
+            assertEquals(3, metrics.getBorrowWait().getCount());
+            assertEquals(1, metrics.getLatency(Operation.COMMAND).getCount());
+            assertEquals(1, metrics.getLatency(Operation.PIPELINE).getCount());
+            assertEquals(1, metrics.getLatency(Operation.TRANSACTION).getCount());
+            assertTrue(metrics.getLatency(Operation.COMMAND).getSum() > 0);
+            //Two chunks of 2 and one of 1
+            assertEquals(3, metrics.getPipelineSizes().getCount());
+            assertEquals(5, metrics.getPipelineSizes().getSum());
+            assertEquals(0, metrics.getFailures());
+
+            try {
+                pool.safelyDo(jedis -> {
+                    throw new IllegalStateException();
+                });
+                fail();
+            } catch (IllegalStateException expected) {
+            }
+            assertEquals(1, metrics.getFailures());
+            assertEquals(0, pool.getNumActive());
+            assertTrue(pool.getNumIdle() > 0);
+        } finally {
+            pool.destroy();
+        }
+    }
+
+    @Test
+    public void recordsTransactionRetries() {
+        RedisPoolMetrics metrics = new RedisPoolMetrics();
+        RedisPool pool = pool(metrics, null);
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            pool.transactionallyRetry(p -> {
+                //A concurrent change of the watched key aborts the first attempt. The pipeline is flushed first, so
+                //that WATCH reached the server.
+                if (attempts.incrementAndGet() == 1) {
+                    p.sync();
+                    try (Jedis other = Helper.getJedis()) {
+                        other.set("metrics:watched", "changed");
+                    }
+                }
+                p.set("metrics:watched", "mine");
+            }, "metrics:watched");
+            assertEquals(2, attempts.get());
+            assertEquals(1, metrics.getTransactionRetries());
+        } finally {
+            pool.safelyDo(jedis -> jedis.del("metrics:watched"));
+            pool.destroy();
+        }
+    }
+
+    @Test
+    public void recordsFilterPipelinesAndReadRouting() {
+        RedisPoolMetrics metrics = new RedisPoolMetrics();
+        RedisPool pool = pool(metrics, Collections.singleton(new SimpleEntry<>(Helper.host, Helper.slavePort)));
+        BloomFilter<String> filter = new FilterBuilder(10_000, 0.01).hashFunction(HashMethod.Murmur3)
+            .redisBacked(true)
+            .name("metrics")
+            .pool(pool)
+            .overwriteIfExists(true)
+            .buildBloomFilter();
+        try {
+            List<String> elements = IntStream.range(0, 100).mapToObj(i -> "e" + i).collect(Collectors.toList());
+            filter.addAll(elements);
+            filter.contains(elements);
+            assertTrue(metrics.getPipelineSizes().getSum() >= 100 * filter.getHashes());
+            assertTrue(metrics.getRoutedReads(Helper.host, Helper.slavePort) > 0);
+        } finally {
+            filter.remove();
+        }
+    }
+
+    @Test
+    public void histogramBounds() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getQuantileUpperBound(0.5));
+        for (int i = 0; i < 99; i++) {
+            histogram.record(3);
+        }
+        histogram.record(1000);
+        assertEquals(100, histogram.getCount());
+        assertEquals(99, histogram.getBucket(2));
+        assertEquals(4, histogram.getQuantileUpperBound(0.5));
+        assertEquals(1024, histogram.getQuantileUpperBound(1));
+        assertEquals(12.97, histogram.getMean(), 0.001);
+    }
+}
@@ -0,0 +1,172 @@
+package orestes.bloomfilter.test;
+
+import orestes.bloomfilter.redis.helper.RedisPipelineExecutor;
+import orestes.bloomfilter.redis.helper.RedisPool;
+import orestes.bloomfilter.test.helper.Helper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.time.Duration;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static orestes.bloomfilter.redis.helper.RedisPoolListener.Operation.COMMAND;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RedisReadRoutingTest {
+    private RedisPool pool;
+    private RedisPool fast;
+    private RedisPool slow;
+
+    @Before
+    public void setUp() {
+        Set<Map.Entry<String, Integer>> slaves = new LinkedHashSet<>();
+        slaves.add(new SimpleEntry<>(Helper.host, Helper.slavePort));
+        slaves.add(new SimpleEntry<>(Helper.host, Helper.port));
+        pool = RedisPool.builder().host(Helper.host).port(Helper.port).readSlaves(slaves).redisConnections(10).build();
+        slow = pool.getSlavePools().get(0);
+        fast = pool.getSlavePools().get(1);
+    }
+
+    @After
+    public void tearDown() {
+        pool.getSlavePools().forEach(RedisPool::destroy);
+        pool.destroy();
+    }
+
+    @Test
+    public void prefersSlaveWithLowerLatency() {
+        for (int i = 0; i < 100; i++) {
+            fast.getLatency().record(COMMAND, 1_000_000);
+            slow.getLatency().record(COMMAND, 50_000_000);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(fast, pool.allowingSlaves());
+        }
+    }
+
+    @Test
+    public void probesStaleSlave() throws InterruptedException {
+        fast.getLatency().record(COMMAND, 1_000_000);
+        slow.getLatency().recordFailure();
+        assertEquals(fast, pool.allowingSlaves());
+
+        //Only the fast slave keeps receiving reads, the failed one becomes stale and gets a single probe
+        Thread.sleep(1100);
+        fast.getLatency().record(COMMAND, 1_000_000);
+        int probes = 0;
+        for (int i = 0; i < 100; i++) {
+            if (pool.allowingSlaves() == slow) {
+                probes++;
+            }
+        }
+        assertEquals(1, probes);
+
+        //A fast answer to the probe replaces the penalty
+        slow.getLatency().record(COMMAND, 500_000);
+        assertEquals(500_000, slow.getLatency().getEwmaNanos());
+    }
+
+    @Test
+    public void hedgesSlowReads() {
+        //The slow slave looks faster, so it is asked first
+        for (int i = 0; i < 100; i++) {
+            fast.getLatency().record(COMMAND, 2_000_000);
+            slow.getLatency().record(COMMAND, 1_000_000);
+        }
+        pool.setHedgedReads(true);
+        assertTrue(pool.isHedgedReads());
+        int slowPort = slow.getPort();
+        long start = System.nanoTime();
+        int port = pool.allowingHedgedReads().safelyReturn(jedis -> {
+            if (jedis.getClient().getPort() == slowPort) {
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            jedis.ping();
+            return jedis.getClient().getPort();
+        });
+        assertEquals(fast.getPort(), port);
+        assertTrue(System.nanoTime() - start < 400_000_000);
+
+        pool.setHedgedReads(false);
+        assertFalse(pool.isHedgedReads());
+    }
+
+    @Test
+    public void cancelsSlowerHedgedRead() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            fast.getLatency().record(COMMAND, 2_000_000);
+            slow.getLatency().record(COMMAND, 1_000_000);
+        }
+        pool.setHedgedReads(true);
+        int slowPort = slow.getPort();
+        CountDownLatch aborted = new CountDownLatch(1);
+        int port = pool.allowingHedgedReads().safelyReturn(jedis -> {
+            if (jedis.getClient().getPort() == slowPort) {
+                try {
+                    //Blocks on a reply that never comes until the connection is closed
+                    jedis.getClient().getStatusCodeReply();
+                } catch (JedisConnectionException e) {
+                    aborted.countDown();
+                    throw e;
+                }
+            }
+            jedis.ping();
+            return jedis.getClient().getPort();
+        });
+        assertEquals(fast.getPort(), port);
+        assertTrue(aborted.await(500, TimeUnit.MILLISECONDS));
+        //Losing the race is not a failure of the slave
+        assertTrue(slow.getLatency().getEwmaNanos() < 100_000_000);
+        pool.setHedgedReads(false);
+    }
+
+    @Test
+    public void doesNotHedgeReadsAllowingSlaves() {
+        for (int i = 0; i < 100; i++) {
+            fast.getLatency().record(COMMAND, 2_000_000);
+            slow.getLatency().record(COMMAND, 1_000_000);
+        }
+        pool.setHedgedReads(true);
+        AtomicInteger calls = new AtomicInteger();
+        pool.allowingSlaves().safelyDo(jedis -> {
+            calls.incrementAndGet();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertEquals(1, calls.get());
+        pool.setHedgedReads(false);
+    }
+
+    @Test
+    public void routesPipelinedReadsPerRequest() {
+        for (int i = 0; i < 100; i++) {
+            fast.getLatency().record(COMMAND, 1_000_000);
+            slow.getLatency().record(COMMAND, 50_000_000);
+        }
+        try (RedisPipelineExecutor reader = RedisPipelineExecutor.forReads(pool, 1, 100, Duration.ZERO)) {
+            for (int i = 0; i < 50; i++) {
+                assertEquals("PONG", reader.submit(p -> p.ping()::get).join());
+            }
+        }
+        //Only the fast slave answered, and its pipelines were recorded
+        assertEquals(50_000_000, slow.getLatency().getEwmaNanos());
+        assertTrue(fast.getLatency().getEwmaNanos() != 1_000_000);
+    }
+}
@@ -0,0 +1,90 @@
+package orestes.bloomfilter.test;
+
+import orestes.bloomfilter.BloomFilter;
+import orestes.bloomfilter.HashProvider.HashMethod;
+import orestes.bloomfilter.memory.BloomFilterMemory;
+import orestes.bloomfilter.redis.BloomFilterRedis;
+import orestes.bloomfilter.test.helper.Helper;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RedisUnionTest {
+
+    private static List<String> elements(String prefix, int count) {
+        return IntStream.range(0, count).mapToObj(i -> prefix + i).collect(Collectors.toList());
+    }
+
+    @Test
+    public void unionAndIntersectOnSameNode() {
+        BloomFilterRedis<String> a = Helper.createRedisFilter("union-a", 1_000, 0.01, HashMethod.Murmur3, true);
+        BloomFilterRedis<String> b = Helper.createRedisFilter("union-b", 1_000, 0.01, HashMethod.Murmur3, true);
+        a.addAll(elements("a", 100));
+        b.addAll(elements("b", 100));
+        BitSet expectedUnion = a.getBitSet();
+        expectedUnion.or(b.getBitSet());
+
+        assertTrue(a.union(b));
+        assertEquals(expectedUnion, a.getBitSet());
+        assertTrue(a.containsAll(elements("b", 100)));
+
+        b.add("only-b");
+        BitSet expectedIntersection = b.getBitSet();
+        expectedIntersection.and(a.getBitSet());
+        assertTrue(b.intersect(a));
+        assertEquals(expectedIntersection, b.getBitSet());
+        BloomFilterRedis<String> c = Helper.createRedisFilter("union-c", 1_000, 0.01, HashMethod.Murmur3, true);
+        c.addAll(elements("a", 100));
+        assertTrue(c.intersect(Helper.<String>createRedisFilter("union-b2", 1_000, 0.01, HashMethod.Murmur3, true)));
+        assertTrue(c.isEmpty());
+
+        //Incompatible filters are rejected without changes
+        BloomFilterRedis<String> other = Helper.createRedisFilter("union-other", 5_000, 0.01, HashMethod.Murmur3, true);
+        assertFalse(a.union(other));
+        assertEquals(expectedUnion, a.getBitSet());
+        Arrays.asList(a, b, c, other).forEach(BloomFilter::remove);
+    }
+
+    @Test
+    public void unionAcrossNodesAndMemory() {
+        BloomFilterRedis<String> weekly = Helper.createRedisFilter("weekly", 1_000, 0.01, HashMethod.Murmur3, true);
+        //A different database is not reachable by BITOP and is copied in chunks
+        BloomFilterRedis<String> remote = Helper.createRedisFilter("daily-remote", 1_000, 0.01, HashMethod.Murmur3,
+            true, 1);
+        remote.addAll(elements("remote", 100));
+        BloomFilterMemory<String> memory = Helper.createFilter(1_000, 0.01, HashMethod.Murmur3);
+        memory.addAll(elements("memory", 100));
+        List<BloomFilter<String>> dailies = IntStream.range(0, 7).mapToObj(day -> {
+            BloomFilterRedis<String> daily = Helper.createRedisFilter("daily" + day, 1_000, 0.01, HashMethod.Murmur3,
+                true);
+            daily.addAll(elements("day" + day + "-", 50));
+            return daily;
+        }).collect(Collectors.toList());
+
+        BitSet expected = new BitSet();
+        dailies.forEach(daily -> expected.or(daily.getBitSet()));
+        expected.or(remote.getBitSet());
+        expected.or(memory.getBitSet());
+
+        dailies.add(remote);
+        dailies.add(memory);
+        assertTrue(weekly.unionAll(dailies));
+        assertEquals(expected, weekly.getBitSet());
+        assertTrue(weekly.containsAll(elements("day3-", 50)));
+        assertTrue(weekly.containsAll(elements("remote", 100)));
+        assertTrue(weekly.containsAll(elements("memory", 100)));
+        //Temporary copies are removed
+        assertEquals(1L, (long) weekly.getRedisPool().safelyReturn(jedis -> jedis.keys("weekly:bits*").size()));
+
+        dailies.forEach(BloomFilter::remove);
+        weekly.remove();
+    }
+}
@@ -0,0 +1,266 @@
+package orestes.bloomfilter.test;
+
+import orestes.bloomfilter.FilterBuilder;
+import orestes.bloomfilter.HashProvider.HashMethod;
+import orestes.bloomfilter.memory.BloomFilterMemory;
+import orestes.bloomfilter.redis.BloomFilterRedis;
+import orestes.bloomfilter.redis.ResilientBloomFilterRedis;
+import orestes.bloomfilter.redis.ResilientBloomFilterRedis.Fallback;
+import orestes.bloomfilter.redis.WriteBehindBloomFilterRedis;
+import orestes.bloomfilter.redis.helper.CircuitBreaker;
+import orestes.bloomfilter.redis.helper.CircuitBreaker.State;
+import orestes.bloomfilter.test.helper.Helper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ResilientBFTest {
+
+    private static FilterBuilder builder(boolean overwrite) {
+        return new FilterBuilder(10_000, 0.01).hashFunction(HashMethod.Murmur3)
+            .redisBacked(true)
+            .name("resilient")
+            .redisHost(Helper.host)
+            .redisPort(Helper.port)
+            .overwriteIfExists(overwrite);
+    }
+
+    private static BloomFilterRedis<String> createFilter(boolean overwrite) {
+        return new BloomFilterRedis<>(builder(overwrite));
+    }
+
+    /**
+     * Stalls all Redis clients with CLIENT PAUSE, which Jedis 2.9 does not offer.
+     */
+    private static void pauseRedis(long millis) throws IOException {
+        try (Socket socket = new Socket(Helper.host, Helper.port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("CLIENT PAUSE " + millis + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            //+OK
+            while (in.read() != '\n') {
+            }
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    public void answersFromSnapshotAndReplaysWrites() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(2, Duration.ofMillis(200));
+        ResilientBloomFilterRedis<String> filter = new ResilientBloomFilterRedis<>(createFilter(true),
+            Duration.ofMillis(100), breaker, Duration.ofHours(1), Fallback.SNAPSHOT, 1_000);
+        BloomFilterRedis<String> reader = createFilter(false);
+        try {
+            filter.add("before");
+            filter.refreshSnapshot();
+            assertTrue(filter.hasSnapshot());
+
+            pauseRedis(1_500);
+            assertTrue(filter.contains("before"));
+            assertFalse(filter.contains("absent"));
+            assertEquals(State.OPEN, breaker.getState());
+            assertEquals(2, filter.getTimeouts());
+
+            //Rejected without waiting for Redis
+            long start = System.nanoTime();
+            assertTrue(filter.add("during"));
+            filter.addAll(Arrays.asList("during1", "during2"));
+            assertEquals(Arrays.asList(true, true, false),
+                filter.contains(Arrays.asList("during", "during2", "absent")));
+            assertTrue(System.nanoTime() - start < 100_000_000);
+            assertEquals(3, filter.getPendingWrites());
+            assertTrue(filter.getFallbackReads() >= 5);
+            assertTrue(breaker.getRejected() > 0);
+
+            //The probe after the pause closes the breaker and the writes are replayed
+            Thread.sleep(1_600);
+            await(() -> filter.contains("before") && breaker.getState() == State.CLOSED);
+            await(() -> filter.getPendingWrites() == 0);
+            assertEquals(3, filter.getReplayedWrites());
+            assertTrue(reader.containsAll(Arrays.asList("during", "during1", "during2")));
+            assertEquals(1, breaker.getOpenings());
+        } finally {
+            filter.close();
+            filter.remove();
+        }
+    }
+
+    @Test
+    public void answersPessimisticallyWithoutSnapshot() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, Duration.ofSeconds(10));
+        ResilientBloomFilterRedis<String> filter = new ResilientBloomFilterRedis<>(createFilter(true),
+            Duration.ofMillis(100), breaker, Duration.ofHours(1), Fallback.MAYBE_PRESENT, 1);
+        try {
+            assertFalse(filter.contains("absent"));
+            pauseRedis(500);
+            assertTrue(filter.contains("absent"));
+            assertEquals(State.OPEN, breaker.getState());
+            List<Boolean> contains = filter.contains(Arrays.asList("a", "b"));
+            assertEquals(Arrays.asList(true, true), contains);
+
+            filter.add("queued");
+            try {
+                filter.add("overflow");
+                throw new AssertionError("The pending writes must be bounded");
+            } catch (IllegalStateException expected) {
+            }
+            assertEquals(1, filter.getPendingWrites());
+        } finally {
+            Thread.sleep(500);
+            filter.remove();
+        }
+    }
+
+    @Test
+    public void rejectsCallsWhileAllThreadsWait() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(100, Duration.ofSeconds(10));
+        ResilientBloomFilterRedis<String> filter = new ResilientBloomFilterRedis<>(
+            new BloomFilterRedis<>(builder(true).redisConnections(2)), Duration.ofMillis(100), breaker,
+            Duration.ofHours(1), Fallback.MAYBE_PRESENT, 1_000);
+        try {
+            assertFalse(filter.contains("absent"));
+            pauseRedis(1_000);
+            //The timed out reads keep both threads blocked on their sockets
+            assertTrue(filter.contains("absent"));
+            assertTrue(filter.contains("absent"));
+            long start = System.nanoTime();
+            assertTrue(filter.contains("absent"));
+            assertTrue(System.nanoTime() - start < 50_000_000);
+            assertEquals(2, filter.getTimeouts());
+            assertEquals(1, filter.getRejectedCalls());
+
+            Thread.sleep(1_000);
+            await(() -> !filter.contains("absent"));
+        } finally {
+            filter.remove();
+        }
+    }
+
+    @Test
+    public void replaysThroughWrappedFilter() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, Duration.ofMillis(100));
+        WriteBehindBloomFilterRedis<String> writeBehind = new WriteBehindBloomFilterRedis<>(builder(true),
+            Duration.ofHours(1));
+        ResilientBloomFilterRedis<String> filter = new ResilientBloomFilterRedis<>(writeBehind,
+            Duration.ofMillis(100), breaker, Duration.ofHours(1), Fallback.SNAPSHOT, 1_000);
+        try {
+            breaker.recordFailure();
+            assertTrue(filter.add("queued"));
+            assertEquals(1, filter.getPendingWrites());
+            Thread.sleep(150);
+            assertTrue(filter.replay());
+            assertEquals(State.CLOSED, breaker.getState());
+            assertEquals(0, filter.getPendingWrites());
+            //The write went into the write-behind delta instead of directly to Redis
+            assertFalse(writeBehind.isFlushed());
+            assertTrue(writeBehind.contains("queued"));
+
+            //Nothing to replay, the breaker keeps its probe
+            breaker.recordFailure();
+            Thread.sleep(150);
+            assertTrue(filter.replay());
+            assertTrue(breaker.allowRequest());
+            breaker.recordSuccess();
+        } finally {
+            filter.close();
+            filter.remove();
+        }
+    }
+
+    @Test
+    public void snapshotKeepsWritesDuringDownload() throws Exception {
+        CountDownLatch downloaded = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        BloomFilterRedis<String> blocking = new BloomFilterRedis<String>(builder(true)) {
+            @Override
+            public BloomFilterMemory<String> toMemoryFilter() {
+                BloomFilterMemory<String> copy = super.toMemoryFilter();
+                if (Thread.currentThread().getName().equals("download")) {
+                    downloaded.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return copy;
+            }
+        };
+        CircuitBreaker breaker = new CircuitBreaker(1, Duration.ofSeconds(10));
+        ResilientBloomFilterRedis<String> filter = new ResilientBloomFilterRedis<>(blocking, Duration.ZERO, breaker,
+            Duration.ofHours(1), Fallback.SNAPSHOT, 1_000);
+        try {
+            Thread download = new Thread(filter::refreshSnapshot, "download");
+            download.start();
+            assertTrue(downloaded.await(10, TimeUnit.SECONDS));
+            //Written to Redis after the download, then queued while the breaker is open
+            filter.add("written");
+            breaker.recordFailure();
+            filter.add("queued");
+            release.countDown();
+            download.join();
+
+            assertEquals(State.OPEN, breaker.getState());
+            assertTrue(filter.contains("written"));
+            assertTrue(filter.contains("queued"));
+            assertFalse(filter.contains("absent"));
+        } finally {
+            filter.close();
+            filter.remove();
+        }
+    }
+
+    @Test
+    public void breakerTransitions() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(2, Duration.ofMillis(50));
+        StringBuilder transitions = new StringBuilder();
+        breaker.setListener((from, to) -> transitions.append(from).append("->").append(to).append(' '));
+
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        assertEquals(State.CLOSED, breaker.getState());
+        breaker.recordFailure();
+        assertEquals(State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+
+        Thread.sleep(60);
+        assertTrue(breaker.allowRequest());
+        //Only one probe
+        assertFalse(breaker.allowRequest());
+        breaker.recordFailure();
+        assertEquals(State.OPEN, breaker.getState());
+
+        Thread.sleep(60);
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(2, breaker.getOpenings());
+        assertEquals(4, breaker.getFailures());
+        assertEquals("CLOSED->OPEN OPEN->HALF_OPEN HALF_OPEN->OPEN OPEN->HALF_OPEN HALF_OPEN->CLOSED ",
+            transitions.toString());
+    }
+}
@@ -0,0 +1,75 @@
+package orestes.bloomfilter.test;
+
+import orestes.bloomfilter.BloomFilter;
+import orestes.bloomfilter.FilterBuilder;
+import orestes.bloomfilter.HashProvider.HashMethod;
+import orestes.bloomfilter.ShardedBloomFilter;
+import orestes.bloomfilter.memory.BloomFilterMemory;
+import orestes.bloomfilter.redis.ShardedBloomFilterRedis;
+import orestes.bloomfilter.redis.helper.RedisPool;
+import orestes.bloomfilter.test.helper.Helper;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedBFTest {
+
+    private static ShardedBloomFilter<String> createMemoryFilter(FilterBuilder config, List<String> ids) {
+        List<BloomFilterMemory<String>> shards = new ArrayList<>();
+        for (String ignored : ids) {
+            shards.add(new BloomFilterMemory<>(ShardedBloomFilter.shardConfig(config, ids.size())));
+        }
+        return new ShardedBloomFilter<>(config, ids, shards, false);
+    }
+
+    @Test
+    public void consistentHashingMovesFewElements() {
+        FilterBuilder config = new FilterBuilder(10_000, 0.01).hashFunction(HashMethod.Murmur3);
+        ShardedBloomFilter<String> four = createMemoryFilter(config, Arrays.asList("a:1", "b:1", "c:1", "d:1"));
+        ShardedBloomFilter<String> five = createMemoryFilter(config, Arrays.asList("a:1", "b:1", "c:1", "d:1", "e:1"));
+        long moved = IntStream.range(0, 10_000).mapToObj(i -> ("key" + i).getBytes())
+            .filter(key -> four.shard(key) != five.shard(key)).count();
+        //About 1/5 of the elements move to the new shard, all others keep their shard
+        assertEquals(2_000, moved, 600);
+        long toNewShard = IntStream.range(0, 10_000).mapToObj(i -> ("key" + i).getBytes())
+            .filter(key -> four.shard(key) != five.shard(key)).filter(key -> five.shard(key) == 4).count();
+        assertEquals(moved, toNewShard);
+    }
+
+    @Test
+    public void redisShardsAggregate() {
+        List<RedisPool> pools = IntStream.range(0, 3)
+            .mapToObj(db -> RedisPool.builder().host(Helper.host).port(Helper.port).database(db).redisConnections(4)
+                .build())
+            .collect(Collectors.toList());
+        FilterBuilder config = new FilterBuilder(30_000, 0.01).hashFunction(HashMethod.Murmur3).name("sharded")
+            .overwriteIfExists(true);
+        ShardedBloomFilterRedis<String> filter = new ShardedBloomFilterRedis<>(config, pools);
+        assertEquals(10_000, filter.getShards().get(0).getExpectedElements());
+
+        List<String> elements = IntStream.range(0, 6_000).mapToObj(i -> "element" + i).collect(Collectors.toList());
+        assertTrue(filter.isEmpty());
+        elements.subList(0, 100).forEach(filter::add);
+        List<Boolean> added = filter.addAll(elements);
+        assertTrue(added.subList(0, 100).stream().noneMatch(b -> b));
+        assertTrue(filter.containsAll(elements));
+        assertFalse(filter.contains("absent"));
+        assertEquals(6_000, filter.getEstimatedPopulation(), 300);
+        assertTrue(filter.getShards().stream().noneMatch(BloomFilter::isEmpty));
+
+        BloomFilter<String> memory = filter.toMemoryFilter();
+        List<String> probe = IntStream.range(0, 10_000).mapToObj(i -> "probe" + i).collect(Collectors.toList());
+        assertEquals(filter.contains(probe), memory.contains(probe));
+        assertTrue(memory.containsAll(elements));
+        assertEquals(filter.getBitSet(), memory.getBitSet());
+        filter.remove();
+    }
+}
@@ -0,0 +1,173 @@
+package orestes.bloomfilter.test;
+
+import orestes.bloomfilter.BloomFilter;
+import orestes.bloomfilter.CountingBloomFilter;
+import orestes.bloomfilter.FilterBuilder;
+import orestes.bloomfilter.HashProvider.HashMethod;
+import orestes.bloomfilter.redis.RedisStorage;
+import orestes.bloomfilter.redis.helper.RedisPool;
+import orestes.bloomfilter.storage.InProcessStorage;
+import orestes.bloomfilter.storage.StorageBackend;
+import orestes.bloomfilter.storage.StoredBloomFilter;
+import orestes.bloomfilter.storage.StoredCountingBloomFilter;
+import orestes.bloomfilter.storage.StoredExpiringBloomFilter;
+import orestes.bloomfilter.test.helper.Helper;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(Parameterized.class)
+public class StorageBackendTest {
+    private final String backendName;
+    private final StorageBackend backend;
+    private final RedisPool pool;
+
+    @Parameterized.Parameters(name = "Stored filters on the {0} backend")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[]{"memory"}, new Object[]{"redis"});
+    }
+
+    public StorageBackendTest(String backendName) {
+        this.backendName = backendName;
+        this.pool = backendName.equals("redis") ? Helper.getPool() : null;
+        this.backend = pool != null ? new RedisStorage(pool) : new InProcessStorage();
+    }
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.safelyDo(jedis -> jedis.del("stored:bits", "stored:counts", "stored:population", "stored-other:bits",
+                "stored-other:population"));
+            pool.destroy();
+        }
+    }
+
+    private FilterBuilder builder(boolean overwrite) {
+        return new FilterBuilder(10_000, 0.01).hashFunction(HashMethod.Murmur3)
+            .name("stored")
+            .storage(backend)
+            .overwriteIfExists(overwrite);
+    }
+
+    private static List<String> elements(String prefix, int count) {
+        return IntStream.range(0, count).mapToObj(i -> prefix + i).collect(Collectors.toList());
+    }
+
+    @Test
+    public void behavesLikeMemoryFilter() {
+        BloomFilter<String> filter = builder(true).buildBloomFilter();
+        assertTrue(filter instanceof StoredBloomFilter);
+        BloomFilter<String> reference = new FilterBuilder(10_000, 0.01).hashFunction(HashMethod.Murmur3)
+            .buildBloomFilter();
+        List<String> first = elements("first", 500);
+        List<String> second = elements("second", 500);
+
+        first.forEach(e -> assertEquals(reference.add(e), filter.add(e)));
+        assertEquals(reference.addAll(second), filter.addAll(second));
+        assertEquals(reference.contains(Arrays.asList("first1", "absent1", "absent2")),
+            filter.contains(Arrays.asList("first1", "absent1", "absent2")));
+        assertEquals(reference.getBitSet(), filter.getBitSet());
+        assertEquals(reference.getEstimatedPopulation(), filter.getEstimatedPopulation(), 0.0001);
+
+        //Filters with the same name share their bits
+        BloomFilter<String> shared = builder(false).buildBloomFilter();
+        assertTrue(shared.containsAll(first));
+
+        filter.clear();
+        assertTrue(filter.isEmpty());
+        assertFalse(shared.contains("first1"));
+    }
+
+    @Test
+    public void unionAndIntersect() {
+        BloomFilter<String> filter = builder(true).buildBloomFilter();
+        BloomFilter<String> other = new FilterBuilder(10_000, 0.01).hashFunction(HashMethod.Murmur3)
+            .buildBloomFilter();
+        filter.addAll(elements("first", 100));
+        other.addAll(elements("second", 100));
+        other.add("first0");
+
+        assertTrue(filter.union(other));
+        assertTrue(filter.containsAll(elements("second", 100)));
+        assertTrue(filter.intersect(other));
+        assertEquals(other.getBitSet(), filter.getBitSet());
+    }
+
+    @Test
+    public void unionKeepsConcurrentAdds() throws InterruptedException {
+        StoredBloomFilter<String> filter = (StoredBloomFilter<String>) builder(true).<String>buildBloomFilter();
+        BloomFilter<String> other = new FilterBuilder(10_000, 0.01).hashFunction(HashMethod.Murmur3)
+            .name("stored-other")
+            .storage(backend)
+            .overwriteIfExists(true)
+            .buildBloomFilter();
+        other.addAll(elements("other", 100));
+
+        Thread writer = new Thread(() -> elements("concurrent", 300).forEach(filter::add));
+        writer.start();
+        while (writer.isAlive()) {
+            assertTrue(filter.union(other));
+        }
+        writer.join();
+        assertTrue(filter.containsAll(elements("concurrent", 300)));
+        assertTrue(filter.containsAll(elements("other", 100)));
+        assertEquals(filter.getBitSet().cardinality(), filter.getBitStore().cardinality());
+    }
+
+    @Test
+    public void countsElements() {
+        CountingBloomFilter<String> filter = builder(true).buildCountingBloomFilter();
+        assertTrue(filter instanceof StoredCountingBloomFilter);
+
+        assertEquals(1, filter.addAndEstimateCount("a"));
+        assertEquals(2, filter.addAndEstimateCount("a"));
+        assertEquals(Arrays.asList(3L, 1L), filter.addAllAndEstimateCount(Arrays.asList("a", "b")));
+        assertEquals(3, filter.getEstimatedCount("a"));
+        assertTrue(filter.containsAll(Arrays.asList("a", "b")));
+
+        assertEquals(Arrays.asList(2L, 0L), filter.removeAllAndEstimateCount(Arrays.asList("a", "b")));
+        assertFalse(filter.contains("b"));
+        assertFalse(filter.remove("a"));
+        assertTrue(filter.contains("a"));
+        assertTrue(filter.remove("a"));
+        assertFalse(filter.contains("a"));
+        assertEquals(0, filter.getEstimatedCount("a"));
+        assertTrue(filter.isEmpty());
+    }
+
+    @Test
+    public void expiresElements() throws InterruptedException {
+        StoredExpiringBloomFilter<String> filter = new StoredExpiringBloomFilter<>(builder(true));
+        assertNull(filter.reportWrite("uncached", TimeUnit.MILLISECONDS));
+        assertFalse(filter.contains("uncached"));
+
+        filter.reportRead("cached", 300, TimeUnit.MILLISECONDS);
+        filter.reportRead("cached", 10, TimeUnit.MILLISECONDS);
+        assertTrue(filter.isCached("cached"));
+        assertTrue(filter.getRemainingTTL("cached", TimeUnit.MILLISECONDS) > 100);
+        assertNull(filter.getRemainingTTLs(Arrays.asList("cached", "uncached"), TimeUnit.MILLISECONDS).get(1));
+
+        assertTrue(filter.reportWrite("cached"));
+        assertTrue(filter.contains("cached"));
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (filter.contains("cached") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertFalse(filter.contains("cached"));
+        assertFalse(filter.isCached("cached"));
+        filter.clear();
+    }
+}
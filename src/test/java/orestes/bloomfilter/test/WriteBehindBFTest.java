@@ -0,0 +1,119 @@
+package orestes.bloomfilter.test;
+
+import orestes.bloomfilter.FilterBuilder;
+import orestes.bloomfilter.HashProvider.HashMethod;
+import orestes.bloomfilter.redis.BloomFilterRedis;
+import orestes.bloomfilter.redis.WriteBehindBloomFilterRedis;
+import orestes.bloomfilter.test.helper.Helper;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WriteBehindBFTest {
+
+    private static FilterBuilder builder(boolean overwrite) {
+        return new FilterBuilder(100_000, 0.01).hashFunction(HashMethod.Murmur3)
+            .redisBacked(true)
+            .name("writebehind")
+            .redisHost(Helper.host)
+            .redisPort(Helper.port)
+            .overwriteIfExists(overwrite);
+    }
+
+    private static List<String> elements(int count) {
+        return IntStream.range(0, count).mapToObj(i -> "element" + i).collect(Collectors.toList());
+    }
+
+    @Test
+    public void addsLocallyUntilFlushed() {
+        WriteBehindBloomFilterRedis<String> writer = new WriteBehindBloomFilterRedis<>(builder(true), Duration.ofHours(1));
+        BloomFilterRedis<String> reader = new BloomFilterRedis<>(builder(false));
+
+        writer.addAll(elements(10));
+        writer.add("single");
+        assertTrue(writer.contains("single"));
+        assertTrue(writer.containsAll(elements(10)));
+        assertEquals(Arrays.asList(true, false), writer.contains(Arrays.asList("single", "missing")));
+        assertFalse(writer.isFlushed());
+        assertFalse(reader.contains("single"));
+
+        writer.flush();
+        assertTrue(writer.isFlushed());
+        assertTrue(reader.contains("single"));
+        assertTrue(reader.containsAll(elements(10)));
+        assertTrue(writer.contains("single"));
+
+        //Elements with bits in redis and in the delta
+        writer.add("other");
+        assertTrue(writer.containsAll(Arrays.asList("single", "other")));
+        writer.remove();
+    }
+
+    @Test
+    public void flushesDenseDeltaWithBitop() {
+        WriteBehindBloomFilterRedis<String> writer = new WriteBehindBloomFilterRedis<>(builder(true), Duration.ofHours(1));
+        BloomFilterRedis<String> reader = new BloomFilterRedis<>(builder(false));
+        reader.addAll(elements(20_000).subList(10_000, 20_000));
+
+        writer.addAll(elements(10_000));
+        assertTrue(writer.containsAll(elements(20_000)));
+        writer.flush();
+        assertTrue(reader.containsAll(elements(20_000)));
+        assertEquals(reader.getBitSet(), writer.getBitSet());
+        writer.remove();
+    }
+
+    @Test
+    public void flushesInBackgroundAndOnClose() throws InterruptedException {
+        WriteBehindBloomFilterRedis<String> writer = new WriteBehindBloomFilterRedis<>(builder(true), Duration.ofMillis(20));
+        BloomFilterRedis<String> reader = new BloomFilterRedis<>(builder(false));
+
+        writer.add("background");
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!reader.contains("background") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(reader.contains("background"));
+
+        writer.close();
+        try {
+            writer.add("closed");
+            fail("Adding to a closed filter must fail");
+        } catch (IllegalStateException expected) {
+        }
+        assertTrue(writer.isFlushed());
+        reader.remove();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveInterval() {
+        new WriteBehindBloomFilterRedis<String>(builder(false), Duration.ZERO);
+    }
+
+    @Test
+    public void keepsDeltaWhenFlushFails() {
+        WriteBehindBloomFilterRedis<String> writer = new WriteBehindBloomFilterRedis<>(builder(true), Duration.ofHours(1));
+        BloomFilterRedis<String> reader = new BloomFilterRedis<>(builder(false));
+
+        writer.add("pending");
+        writer.getRedisPool().destroy();
+        try {
+            writer.flush();
+            fail("Flushing without a connection must fail");
+        } catch (RuntimeException expected) {
+        }
+        assertFalse(writer.isFlushed());
+        assertTrue(writer.contains("pending"));
+        assertFalse(reader.contains("pending"));
+        reader.remove();
+    }
+}
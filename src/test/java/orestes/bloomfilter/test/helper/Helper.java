@@ -22,6 +22,8 @@ public class Helper {
     public static String host = "10.12.64.189"; //127.0.0.1
     public static int port = 6301; //6379
     public static int slavePort = 6380;
+    // Any master of a Redis Cluster, e.g. created with redis-cli --cluster create
+    public static int clusterPort = 7000;
     private static int connections = 10;
     
     private static final String sentinelHostName = host;
@@ -1,7 +1,9 @@
 package performance;
 
 import orestes.bloomfilter.BloomFilter;
+import orestes.bloomfilter.FilterBuilder;
 import orestes.bloomfilter.HashProvider.HashMethod;
+import orestes.bloomfilter.storage.InProcessStorage;
 import orestes.bloomfilter.test.MemoryBFTest;
 import orestes.bloomfilter.test.helper.Helper;
 
@@ -20,6 +22,9 @@ import java.util.stream.IntStream;
  * False Positives = 5231, FP-Rate = 17.436666666666667
  * 107.078s, 280.1696 elements/s
  * 5.018s, 5978.4775 elements/s
+ * <p>
+ * The first argument selects the storage backend: "memory" for the in-process backend, anything else for
+ * {@link orestes.bloomfilter.redis.BloomFilterRedis}.
  */
 public class RedisBFPerformance {
     public static void main(String[] args) throws Exception {
@@ -27,7 +32,10 @@ public class RedisBFPerformance {
         int count = 30_000;
         int m = 100_000;
         int k = 10;
-        BloomFilter<String> b = Helper.createRedisFilter("ruby", m, k, HashMethod.Murmur2, true);
+        BloomFilter<String> b = args.length > 0 && args[0].equals("memory")
+            ? new FilterBuilder(m, k).hashFunction(HashMethod.Murmur2).name("ruby")
+                .storage(new InProcessStorage()).overwriteIfExists(true).buildBloomFilter()
+            : Helper.createRedisFilter("ruby", m, k, HashMethod.Murmur2, true);
         compareToRuby(count, items, b);
         dumbParallelAdds(count, items, b);
         BloomFilter<String> b3 = Helper.createFilter(m * 10, k, HashMethod.Murmur2);